@@ -28,6 +28,9 @@ import java.util.Map;
  * Adapded from the implementation found in:
  * http://www.params.me/2013/06/boyer-moore-string-search.html
  *
+ * No longer used by the passive scan rules, kept for the
+ * {@link LegacyContentMatcher} benchmark baseline.
+ *
  * @author yhawke 2013
  */
 public class BoyerMooreMatcher {
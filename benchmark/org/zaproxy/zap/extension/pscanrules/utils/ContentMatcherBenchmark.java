@@ -0,0 +1,120 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.pscanrules.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom.JDOMException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link ContentMatcher} with the former implementation
+ * ({@link LegacyContentMatcher}) on the patterns of the Application Error
+ * scanner, for HTML pages with and without an error message at their end.
+ * <p>
+ * The resources of the add-ons must be in the class path, e.g.:
+ * {@code ant benchmark -Dbenchmark.args="ContentMatcherBenchmark"}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentMatcherBenchmark {
+
+    private static final String APP_ERRORS_FILE = "/org/zaproxy/zap/extension/pscanrules/resources/application_errors.xml";
+
+    private static final String[] WORDS = { "the", "of", "and", "to", "in", "is", "you", "that", "it", "was", "for",
+            "on", "are", "as", "with", "they", "at", "be", "this", "from", "have", "or", "by", "one", "not", "but",
+            "what", "all", "were", "when", "there", "can", "an", "your", "which", "said", "if", "do", "will", "each",
+            "about", "how", "up", "out", "then", "many", "some", "so", "these", "would", "other", "into", "has",
+            "more", "two", "like", "time", "could", "no", "make", "than", "first", "been", "its", "who", "now" };
+
+    @Param({ "4096", "65536", "524288" })
+    private int pageSize;
+
+    @Param({ "false", "true" })
+    private boolean withError;
+
+    private String page;
+
+    private ContentMatcher matcher;
+
+    private LegacyContentMatcher legacyMatcher;
+
+    @Setup
+    public void setUp() throws JDOMException, IOException {
+        try (InputStream is = getPatterns()) {
+            matcher = ContentMatcher.getInstance(is);
+        }
+        try (InputStream is = getPatterns()) {
+            legacyMatcher = new LegacyContentMatcher(is);
+        }
+
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder(pageSize + 100);
+        text.append("<html><head><title>Page</title></head><body><div class=\"content\"><p>");
+        while (text.length() < pageSize) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            text.append(random.nextInt(12) == 0 ? "</p>\n<p>" : " ");
+        }
+        if (withError) {
+            text.append("You have an error in your SQL syntax");
+        }
+        text.append("</p></div></body></html>");
+        page = text.toString();
+
+        String evidence = matcher.findInContent(page);
+        String legacyEvidence = legacyMatcher.findInContent(page);
+        if (evidence == null ? legacyEvidence != null : !evidence.equals(legacyEvidence)) {
+            throw new IllegalStateException("Evidence differs: " + evidence + " / " + legacyEvidence);
+        }
+    }
+
+    private static InputStream getPatterns() {
+        InputStream is = ContentMatcherBenchmark.class.getResourceAsStream(APP_ERRORS_FILE);
+        if (is == null) {
+            throw new IllegalStateException("Resource not found in class path: " + APP_ERRORS_FILE);
+        }
+        return is;
+    }
+
+    @Benchmark
+    public String contentMatcher() {
+        return matcher.findInContent(page);
+    }
+
+    @Benchmark
+    public String legacyContentMatcher() {
+        return legacyMatcher.findInContent(page);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.pscanrules.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+
+/**
+ * The {@link ContentMatcher} as it was before the string patterns and the
+ * literals of the regex patterns were searched with a single pass, kept to
+ * compare both in {@link ContentMatcherBenchmark}.
+ * <p>
+ * Each string pattern is searched with its own {@link BoyerMooreMatcher} and
+ * every regex pattern is always run.
+ */
+class LegacyContentMatcher {
+
+    private static final String TAG_PATTERN = "Pattern";
+    private static final String TAG_PATTERN_TYPE = "type";
+    private static final String TAG_PATTERN_TYPE_REGEX = "regex";
+    
+    private final List<BoyerMooreMatcher> strings = new ArrayList<>();
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    LegacyContentMatcher(InputStream xmlInputStream) throws JDOMException, IOException {
+        SAXBuilder builder = new SAXBuilder();
+        Document doc = builder.build(xmlInputStream);
+        Element el = doc.getRootElement();
+        String value;
+        
+        for (Object obj : el.getChildren(TAG_PATTERN)) {
+            el = (Element)obj;
+            value = el.getText();
+            
+            if (value != null && !value.isEmpty()) {
+                if (el.getAttributeValue(TAG_PATTERN_TYPE).equalsIgnoreCase(TAG_PATTERN_TYPE_REGEX)) {
+                    patterns.add(Pattern.compile(el.getText()));
+                } else {
+                    strings.add(new BoyerMooreMatcher(el.getText()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Search for an occurrence inside a specific content
+     * @param content the string content to search into
+     * @return the found occurrence or null if no match has been done
+     */
+    String findInContent(String content) {
+        
+        // First check for a simple exact occurrence
+        for (BoyerMooreMatcher matcher : strings) {
+            if (matcher.findInContent(content) >= 0)
+                return matcher.getPattern();
+        }
+        
+        // Then check for a regex occurrence
+        Matcher matcher;
+        for (Pattern pattern : patterns) {
+            matcher = pattern.matcher(content);
+            if (matcher.find()) {
+                return matcher.group();
+            }
+        }
+        
+        // No match found return null
+        return null;
+    }
+}
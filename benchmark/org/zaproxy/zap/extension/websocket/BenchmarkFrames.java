@@ -0,0 +1,169 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Helpers shared by the WebSocket benchmarks.
+ */
+final class BenchmarkFrames {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+	private static final byte[] MASK = { 0x37, (byte) 0xfa, 0x21, 0x3d };
+
+	private BenchmarkFrames() {
+	}
+
+	/**
+	 * Builds one final frame as sent on the wire.
+	 * 
+	 * @param opcode
+	 * @param payload unmasked payload
+	 * @param masked True for frames from browser to server.
+	 * @return whole frame including header
+	 */
+	static byte[] createFrame(int opcode, byte[] payload, boolean masked) {
+		int payloadSize = payload.length;
+		int extendedLength = (payloadSize < 126) ? 0 : (payloadSize < 65536) ? 2 : 8;
+		int headerLength = 2 + extendedLength + (masked ? MASK.length : 0);
+
+		byte[] frame = new byte[headerLength + payloadSize];
+		frame[0] = (byte) (0x80 | (opcode & 0x0F));
+		byte maskBit = (byte) (masked ? 0x80 : 0x00);
+		if (extendedLength == 0) {
+			frame[1] = (byte) (maskBit | payloadSize);
+		} else if (extendedLength == 2) {
+			frame[1] = (byte) (maskBit | 126);
+			frame[2] = (byte) (payloadSize >> 8);
+			frame[3] = (byte) payloadSize;
+		} else {
+			frame[1] = (byte) (maskBit | 127);
+			for (int i = 0; i < 8; i++) {
+				frame[2 + i] = (byte) ((long) payloadSize >>> (56 - 8 * i));
+			}
+		}
+
+		if (masked) {
+			System.arraycopy(MASK, 0, frame, 2 + extendedLength, MASK.length);
+		}
+		for (int i = 0; i < payloadSize; i++) {
+			frame[headerLength + i] = masked ? (byte) (payload[i] ^ MASK[i % MASK.length]) : payload[i];
+		}
+		return frame;
+	}
+
+	/**
+	 * @param size
+	 * @return random bytes, same for each call with same size
+	 */
+	static byte[] createBinaryPayload(int size) {
+		byte[] payload = new byte[size];
+		new Random(42).nextBytes(payload);
+		return payload;
+	}
+
+	/**
+	 * @param size
+	 * @param multiByte If true, two and three byte sequences are mixed into the text.
+	 * @return UTF-8 encoded text of given size
+	 */
+	static byte[] createTextPayload(int size, boolean multiByte) {
+		String pattern = multiByte ? "{\"k\":\"Gr\u00fc\u00dfe \u20ac\"}" : "{\"key\":\"value\"}";
+		StringBuilder text = new StringBuilder(size);
+		while (text.length() < size) {
+			text.append(pattern);
+		}
+
+		byte[] bytes = text.toString().getBytes(UTF8_CHARSET);
+		int length = size;
+		// do not cut a multi-byte sequence
+		while (length > 0 && length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+			length--;
+		}
+		byte[] payload = new byte[length];
+		System.arraycopy(bytes, 0, payload, 0, length);
+		return payload;
+	}
+
+	/**
+	 * Proxy whose remote side is connected to a server socket, that is never
+	 * read from. Frames are forwarded to streams given to
+	 * {@link WebSocketProxy#processRead(java.io.InputStream, OutputStream, byte)}.
+	 */
+	static class ProxyFixture {
+
+		private final ServerSocket server;
+
+		private final Socket remoteSocket;
+
+		final WebSocketProxyV13 proxy;
+
+		ProxyFixture() throws IOException {
+			server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			remoteSocket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			proxy = new WebSocketProxyV13(null, remoteSocket);
+			proxy.addObserver(new WebSocketObserver() {
+
+				@Override
+				public int getObservingOrder() {
+					return 0;
+				}
+
+				@Override
+				public boolean onMessageFrame(int channelId, WebSocketMessage message) {
+					return true;
+				}
+
+				@Override
+				public void onStateChange(WebSocketProxy.State state, WebSocketProxy proxy) {
+				}
+			});
+		}
+
+		void close() throws IOException {
+			remoteSocket.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * Discards all bytes, but counts them to prevent dead code elimination.
+	 */
+	static class CountingOutputStream extends OutputStream {
+
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading and forwarding one frame with {@link WebSocketProxyV13},
+ * with and without the {@link FrameBufferPool}.
+ * <p>
+ * Run with the GC profiler ({@code -prof gc}) to compare the allocation rate
+ * per frame ({@code gc.alloc.rate.norm}) of both modes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketFrameBufferBenchmark {
+
+	@Param({ "false", "true" })
+	private boolean pooled;
+
+	@Param({ "125", "4096", "65536" })
+	private int payloadSize;
+
+	private BenchmarkFrames.ProxyFixture fixture;
+
+	private ByteArrayInputStream in;
+
+	private BenchmarkFrames.CountingOutputStream out;
+
+	@Setup
+	public void setUp() throws IOException {
+		FrameBufferPool.get().setMaxRetainedBytes(pooled ? FrameBufferPool.DEFAULT_MAX_RETAINED_BYTES : 0);
+
+		fixture = new BenchmarkFrames.ProxyFixture();
+		in = new ByteArrayInputStream(BenchmarkFrames.createFrame(
+				WebSocketMessage.OPCODE_BINARY, BenchmarkFrames.createBinaryPayload(payloadSize), true));
+		out = new BenchmarkFrames.CountingOutputStream();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		fixture.close();
+	}
+
+	@Benchmark
+	public long readAndForwardFrame() throws IOException {
+		in.reset();
+		byte frameHeader = (byte) in.read();
+		fixture.proxy.processRead(in, out, frameHeader);
+		return out.count;
+	}
+}
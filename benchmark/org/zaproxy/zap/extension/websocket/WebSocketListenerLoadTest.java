@@ -0,0 +1,246 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test comparing platform and virtual threads for
+ * {@link WebSocketListener}s.
+ * <p>
+ * Opens the given number of channels through {@link WebSocketProxyV13}
+ * instances to a local echo server, sends masked text frames on all channels
+ * and reports round-trip latency, live thread count and resident memory.
+ * <p>
+ * Usage: {@code WebSocketListenerLoadTest [channels] [messagesPerChannel] [platform|virtual|both]}
+ */
+public class WebSocketListenerLoadTest {
+
+	private static final byte[] MASK = { 0x11, 0x22, 0x33, 0x44 };
+
+	private static final byte[] PAYLOAD = "ZAP WebSocket load test payload".getBytes();
+
+	public static void main(String[] args) throws Exception {
+		int channels = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		int messages = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+		String mode = (args.length > 2) ? args[2] : "both";
+
+		System.out.println("Virtual threads supported: " + WebSocketListenerExecutors.isVirtualThreadsSupported());
+
+		if (!"virtual".equals(mode)) {
+			run(false, channels, messages);
+		}
+		if (!"platform".equals(mode)) {
+			run(true, channels, messages);
+		}
+	}
+
+	private static void run(boolean virtualThreads, int channelCount, int messages) throws Exception {
+		EchoServer echoServer = new EchoServer();
+		ServerSocket proxyServer = new ServerSocket(0, channelCount, InetAddress.getLoopbackAddress());
+		ExecutorService listenerPool = WebSocketListenerExecutors.newListenerThreadPool(virtualThreads);
+
+		List<Socket> clients = new ArrayList<>(channelCount);
+		List<WebSocketProxy> proxies = new ArrayList<>(channelCount);
+		try {
+			for (int i = 0; i < channelCount; i++) {
+				Socket client = new Socket(InetAddress.getLoopbackAddress(), proxyServer.getLocalPort());
+				Socket local = proxyServer.accept();
+				Socket remote = new Socket(InetAddress.getLoopbackAddress(), echoServer.getPort());
+
+				WebSocketProxy proxy = new WebSocketProxyV13(local, remote);
+				proxy.startListeners(listenerPool, remote.getInputStream());
+
+				clients.add(client);
+				proxies.add(proxy);
+			}
+
+			byte[] frame = createMaskedTextFrame(PAYLOAD);
+			byte[] response = new byte[frame.length];
+			long[] latencies = new long[channelCount * messages];
+			int index = 0;
+
+			long start = System.nanoTime();
+			for (int m = 0; m < messages; m++) {
+				for (Socket client : clients) {
+					long sent = System.nanoTime();
+					OutputStream out = client.getOutputStream();
+					out.write(frame);
+					out.flush();
+					new DataInputStream(client.getInputStream()).readFully(response);
+					latencies[index++] = System.nanoTime() - sent;
+				}
+			}
+			long duration = System.nanoTime() - start;
+
+			Arrays.sort(latencies);
+			System.out.println(String.format(
+					"%-8s channels=%d messages=%d duration=%dms throughput=%.0f msg/s "
+							+ "latency p50=%dus p99=%dus max=%dus threads=%d peakThreads=%d rss=%s",
+					virtualThreads ? "virtual" : "platform",
+					Integer.valueOf(channelCount),
+					Integer.valueOf(latencies.length),
+					Long.valueOf(TimeUnit.NANOSECONDS.toMillis(duration)),
+					Double.valueOf(latencies.length / (duration / 1e9)),
+					Long.valueOf(percentile(latencies, 0.5)),
+					Long.valueOf(percentile(latencies, 0.99)),
+					Long.valueOf(TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length - 1])),
+					Integer.valueOf(ManagementFactory.getThreadMXBean().getThreadCount()),
+					Integer.valueOf(ManagementFactory.getThreadMXBean().getPeakThreadCount()),
+					getResidentMemory()));
+		} finally {
+			for (WebSocketProxy proxy : proxies) {
+				proxy.shutdown();
+			}
+			for (Socket client : clients) {
+				client.close();
+			}
+			listenerPool.shutdownNow();
+			proxyServer.close();
+			echoServer.close();
+			ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+		}
+	}
+
+	private static byte[] createMaskedTextFrame(byte[] payload) {
+		byte[] frame = new byte[2 + MASK.length + payload.length];
+		frame[0] = (byte) 0x81;
+		frame[1] = (byte) (0x80 | payload.length);
+		System.arraycopy(MASK, 0, frame, 2, MASK.length);
+		for (int i = 0; i < payload.length; i++) {
+			frame[2 + MASK.length + i] = (byte) (payload[i] ^ MASK[i % MASK.length]);
+		}
+		return frame;
+	}
+
+	private static long percentile(long[] sorted, double percentile) {
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]);
+	}
+
+	/**
+	 * @return VmRSS of this process (Linux only) or used heap otherwise
+	 */
+	private static String getResidentMemory() {
+		try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("VmRSS:")) {
+					return line.substring("VmRSS:".length()).trim();
+				}
+			}
+		} catch (IOException e) {
+			// not available on this platform
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return ((runtime.totalMemory() - runtime.freeMemory()) / 1024) + " kB (heap)";
+	}
+
+	/**
+	 * Single threaded echo server, such that the thread count reflects the
+	 * listener threads only.
+	 */
+	private static class EchoServer implements Runnable {
+
+		private final Selector selector;
+
+		private final ServerSocketChannel serverChannel;
+
+		private final Thread thread;
+
+		public EchoServer() throws IOException {
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+			thread = new Thread(this, "Echo-Server");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		public int getPort() {
+			return serverChannel.socket().getLocalPort();
+		}
+
+		@Override
+		public void run() {
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			try {
+				while (selector.isOpen()) {
+					selector.select();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							SocketChannel channel = serverChannel.accept();
+							channel.configureBlocking(false);
+							channel.register(selector, SelectionKey.OP_READ);
+						} else if (key.isReadable()) {
+							SocketChannel channel = (SocketChannel) key.channel();
+							buffer.clear();
+							if (channel.read(buffer) == -1) {
+								key.cancel();
+								channel.close();
+								continue;
+							}
+							buffer.flip();
+							while (buffer.hasRemaining()) {
+								channel.write(buffer);
+							}
+						}
+					}
+				}
+			} catch (IOException e) {
+				// closed
+			} catch (RuntimeException e) {
+				// selector closed while selecting
+			}
+		}
+
+		public void close() throws IOException {
+			selector.close();
+			serverChannel.close();
+		}
+	}
+}
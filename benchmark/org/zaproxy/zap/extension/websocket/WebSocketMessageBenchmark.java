@@ -0,0 +1,83 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link WebSocketMessage#getDTO()}, which is called for each
+ * message by the storage and the UI.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketMessageBenchmark {
+
+	@Param({ "125", "4096", "65536" })
+	private int payloadSize;
+
+	@Param({ "text", "binary" })
+	private String type;
+
+	private BenchmarkFrames.ProxyFixture fixture;
+
+	private WebSocketMessage message;
+
+	@Setup
+	public void setUp() throws IOException {
+		fixture = new BenchmarkFrames.ProxyFixture();
+
+		byte[] frame;
+		if ("text".equals(type)) {
+			frame = BenchmarkFrames.createFrame(
+					WebSocketMessage.OPCODE_TEXT, BenchmarkFrames.createTextPayload(payloadSize, false), false);
+		} else {
+			frame = BenchmarkFrames.createFrame(
+					WebSocketMessage.OPCODE_BINARY, BenchmarkFrames.createBinaryPayload(payloadSize), false);
+		}
+		message = fixture.proxy.createWebSocketMessage(new ByteArrayInputStream(frame, 1, frame.length - 1), frame[0]);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		fixture.close();
+	}
+
+	@Benchmark
+	public WebSocketMessageDTO getDTO() {
+		return message.getDTO();
+	}
+}
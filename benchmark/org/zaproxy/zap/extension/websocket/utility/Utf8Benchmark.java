@@ -0,0 +1,81 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding of UTF-8 payloads with {@link Utf8Util} and
+ * {@link Utf8StringBuilder}, for pure ASCII and mixed multi-byte text.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Utf8Benchmark {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+	@Param({ "16", "1024", "65536" })
+	private int payloadSize;
+
+	@Param({ "false", "true" })
+	private boolean multiByte;
+
+	private byte[] payload;
+
+	private Utf8StringBuilder builder;
+
+	@Setup
+	public void setUp() {
+		String pattern = multiByte ? "{\"k\":\"Gr\u00fc\u00dfe \u20ac\"}" : "{\"key\":\"value\"}";
+		StringBuilder text = new StringBuilder(payloadSize);
+		while (text.length() < payloadSize) {
+			text.append(pattern);
+		}
+		payload = text.toString().getBytes(UTF8_CHARSET);
+		builder = new Utf8StringBuilder(payload.length);
+	}
+
+	@Benchmark
+	public String encodePayloadToUtf8() throws InvalidUtf8Exception {
+		return Utf8Util.encodePayloadToUtf8(payload);
+	}
+
+	@Benchmark
+	public int utf8StringBuilderAppend() {
+		builder.reset();
+		builder.append(payload, 0, payload.length);
+		return builder.length();
+	}
+}
@@ -25,7 +25,9 @@
 // ZAP: 2012/12/28 Issue 447: Include the evidence in the attack field, and made into a passive scan rule
 package org.zaproxy.zap.extension.pscanrules;
 
-import java.util.regex.Matcher;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 import net.htmlparser.jericho.Source;
@@ -35,6 +37,7 @@ import org.parosproxy.paros.core.scanner.Alert;
 import org.parosproxy.paros.network.HttpMessage;
 import org.zaproxy.zap.extension.pscan.PassiveScanThread;
 import org.zaproxy.zap.extension.pscan.PluginPassiveScanner;
+import org.zaproxy.zap.extension.pscanrules.utils.PrivateAddressScanner;
 
 public class TestInfoPrivateAddressDisclosure extends PluginPassiveScanner {
 
@@ -46,7 +49,19 @@ public class TestInfoPrivateAddressDisclosure extends PluginPassiveScanner {
     private static final String REGULAR_IP_OCTET = "\\b(25[0-5]|2[0-4][0-9]|1?[0-9]{1,2})";
     private static final String REGULAR_PORTS = "\\b(6553[0-5]|65[0-5][0-2][0-9]|6[0-4][0-9]{4}|[0-5]?[0-9]{0,4})";
     
+    // The printable ASCII characters, to check the charset of the body
+    private static final String ASCII_PROBE;
+    static {
+        StringBuilder probe = new StringBuilder();
+        for (char c = ' '; c <= '~'; c++) {
+            probe.append(c);
+        }
+        ASCII_PROBE = probe.toString();
+    }
+    
     // Private IP's including localhost
+    // The body is scanned with PrivateAddressScanner, which finds the same
+    // addresses (with their ports) in linear time
     public static final Pattern patternPrivateIP = Pattern.compile(
             "("
             + "10\\.(" + REGULAR_IP_OCTET + "\\.){2}" + REGULAR_IP_OCTET + "|"
@@ -108,16 +123,22 @@ public class TestInfoPrivateAddressDisclosure extends PluginPassiveScanner {
     @Override
     public void scanHttpResponseReceive(HttpMessage msg, int id, Source source) {
 
-        String txtBody = msg.getResponseBody().toString();
-        Matcher matcher = patternPrivateIP.matcher(txtBody);
+        PrivateAddressScanner scanner;
+        if (isAsciiCompatible(msg.getResponseHeader().getCharset())) {
+            // No need to decode the body, the addresses are plain ASCII
+            scanner = new PrivateAddressScanner(msg.getResponseBody().getBytes());
+        } else {
+            scanner = new PrivateAddressScanner(msg.getResponseBody().toString());
+        }
+        
         StringBuilder sbTxtFound = new StringBuilder();
         String firstOne = null;
         
-        while (matcher.find()) {
+        while (scanner.find()) {
             if (firstOne == null) {
-                firstOne = matcher.group();
+                firstOne = scanner.group();
             }
-            sbTxtFound.append(matcher.group()).append("\n");
+            sbTxtFound.append(scanner.group()).append("\n");
         }
 
         if (sbTxtFound.length() != 0) {
@@ -141,6 +162,27 @@ public class TestInfoPrivateAddressDisclosure extends PluginPassiveScanner {
 
     }
 
+    /**
+     * Tells whether the given charset is compatible with ASCII (e.g. UTF-8 or
+     * ISO-8859-1, but not UTF-16), in which case the addresses can be searched
+     * directly in the bytes of the body.
+     */
+    private static boolean isAsciiCompatible(String charsetName) {
+        if (charsetName == null || charsetName.isEmpty()) {
+            return true;
+        }
+        
+        Charset charset;
+        try {
+            charset = Charset.forName(charsetName);
+        } catch (IllegalArgumentException e) {
+            // Unknown charset, the body is decoded with the default one
+            return true;
+        }
+        
+        return Arrays.equals(ASCII_PROBE.getBytes(charset), ASCII_PROBE.getBytes(StandardCharsets.US_ASCII));
+    }
+
     private int getRisk() {
         return Alert.RISK_LOW;
     }
@@ -28,6 +28,9 @@
 // ZAP: 2014/11/09 Issue 1396: Add min length check to reduce false positives
 package org.zaproxy.zap.extension.pscanrules;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -73,6 +76,9 @@ public class TestInfoSessionIdURL extends PluginPassiveScanner {
     // Inner Thread Parent variable
     private PassiveScanThread parent = null;
 
+    // Matcher of the session tokens last enabled
+    private volatile SessionTokenMatcher sessionTokenMatcher;
+
     /**
      * Get this plugin id
      *
@@ -147,90 +153,97 @@ public class TestInfoSessionIdURL extends PluginPassiveScanner {
      */
     @Override
     public void scanHttpResponseReceive(HttpMessage msg, int id, Source source) {
-        // Simplify everything using only getQuery()???
         String uri = msg.getRequestHeader().getURI().toString();
-        String sessionIdPair;
-        String sessionIdValue;
-        String sessionIdName;
-        Pattern pattern;
-        Matcher matcher;
-
-        // Alternative implementation
-        // we search for all params looking for one session element
-        // maybe more efficient because we don't build Patterns any time
-        //String[] params = msg.getParamNames();
 
         // The Session ID list option param
         OptionsParam options = Model.getSingleton().getOptionsParam();
         HttpSessionsParam sessionOptions =
                 (HttpSessionsParam) options.getParamSet(HttpSessionsParam.class);
 
-        // Loop on all possible 
-        // session id variables (looking all along the url)
         // -----------------------------------------------------
-        // We've to rebuild every time the patterns because
-        // the user could change options during the session
+        // The user could change options during the session
         // so we have to be sure that we search for the 
-        // session ids that have really been selected (or added)
+        // session ids that have really been selected (or added),
+        // the matcher is rebuilt only when they change
         // -----------------------------------------------------
-        for (String sessionid : sessionOptions.getDefaultTokensEnabled()) {
-            pattern = Pattern.compile("(\\Q" + sessionid + "\\E)=[^\\&]+", Pattern.CASE_INSENSITIVE);
-            matcher = pattern.matcher(uri);
+        SessionTokenMatcher tokenMatcher = getSessionTokenMatcher(sessionOptions.getDefaultTokensEnabled());
 
-            if (matcher.find()) {
-                // Get the overall sessionvar=value pattern
-                sessionIdPair = matcher.group(0);
-                // Get the value portion
-                sessionIdValue = matcher.group(0).split("=")[1];
-                // Get the sessionvar name
-                sessionIdName = matcher.group(1);
-
-                // In passive mode there not exists any KB available
-                // This was the old implementation
-                // --------------------------------------------------
-                //String kb = getKb().getString("sessionId/nameValue");
-                //if (kb == null || !kb.equals(sessionIdValue)) {
-                //    getKb().add("sessionId/nameValue", sessionIdValue);
-                //    bingo(Alert.RISK_LOW, Alert.WARNING, uri, null, "", null, sessionIdValue, base);
-                //}                
-                //kb = getKb().getString("sessionId/name");
-                //getKb().add("sessionId/name", sessionIdName);
-
-                if (sessionIdValue.length() > SESSION_TOKEN_MIN_LENGTH) { 
-	                
-	                // Raise an alert according to Passive Scan Rule model
-	                // description, uri, param, attack, otherInfo, 
-	                // solution, reference, evidence, cweId, wascId, msg
-	                Alert alert = new Alert(getPluginId(), getRisk(), Alert.CONFIDENCE_MEDIUM, getName());
-	                alert.setDetail(
-	                        getDescription(),
-	                        uri,
-	                        sessionIdName,
-	                        sessionIdPair,
-	                        "",
-	                        getSolution(),
-	                        getReference(),
-	                        sessionIdPair, // evidence
-	                        getCweId(), // CWE Id
-	                        getWascId(), // WASC Id - Info leakage
-	                        msg);
-	
-	                parent.raiseAlert(id, alert);
-	
-	                // Now try to check if there exists a 
-	                // referer inside the content
-	                try {
-	                    checkSessionIDExposure(msg, id);
-	
-	                } catch (URIException e) {
-	                }
-	
-	                break;
-	            }
+        // Look all along the url, in one pass, for the first
+        // sessionvar=value pair of each session id variable
+        int[] starts = tokenMatcher.findFirstPairs(uri);
+
+        for (int i = 0; i < starts.length; i++) {
+            int start = starts[i];
+            if (start == -1) {
+                continue;
+            }
+
+            int nameEnd = start + tokenMatcher.getToken(i).length();
+            int pairEnd = indexOf(uri, '&', nameEnd + 1, uri.length());
+
+            // Get the overall sessionvar=value pattern
+            String sessionIdPair = uri.substring(start, pairEnd);
+            // Get the value portion
+            String sessionIdValue = uri.substring(nameEnd + 1, indexOf(uri, '=', nameEnd + 1, pairEnd));
+            // Get the sessionvar name
+            String sessionIdName = uri.substring(start, nameEnd);
+
+            if (sessionIdValue.length() > SESSION_TOKEN_MIN_LENGTH) { 
+
+                // Raise an alert according to Passive Scan Rule model
+                // description, uri, param, attack, otherInfo, 
+                // solution, reference, evidence, cweId, wascId, msg
+                Alert alert = new Alert(getPluginId(), getRisk(), Alert.CONFIDENCE_MEDIUM, getName());
+                alert.setDetail(
+                        getDescription(),
+                        uri,
+                        sessionIdName,
+                        sessionIdPair,
+                        "",
+                        getSolution(),
+                        getReference(),
+                        sessionIdPair, // evidence
+                        getCweId(), // CWE Id
+                        getWascId(), // WASC Id - Info leakage
+                        msg);
+
+                parent.raiseAlert(id, alert);
+
+                // Now try to check if there exists a 
+                // referer inside the content
+                try {
+                    checkSessionIDExposure(msg, id);
+
+                } catch (URIException e) {
+                }
+
+                break;
             }
         }
     }
-    
+
+    /**
+     * Get the matcher of the given session tokens, the previous one is
+     * reused if the tokens didn't change.
+     *
+     * @param tokens the enabled session tokens
+     * @return the matcher of the tokens
+     */
+    private SessionTokenMatcher getSessionTokenMatcher(List<String> tokens) {
+        SessionTokenMatcher matcher = sessionTokenMatcher;
+        if (matcher == null || !matcher.isMatcherOf(tokens)) {
+            matcher = new SessionTokenMatcher(tokens);
+            sessionTokenMatcher = matcher;
+        }
+
+        return matcher;
+    }
+
+    private static int indexOf(String str, char c, int from, int to) {
+        int index = str.indexOf(c, from);
+        return (index == -1 || index > to) ? to : index;
+    }
+
     // External link Response finder regex
     // HTML is very simple because only src/href exists
     // DOM based is very complex because you can have all these possibilities:
@@ -314,4 +327,118 @@ public class TestInfoSessionIdURL extends PluginPassiveScanner {
             }
         }
     }
+
+    /**
+     * Finds the session tokens followed by a value (i.e. <code>name=value</code>,
+     * with a non-empty value not starting with <code>&amp;</code>) in an URL.
+     * The token names are kept in a trie, ASCII letters are matched regardless
+     * of their case, so each position of the URL is checked against all the
+     * tokens at once.
+     */
+    private static class SessionTokenMatcher {
+
+        private final List<String> tokens;
+        private final TrieNode root = new TrieNode();
+
+        public SessionTokenMatcher(List<String> tokens) {
+            this.tokens = new ArrayList<>(tokens);
+
+            for (int i = 0; i < this.tokens.size(); i++) {
+                String token = this.tokens.get(i);
+                if (token.isEmpty()) {
+                    continue;
+                }
+
+                TrieNode node = root;
+                for (int j = 0; j < token.length(); j++) {
+                    node = node.getOrAddChild(toLowerCase(token.charAt(j)));
+                }
+
+                node.addToken(i);
+            }
+        }
+
+        public boolean isMatcherOf(List<String> tokens) {
+            return this.tokens.equals(tokens);
+        }
+
+        public String getToken(int index) {
+            return tokens.get(index);
+        }
+
+        /**
+         * Finds the first <code>name=value</code> pair of each token.
+         *
+         * @param url the URL where we've to search into
+         * @return for each token (in the order given) the index of its first
+         * pair, or -1 if not found
+         */
+        public int[] findFirstPairs(String url) {
+            int[] starts = new int[tokens.size()];
+            Arrays.fill(starts, -1);
+            int remaining = starts.length;
+            int length = url.length();
+
+            for (int start = 0; start < length && remaining > 0; start++) {
+                TrieNode node = root;
+                for (int i = start; i < length - 2; i++) {
+                    node = node.getChild(toLowerCase(url.charAt(i)));
+                    if (node == null) {
+                        break;
+                    }
+
+                    if (node.tokens != null && url.charAt(i + 1) == '=' && url.charAt(i + 2) != '&') {
+                        for (int token : node.tokens) {
+                            if (starts[token] == -1) {
+                                starts[token] = start;
+                                remaining--;
+                            }
+                        }
+                    }
+                }
+            }
+
+            return starts;
+        }
+
+        private static char toLowerCase(char c) {
+            return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+    }
+
+    private static class TrieNode {
+
+        private char[] chars = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        // Indexes of the tokens ending at this node, null if none
+        private int[] tokens;
+
+        public TrieNode getChild(char c) {
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == c) {
+                    return children[i];
+                }
+            }
+
+            return null;
+        }
+
+        public TrieNode getOrAddChild(char c) {
+            TrieNode child = getChild(c);
+            if (child == null) {
+                child = new TrieNode();
+                chars = Arrays.copyOf(chars, chars.length + 1);
+                chars[chars.length - 1] = c;
+                children = Arrays.copyOf(children, children.length + 1);
+                children[children.length - 1] = child;
+            }
+
+            return child;
+        }
+
+        public void addToken(int index) {
+            tokens = (tokens == null) ? new int[1] : Arrays.copyOf(tokens, tokens.length + 1);
+            tokens[tokens.length - 1] = index;
+        }
+    }
 }
@@ -0,0 +1,259 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.pscanrules.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds occurrences of many literals with one pass over a content, using the
+ * Aho-Corasick algorithm.
+ * <p>
+ * The automaton is compiled into a transition table, whose columns are the
+ * distinct characters of all literals, so each character of the content costs
+ * one table lookup whatever the number of literals. ASCII letters are folded to
+ * lower case while matching, literals that are case sensitive are verified
+ * against the content once found. Instances are immutable and can be shared
+ * between scanner threads.
+ */
+public class AhoCorasickMatcher {
+
+    /**
+     * Number of columns of the transition table, column 0 stands for all
+     * characters not contained in any literal.
+     */
+    private final int width;
+
+    /**
+     * Column of ASCII characters, upper case letters share the column of
+     * their lower case letter.
+     */
+    private final int[] asciiColumns = new int[128];
+
+    /**
+     * Sorted non-ASCII characters of the literals, with their columns in
+     * otherColumns.
+     */
+    private final char[] otherChars;
+    private final int[] otherColumns;
+
+    /**
+     * Next state by <code>state * width + column</code>, state 0 is the root.
+     */
+    private final int[] transitions;
+
+    /**
+     * Indexes of the literals ending in a state, null if none.
+     */
+    private final int[][] outputs;
+
+    private final String[] literals;
+    private final boolean[] ignoreCase;
+
+    /**
+     * @param literals non-empty strings, their index is used to report matches
+     * @param ignoreCase for each literal, true if ASCII letters should match
+     * regardless of their case (like the <code>(?i)</code> flag of a regex)
+     * @throws IllegalArgumentException if a literal is empty
+     */
+    public AhoCorasickMatcher(String[] literals, boolean[] ignoreCase) {
+        if (literals.length != ignoreCase.length) {
+            throw new IllegalArgumentException("A case flag is required for each literal.");
+        }
+        
+        this.literals = literals.clone();
+        this.ignoreCase = ignoreCase.clone();
+
+        // assign columns to the characters of the literals
+        StringBuilder nonAscii = new StringBuilder();
+        int columns = 1;
+        int maxStates = 1;
+        for (String literal : literals) {
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("Literals must not be empty.");
+            }
+            
+            maxStates += literal.length();
+            for (int i = 0; i < literal.length(); i++) {
+                char c = toLowerCase(literal.charAt(i));
+                if (c < 128) {
+                    if (asciiColumns[c] == 0) {
+                        asciiColumns[c] = columns++;
+                    }
+                } else if (nonAscii.indexOf(String.valueOf(c)) == -1) {
+                    nonAscii.append(c);
+                }
+            }
+        }
+        
+        for (char c = 'A'; c <= 'Z'; c++) {
+            asciiColumns[c] = asciiColumns[toLowerCase(c)];
+        }
+        
+        otherChars = nonAscii.toString().toCharArray();
+        Arrays.sort(otherChars);
+        otherColumns = new int[otherChars.length];
+        for (int i = 0; i < otherChars.length; i++) {
+            otherColumns[i] = columns++;
+        }
+        
+        width = columns;
+
+        // build the trie, 0 marks a missing edge as the root is never a child
+        int[] table = new int[maxStates * width];
+        List<int[]> stateOutputs = new ArrayList<>(maxStates);
+        stateOutputs.add(null);
+        int stateCount = 1;
+        for (int index = 0; index < literals.length; index++) {
+            String literal = literals[index];
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                int cell = state * width + getColumn(literal.charAt(i));
+                if (table[cell] == 0) {
+                    table[cell] = stateCount++;
+                    stateOutputs.add(null);
+                }
+                
+                state = table[cell];
+            }
+            
+            stateOutputs.set(state, append(stateOutputs.get(state), index));
+        }
+
+        // breadth-first: complete the transitions with the failure links
+        int[] failure = new int[stateCount];
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        for (int column = 1; column < width; column++) {
+            if (table[column] != 0) {
+                queue[tail++] = table[column];
+            }
+        }
+        
+        while (head < tail) {
+            int state = queue[head++];
+            int fallback = failure[state];
+            for (int column = 1; column < width; column++) {
+                int cell = state * width + column;
+                int child = table[cell];
+                if (child != 0) {
+                    int childFailure = table[fallback * width + column];
+                    failure[child] = childFailure;
+                    int[] inherited = stateOutputs.get(childFailure);
+                    if (inherited != null) {
+                        int[] own = stateOutputs.get(child);
+                        for (int index : inherited) {
+                            own = append(own, index);
+                        }
+                        
+                        stateOutputs.set(child, own);
+                    }
+                    
+                    queue[tail++] = child;
+                    
+                } else {
+                    table[cell] = table[fallback * width + column];
+                }
+            }
+        }
+
+        transitions = Arrays.copyOf(table, stateCount * width);
+        outputs = stateOutputs.toArray(new int[stateCount][]);
+    }
+
+    private static int[] append(int[] indexes, int index) {
+        if (indexes == null) {
+            return new int[] { index };
+        }
+        
+        int[] result = Arrays.copyOf(indexes, indexes.length + 1);
+        result[indexes.length] = index;
+        return result;
+    }
+
+    private static char toLowerCase(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private int getColumn(char c) {
+        if (c < 128) {
+            return asciiColumns[c];
+        }
+        
+        int i = Arrays.binarySearch(otherChars, c);
+        return (i >= 0) ? otherColumns[i] : 0;
+    }
+
+    /**
+     * Get back the number of literals of this matcher
+     *
+     * @return the number of literals
+     */
+    public int getLiteralCount() {
+        return literals.length;
+    }
+
+    /**
+     * Marks the literals contained in the given content. Stops as soon as all
+     * literals have been found.
+     *
+     * @param content the content where we've to search into
+     * @param found array of at least {@link #getLiteralCount()} elements, the
+     * elements of the found literals are set to true
+     * @return the number of distinct literals found
+     */
+    public int findAll(CharSequence content, boolean[] found) {
+        int foundCount = 0;
+        int state = 0;
+        int length = content.length();
+        
+        for (int i = 0; i < length; i++) {
+            state = transitions[state * width + getColumn(content.charAt(i))];
+            int[] indexes = outputs[state];
+            if (indexes != null) {
+                for (int index : indexes) {
+                    if (!found[index] && (ignoreCase[index] || regionMatches(content, i, literals[index]))) {
+                        found[index] = true;
+                        if (++foundCount == literals.length) {
+                            return foundCount;
+                        }
+                    }
+                }
+            }
+        }
+        
+        return foundCount;
+    }
+
+    /**
+     * Tells whether the given literal ends exactly (case included) at the
+     * given position of the content.
+     */
+    private static boolean regionMatches(CharSequence content, int end, String literal) {
+        int offset = end - literal.length() + 1;
+        for (int i = 0; i < literal.length(); i++) {
+            if (content.charAt(offset + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+}
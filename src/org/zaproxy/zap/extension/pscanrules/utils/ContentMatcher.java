@@ -20,6 +20,7 @@ package org.zaproxy.zap.extension.pscanrules.utils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -31,7 +32,12 @@ import org.jdom.input.SAXBuilder;
 
 /**
  * Support utility able to manage multiple string/regex occurrence
- * searching inside a target content
+ * searching inside a target content.
+ * <p>
+ * All the string patterns, together with the literals required by the regex
+ * patterns, are searched with a single pass over the content (see
+ * {@link AhoCorasickMatcher}). A regex pattern is run only if the content
+ * contains one of its required literals (see {@link RequiredLiterals}).
  * 
  * @author yhawke 2013
  */
@@ -43,8 +49,13 @@ public class ContentMatcher {
     private static final String TAG_PATTERN_TYPE_STRING = "string";
     private static final String TAG_PATTERN_TYPE_REGEX = "regex";
     
-    private List<BoyerMooreMatcher> strings;
+    private List<String> strings;
     private List<Pattern> patterns;
+    
+    // All the string patterns followed by the required literals of the regex patterns
+    private AhoCorasickMatcher literalsMatcher;
+    // For each regex pattern the indexes of its literals, null if it has to be always run
+    private int[][] patternLiterals;
         
     /**
      * Direct method for a complete ContentMatcher instance creation.
@@ -93,8 +104,8 @@ public class ContentMatcher {
      * a Regex formatted pattern or "string" for an exact matching pattern.
      */
     protected void loadXMLPatternDefinitions(InputStream xmlInputStream) throws JDOMException, IOException {
-        strings = new ArrayList();
-        patterns = new ArrayList();
+        strings = new ArrayList<>();
+        patterns = new ArrayList<>();
         
         SAXBuilder builder = new SAXBuilder();
         Document doc = builder.build(xmlInputStream);
@@ -116,10 +127,72 @@ public class ContentMatcher {
                 
                 // Otherwise it's by default an exact match model
                 } else {
-                    strings.add(new BoyerMooreMatcher(el.getText()));
+                    strings.add(el.getText());
                 }
             }
         }
+        
+        compileLiterals();
+    }
+
+    /**
+     * Build the automaton searching for the string patterns and for the
+     * literals required by the regex patterns at once.
+     */
+    private void compileLiterals() {
+        List<String> literals = new ArrayList<>(strings);
+        List<Boolean> ignoreCase = new ArrayList<>(Collections.nCopies(strings.size(), Boolean.FALSE));
+        
+        patternLiterals = new int[patterns.size()][];
+        for (int i = 0; i < patterns.size(); i++) {
+            RequiredLiterals required = RequiredLiterals.of(patterns.get(i).pattern());
+            if (required != null) {
+                String[] values = required.getLiterals();
+                patternLiterals[i] = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    patternLiterals[i][j] = literals.size();
+                    literals.add(values[j]);
+                    ignoreCase.add(required.isIgnoreCase());
+                }
+            }
+        }
+        
+        boolean[] ignoreCaseFlags = new boolean[ignoreCase.size()];
+        for (int i = 0; i < ignoreCaseFlags.length; i++) {
+            ignoreCaseFlags[i] = ignoreCase.get(i);
+        }
+        
+        literalsMatcher = new AhoCorasickMatcher(literals.toArray(new String[literals.size()]), ignoreCaseFlags);
+    }
+
+    /**
+     * Search all the literals inside the content with a single pass
+     * @param content the content to search into
+     * @return for each literal true if it has been found
+     */
+    private boolean[] findLiterals(String content) {
+        boolean[] found = new boolean[literalsMatcher.getLiteralCount()];
+        literalsMatcher.findAll(content, found);
+        return found;
+    }
+
+    /**
+     * Check if a regex pattern could match, i.e. if one of its required
+     * literals has been found
+     */
+    private boolean isCandidate(int patternIndex, boolean[] found) {
+        int[] literals = patternLiterals[patternIndex];
+        if (literals == null) {
+            return true;
+        }
+        
+        for (int literal : literals) {
+            if (found[literal]) {
+                return true;
+            }
+        }
+        
+        return false;
     }
 
     /**
@@ -128,17 +201,22 @@ public class ContentMatcher {
      * @return the found occurrence or null if no match has been done
      */
     public String findInContent(String content) {
+        boolean[] found = findLiterals(content);
         
         // First check for a simple exact occurrence
-        for (BoyerMooreMatcher matcher : strings) {
-            if (matcher.findInContent(content) >= 0)
-                return matcher.getPattern();
+        for (int i = 0; i < strings.size(); i++) {
+            if (found[i])
+                return strings.get(i);
         }
         
         // Then check for a regex occurrence
         Matcher matcher;
-        for (Pattern pattern : patterns) {
-            matcher = pattern.matcher(content);
+        for (int i = 0; i < patterns.size(); i++) {
+            if (!isCandidate(i, found)) {
+                continue;
+            }
+            
+            matcher = patterns.get(i).matcher(content);
             if (matcher.find()) {
                 return matcher.group();
             }
@@ -155,18 +233,23 @@ public class ContentMatcher {
      */
     public List<String> findAllInContent(String content) {
         
-        List<String> results = new LinkedList();
+        List<String> results = new LinkedList<>();
+        boolean[] found = findLiterals(content);
         
         // First check for all simple exact occurrences
-        for (BoyerMooreMatcher matcher : strings) {
-            if (matcher.findInContent(content) >= 0)
-                results.add(matcher.getPattern());
+        for (int i = 0; i < strings.size(); i++) {
+            if (found[i])
+                results.add(strings.get(i));
         }
         
         // Then check for all regex occurrences
         Matcher matcher;
-        for (Pattern pattern : patterns) {
-            matcher = pattern.matcher(content);
+        for (int i = 0; i < patterns.size(); i++) {
+            if (!isCandidate(i, found)) {
+                continue;
+            }
+            
+            matcher = patterns.get(i).matcher(content);
             if (matcher.find()) {
                 results.add(content);
             }
@@ -0,0 +1,397 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.pscanrules.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds private IPv4 addresses (10.x.x.x, 172.16-31.x.x and 192.168.x.x),
+ * optionally followed by a port, in a content. The addresses with dashes, as
+ * found in AWS host names (e.g. <code>ip-10-2-3-200</code>), are found too.
+ * <p>
+ * The content is scanned once, looking for the start of the addresses, the
+ * octets and the port are validated while reading their digits. The matches
+ * are the same as the ones of
+ * {@code TestInfoPrivateAddressDisclosure.patternPrivateIP}. Used like a
+ * {@link java.util.regex.Matcher}:
+ *
+ * <pre>
+ * PrivateAddressScanner scanner = new PrivateAddressScanner(content);
+ * while (scanner.find()) {
+ *     String address = scanner.group();
+ * }
+ * </pre>
+ */
+public class PrivateAddressScanner {
+
+    private final CharSequence content;
+    private final int length;
+    // True if the content are undecoded bytes, non-ASCII ones are parts of characters
+    private final boolean asciiWordCharacters;
+
+    private int start = -1;
+    private int end = 0;
+
+    /**
+     * Prepare the scanner of the given content.
+     *
+     * @param content the content where we've to search into
+     */
+    public PrivateAddressScanner(CharSequence content) {
+        this(content, false);
+    }
+
+    /**
+     * Prepare the scanner of the given bytes, which are not decoded: the
+     * charset of the content must be compatible with ASCII (e.g. UTF-8 or
+     * ISO-8859-1).
+     *
+     * @param content the content where we've to search into
+     */
+    public PrivateAddressScanner(byte[] content) {
+        this(new Latin1CharSequence(content), true);
+    }
+
+    private PrivateAddressScanner(CharSequence content, boolean asciiWordCharacters) {
+        this.content = content;
+        this.length = content.length();
+        this.asciiWordCharacters = asciiWordCharacters;
+    }
+
+    /**
+     * Finds the next address, after the previous one.
+     *
+     * @return true if an address was found, false otherwise
+     */
+    public boolean find() {
+        for (int i = end; i < length - 6; i++) {
+            if (content.charAt(i) == '1') {
+                int addressEnd = matchAddress(i);
+                if (addressEnd != -1) {
+                    start = i;
+                    end = addressEnd;
+                    return true;
+                }
+            }
+        }
+        
+        start = -1;
+        end = length;
+        return false;
+    }
+
+    /**
+     * Get the address found by the last call to {@link #find()}, with its
+     * port if any.
+     *
+     * @return the address
+     * @throws IllegalStateException if no address was found
+     */
+    public String group() {
+        if (start == -1) {
+            throw new IllegalStateException("No address found.");
+        }
+        
+        return content.subSequence(start, end).toString();
+    }
+
+    /**
+     * Get the index of the first character of the address found.
+     *
+     * @return the start index
+     * @throws IllegalStateException if no address was found
+     */
+    public int start() {
+        if (start == -1) {
+            throw new IllegalStateException("No address found.");
+        }
+        
+        return start;
+    }
+
+    /**
+     * Get the index after the last character of the address found.
+     *
+     * @return the end index
+     * @throws IllegalStateException if no address was found
+     */
+    public int end() {
+        if (start == -1) {
+            throw new IllegalStateException("No address found.");
+        }
+        
+        return end;
+    }
+
+    /**
+     * Tries to read an address starting at the given index, whose character
+     * is a '1'.
+     *
+     * @return the index after the address (and its port) or -1 if none
+     */
+    private int matchAddress(int i) {
+        int pos;
+        char c = content.charAt(i + 1);
+        if (c == '0') {
+            // 10.x.x.x
+            pos = i + 2;
+            char separator = content.charAt(pos);
+            if (!isSeparator(separator)) {
+                return -1;
+            }
+            
+            pos = matchOctetAndSeparator(pos + 1, separator);
+            if (pos == -1) {
+                return -1;
+            }
+            
+            return matchLastOctets(pos, separator);
+        }
+        
+        if (c == '7') {
+            // 172.16-31.x.x
+            if (content.charAt(i + 2) != '2') {
+                return -1;
+            }
+            
+            char separator = content.charAt(i + 3);
+            if (!isSeparator(separator) || i + 6 >= length) {
+                return -1;
+            }
+            
+            char tens = content.charAt(i + 4);
+            char units = content.charAt(i + 5);
+            boolean inRange = (tens == '1' && units >= '6' && units <= '9')
+                    || (tens == '2' && isDigit(units))
+                    || (tens == '3' && (units == '0' || units == '1'));
+            if (!inRange || content.charAt(i + 6) != separator) {
+                return -1;
+            }
+            
+            return matchLastOctets(i + 7, separator);
+        }
+        
+        if (c == '9') {
+            // 192.168.x.x
+            if (content.charAt(i + 2) != '2') {
+                return -1;
+            }
+            
+            char separator = content.charAt(i + 3);
+            if (!isSeparator(separator) || i + 7 >= length) {
+                return -1;
+            }
+            
+            if (content.charAt(i + 4) != '1' || content.charAt(i + 5) != '6' || content.charAt(i + 6) != '8'
+                    || content.charAt(i + 7) != separator) {
+                return -1;
+            }
+            
+            return matchLastOctets(i + 8, separator);
+        }
+        
+        return -1;
+    }
+
+    /**
+     * Reads the two last octets, with the separator in between, and the
+     * optional port.
+     */
+    private int matchLastOctets(int pos, char separator) {
+        pos = matchOctetAndSeparator(pos, separator);
+        if (pos == -1) {
+            return -1;
+        }
+        
+        pos = matchLastOctet(pos);
+        if (pos == -1) {
+            return -1;
+        }
+        
+        return matchPort(pos);
+    }
+
+    /**
+     * Reads an octet followed by the separator: one or two digits, or three
+     * digits from 100 to 255.
+     *
+     * @return the index after the separator or -1 if none
+     */
+    private int matchOctetAndSeparator(int pos, char separator) {
+        int digits = countDigits(pos, 4);
+        if (digits == 0 || digits == 4 || pos + digits >= length || content.charAt(pos + digits) != separator) {
+            return -1;
+        }
+        
+        if (digits == 3) {
+            int value = (content.charAt(pos) - '0') * 100 + (content.charAt(pos + 1) - '0') * 10
+                    + (content.charAt(pos + 2) - '0');
+            if (value < 100 || value > 255) {
+                return -1;
+            }
+        }
+        
+        return pos + digits + 1;
+    }
+
+    /**
+     * Reads the last octet, which is not delimited: the longest prefix of the
+     * digits that is a valid octet, as with 25[0-5], 2[0-4][0-9] and
+     * 1?[0-9]{1,2} tried in that order.
+     *
+     * @return the index after the octet or -1 if none
+     */
+    private int matchLastOctet(int pos) {
+        int digits = countDigits(pos, 3);
+        if (digits == 0) {
+            return -1;
+        }
+        
+        char first = content.charAt(pos);
+        if (digits == 3 && first == '2') {
+            char second = content.charAt(pos + 1);
+            char third = content.charAt(pos + 2);
+            if ((second == '5' && third <= '5') || second < '5') {
+                return pos + 3;
+            }
+            
+            return pos + 2;
+        }
+        
+        if (digits == 3 && first != '1') {
+            return pos + 2;
+        }
+        
+        return pos + digits;
+    }
+
+    /**
+     * Reads the optional port, i.e. a colon followed by (the longest valid
+     * prefix of) the digits. The colon is included, with no digits, if
+     * followed by a letter or an underscore.
+     *
+     * @return the index after the port, or the given index if none
+     */
+    private int matchPort(int pos) {
+        if (pos + 1 >= length || content.charAt(pos) != ':' || !isWordCharacter(content.charAt(pos + 1))) {
+            return pos;
+        }
+        
+        pos++;
+        int digits = countDigits(pos, 6);
+        if (digits >= 5 && content.charAt(pos) == '6') {
+            char second = content.charAt(pos + 1);
+            char third = content.charAt(pos + 2);
+            char fourth = content.charAt(pos + 3);
+            char fifth = content.charAt(pos + 4);
+            // 6553[0-5]
+            if (second == '5' && third == '5' && fourth == '3' && fifth <= '5') {
+                return pos + 5;
+            }
+            
+            // 65[0-5][0-2][0-9]
+            if (second == '5' && third <= '5' && fourth <= '2') {
+                return pos + 5;
+            }
+            
+            // 6[0-4][0-9]{4}
+            if (digits == 6 && second <= '4') {
+                return pos + 6;
+            }
+        }
+        
+        // [0-5]?[0-9]{0,4}
+        if (digits > 0 && content.charAt(pos) <= '5') {
+            return pos + Math.min(digits, 5);
+        }
+        
+        return pos + Math.min(digits, 4);
+    }
+
+    private int countDigits(int pos, int max) {
+        int digits = 0;
+        while (digits < max && pos + digits < length && isDigit(content.charAt(pos + digits))) {
+            digits++;
+        }
+        
+        return digits;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == '-';
+    }
+
+    /**
+     * Tells whether the character is a word character, as for the regex
+     * {@code \b}. In the bytes of the content only ASCII letters and digits
+     * are, a byte of a multi byte character (e.g. 0xE2 of the euro sign)
+     * isn't a letter by itself.
+     */
+    private boolean isWordCharacter(char c) {
+        if (asciiWordCharacters) {
+            return c == '_' || isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * Read only view of bytes as ISO-8859-1 characters, so ASCII characters
+     * can be searched in the bytes of an ASCII compatible charset without
+     * decoding them.
+     */
+    private static class Latin1CharSequence implements CharSequence {
+
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        public Latin1CharSequence(byte[] bytes) {
+            this(bytes, 0, bytes.length);
+        }
+
+        private Latin1CharSequence(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Latin1CharSequence(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ *
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zaproxy.zap.extension.pscanrules.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Literals that a content has to contain for a regex to match. For a regex
+ * with top level alternatives, there is one literal for each alternative and
+ * the content has to contain at least one of them.
+ * <p>
+ * The extraction is conservative: regexes using constructs that are not
+ * understood (e.g. inline flags other than <code>i</code>, <code>s</code> and
+ * <code>m</code> at the start, quoting, back references or escapes with
+ * arguments) have no required literals, so they are always run.
+ */
+class RequiredLiterals {
+
+    /**
+     * Shorter literals hardly ever rule out a content.
+     */
+    private static final int MIN_LITERAL_LENGTH = 2;
+
+    private static final String CLASS_ESCAPES = "sSdDwWbBAzZGRhHvVtnrfae";
+
+    private final String[] literals;
+    private final boolean ignoreCase;
+
+    private RequiredLiterals(String[] literals, boolean ignoreCase) {
+        this.literals = literals;
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Get back the literals, one of them is contained in each match
+     *
+     * @return the literals
+     */
+    public String[] getLiterals() {
+        return literals;
+    }
+
+    /**
+     * Tells whether the literals should be matched regardless of the case of
+     * ASCII letters
+     *
+     * @return true if the regex has the <code>(?i)</code> flag
+     */
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * Extracts the required literals of the given regex.
+     *
+     * @param regex a valid regular expression, compiled without flags
+     * @return the required literals or null if they can't be determined
+     */
+    public static RequiredLiterals of(String regex) {
+        int start = 0;
+        boolean ignoreCase = false;
+        
+        int end = regex.startsWith("(?") ? 2 : 0;
+        while (end > 0 && end < regex.length() && Character.isLetter(regex.charAt(end))) {
+            end++;
+        }
+        
+        // leading flags, otherwise it's a group analysed later
+        if (end > 0 && end < regex.length() && regex.charAt(end) == ')') {
+            String flags = regex.substring(2, end);
+            for (int i = 0; i < flags.length(); i++) {
+                if ("ism".indexOf(flags.charAt(i)) == -1) {
+                    return null;
+                }
+            }
+            
+            ignoreCase = flags.indexOf('i') != -1;
+            start = end + 1;
+        }
+
+        // split top level alternatives
+        List<String> literals = new ArrayList<>();
+        int from = start;
+        int depth = 0;
+        for (int i = start; i <= regex.length(); i++) {
+            if (i == regex.length() || (depth == 0 && regex.charAt(i) == '|')) {
+                String literal = getLongestLiteral(regex, from, i);
+                if (literal == null || literal.length() < MIN_LITERAL_LENGTH) {
+                    return null;
+                }
+                
+                literals.add(literal);
+                from = i + 1;
+                continue;
+            }
+            
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipClass(regex, i, regex.length());
+                if (i < 0) {
+                    return null;
+                }
+                i--;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            }
+        }
+
+        return new RequiredLiterals(literals.toArray(new String[literals.size()]), ignoreCase);
+    }
+
+    /**
+     * Finds the longest literal of a sequence, that is part of every match.
+     *
+     * @return the literal, empty if there's none, or null if the sequence
+     * can't be analysed
+     */
+    private static String getLongestLiteral(String regex, int from, int to) {
+        StringBuilder run = new StringBuilder();
+        String longest = "";
+        int i = from;
+        
+        while (i < to) {
+            char c = regex.charAt(i);
+            int atomEnd = i + 1;
+            boolean isLiteral = false;
+            String groupLiteral = null;
+            
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= to) {
+                        return null;
+                    }
+                    
+                    char escaped = regex.charAt(i + 1);
+                    atomEnd = i + 2;
+                    if (!Character.isLetterOrDigit(escaped)) {
+                        c = escaped;
+                        isLiteral = true;
+                        
+                    } else if (CLASS_ESCAPES.indexOf(escaped) == -1) {
+                        // e.g. \\Q, \\x, \\u, \\p or back references
+                        return null;
+                    }
+                    break;
+                    
+                case '[':
+                    atomEnd = skipClass(regex, i, to);
+                    if (atomEnd < 0) {
+                        return null;
+                    }
+                    break;
+                    
+                case '(':
+                    int close = findGroupEnd(regex, i, to);
+                    if (close < 0) {
+                        return null;
+                    }
+                    
+                    atomEnd = close + 1;
+                    int inner = i + 1;
+                    if (regex.startsWith("(?:", i)) {
+                        inner = i + 3;
+                        
+                    } else if (regex.startsWith("(?", i)) {
+                        if (regex.startsWith("(?=", i) || regex.startsWith("(?!", i)
+                                || regex.startsWith("(?<=", i) || regex.startsWith("(?<!", i)
+                                || regex.startsWith("(?>", i)) {
+                            // no literal taken from lookarounds or atomic groups
+                            inner = -1;
+                            
+                        } else {
+                            // inline flags or named groups
+                            return null;
+                        }
+                    }
+                    
+                    if (inner != -1 && !hasAlternatives(regex, inner, close)) {
+                        groupLiteral = getLongestLiteral(regex, inner, close);
+                        if (groupLiteral == null) {
+                            return null;
+                        }
+                    }
+                    break;
+                    
+                case '.':
+                case '^':
+                case '$':
+                    break;
+                    
+                case ')':
+                case '|':
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    // dangling, not handled here
+                    return null;
+                    
+                default:
+                    if (Character.isSurrogate(c)) {
+                        return null;
+                    }
+                    isLiteral = true;
+            }
+
+            // quantifier of the atom
+            int next = atomEnd;
+            boolean isOptional = false;
+            boolean isRepeated = false;
+            if (next < to) {
+                char q = regex.charAt(next);
+                if (q == '?' || q == '*') {
+                    isOptional = true;
+                    isRepeated = q == '*';
+                    next++;
+                    
+                } else if (q == '+') {
+                    isRepeated = true;
+                    next++;
+                    
+                } else if (q == '{') {
+                    int closeBrace = regex.indexOf('}', next);
+                    if (closeBrace < 0 || closeBrace >= to) {
+                        return null;
+                    }
+                    
+                    String[] bounds = regex.substring(next + 1, closeBrace).split(",", -1);
+                    try {
+                        int min = Integer.parseInt(bounds[0]);
+                        isOptional = min == 0;
+                        isRepeated = bounds.length > 1 || min > 1;
+                        
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    next = closeBrace + 1;
+                }
+                
+                if (next != atomEnd && next < to && (regex.charAt(next) == '?' || regex.charAt(next) == '+')) {
+                    // reluctant or possessive
+                    next++;
+                }
+            }
+
+            if (isLiteral && !isOptional) {
+                run.append(c);
+                if (isRepeated) {
+                    longest = longer(longest, run);
+                    run.setLength(0);
+                }
+                
+            } else {
+                longest = longer(longest, run);
+                run.setLength(0);
+                if (groupLiteral != null && !isOptional && groupLiteral.length() > longest.length()) {
+                    longest = groupLiteral;
+                }
+            }
+            
+            i = next;
+        }
+        
+        return longer(longest, run);
+    }
+
+    private static String longer(String longest, StringBuilder run) {
+        return (run.length() > longest.length()) ? run.toString() : longest;
+    }
+
+    /**
+     * @return the index after the character class starting at the given
+     * index or -1 if it's not closed
+     */
+    private static int skipClass(String regex, int start, int to) {
+        int depth = 0;
+        int i = start;
+        while (i < to) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            
+            if (c == '[') {
+                depth++;
+                if (i + 1 < to && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < to && regex.charAt(i + 1) == ']') {
+                    // a leading ] is a literal
+                    i++;
+                }
+                
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        
+        return -1;
+    }
+
+    /**
+     * @return the index of the parenthesis closing the group starting at the
+     * given index or -1 if it's not closed
+     */
+    private static int findGroupEnd(String regex, int start, int to) {
+        int depth = 0;
+        int i = start;
+        while (i < to) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            
+            if (c == '[') {
+                i = skipClass(regex, i, to);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i;
+                }
+            }
+            i++;
+        }
+        
+        return -1;
+    }
+
+    private static boolean hasAlternatives(String regex, int from, int to) {
+        int depth = 0;
+        int i = from;
+        while (i < to) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            
+            if (c == '[') {
+                i = skipClass(regex, i, to);
+                continue;
+            }
+            
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+            i++;
+        }
+        
+        return false;
+    }
+}
@@ -17,19 +17,20 @@
  */
 package org.zaproxy.zap.extension.websocket;
 
+import java.awt.EventQueue;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -60,6 +61,7 @@ import org.parosproxy.paros.view.AbstractParamPanel;
 import org.parosproxy.paros.view.View;
 import org.zaproxy.zap.PersistentConnectionListener;
 import org.zaproxy.zap.ZapGetMethod;
+import org.zaproxy.zap.extension.api.API;
 import org.zaproxy.zap.extension.brk.BreakpointMessageHandler;
 import org.zaproxy.zap.extension.brk.ExtensionBreak;
 import org.zaproxy.zap.extension.help.ExtensionHelp;
@@ -68,17 +70,21 @@ import org.zaproxy.zap.extension.httppanel.component.HttpPanelComponentInterface
 import org.zaproxy.zap.extension.httppanel.view.HttpPanelDefaultViewSelector;
 import org.zaproxy.zap.extension.httppanel.view.HttpPanelView;
 import org.zaproxy.zap.extension.httppanel.view.hex.HttpPanelHexView;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
 import org.zaproxy.zap.extension.websocket.brk.PopupMenuAddBreakWebSocket;
 import org.zaproxy.zap.extension.websocket.brk.WebSocketBreakpointMessageHandler;
 import org.zaproxy.zap.extension.websocket.brk.WebSocketBreakpointsUiManagerInterface;
 import org.zaproxy.zap.extension.websocket.brk.WebSocketProxyListenerBreak;
 import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
 import org.zaproxy.zap.extension.websocket.db.WebSocketStorage;
+import org.zaproxy.zap.extension.websocket.db.WebSocketStorageWriter;
 import org.zaproxy.zap.extension.websocket.filter.FilterWebSocketPayload;
 import org.zaproxy.zap.extension.websocket.filter.WebSocketFilter;
 import org.zaproxy.zap.extension.websocket.filter.WebSocketFilterListener;
 import org.zaproxy.zap.extension.websocket.manualsend.ManualWebSocketSendEditorDialog;
 import org.zaproxy.zap.extension.websocket.manualsend.WebSocketPanelSender;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketChannelMetrics;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketSessionMetrics;
 import org.zaproxy.zap.extension.websocket.ui.ExcludeFromWebSocketsMenuItem;
 import org.zaproxy.zap.extension.websocket.ui.OptionsParamWebSocket;
 import org.zaproxy.zap.extension.websocket.ui.OptionsWebSocketPanel;
@@ -87,6 +93,7 @@ import org.zaproxy.zap.extension.websocket.ui.PopupIncludeWebSocketContextMenu;
 import org.zaproxy.zap.extension.websocket.ui.ResendWebSocketMessageMenuItem;
 import org.zaproxy.zap.extension.websocket.ui.SessionExcludeFromWebSocket;
 import org.zaproxy.zap.extension.websocket.ui.WebSocketPanel;
+import org.zaproxy.zap.extension.websocket.ui.WebSocketStatsPanel;
 import org.zaproxy.zap.extension.websocket.ui.httppanel.component.WebSocketComponent;
 import org.zaproxy.zap.extension.websocket.ui.httppanel.models.ByteWebSocketPanelViewModel;
 import org.zaproxy.zap.extension.websocket.ui.httppanel.models.StringWebSocketPanelViewModel;
@@ -124,6 +131,18 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 */
 	private ExecutorService listenerThreadPool;
 
+	/**
+	 * Notifies read-only observers after forwarding, if enabled in the
+	 * options.
+	 */
+	private WebSocketObserverDispatcher observerDispatcher;
+
+	/**
+	 * Sets the handshake reference of channels, that were started before
+	 * their handshake was saved.
+	 */
+	private WebSocketHandshakeReferenceWatcher handshakeReferenceWatcher;
+
 	/**
 	 * List of observers where each element is informed on all channel's
 	 * messages.
@@ -131,14 +150,28 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	private Vector<WebSocketObserver> allChannelObservers;
 
 	/**
-	 * Contains all proxies with their corresponding handshake message.
+	 * Contains all proxies by their channel id. Lookups do not block, as they
+	 * are done e.g. whenever the site map is rendered. Closed proxies are
+	 * removed by {@link #pruneClosedChannels()}.
+	 */
+	private ConcurrentMap<Integer, WebSocketProxy> wsProxies;
+
+	/**
+	 * Contains the proxies of {@link #wsProxies} by the id of their handshake
+	 * {@link HistoryReference}.
 	 */
-	private Map<Integer, WebSocketProxy> wsProxies;
+	private ConcurrentMap<Integer, WebSocketProxy> wsProxiesByHistoryId;
 
 	/**
 	 * Interface to database.
 	 */
 	private WebSocketStorage storage;
+	
+	/**
+	 * Channels with a greater id were created after the database was opened.
+	 * Only these are purged when they are excluded.
+	 */
+	private volatile int maxStoredChannelId = Integer.MAX_VALUE;
 
 	/**
 	 * List of WebSocket related filters.
@@ -175,7 +208,23 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	/**
 	 * This filter allows to change the bytes when passed through ZAP.
 	 */
-	private WebSocketFilter payloadFilter;
+	private FilterWebSocketPayload payloadFilter;
+
+	/**
+	 * Observer latencies of all channels and traffic totals of closed
+	 * channels.
+	 */
+	private WebSocketSessionMetrics sessionMetrics;
+
+	/**
+	 * Exposes traffic metrics via the ZAP API.
+	 */
+	private WebSocketAPI api;
+
+	/**
+	 * Shows traffic metrics, hidden by default.
+	 */
+	private WebSocketStatsPanel statsPanel;
 	
 	public ExtensionWebSocket() {
 		super(NAME);
@@ -190,7 +239,9 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		super.init();
 		
 		allChannelObservers = new Vector<>();
-		wsProxies = new HashMap<>();
+		wsProxies = new ConcurrentHashMap<>();
+		wsProxiesByHistoryId = new ConcurrentHashMap<>();
+		sessionMetrics = new WebSocketSessionMetrics();
 		config = new OptionsParamWebSocket();
 		
 		preparedIgnoredChannels = new ArrayList<>();
@@ -218,7 +269,8 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 				getWebSocketPanel().resume();
 			}
 			
-			WebSocketProxy.setChannelIdGenerator(table.getMaxChannelId());
+			maxStoredChannelId = table.getMaxChannelId();
+			WebSocketProxy.setChannelIdGenerator(maxStoredChannelId);
 
 		} catch (SQLException e) {
 			logger.warn(e.getMessage(), e);
@@ -253,6 +305,9 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		// setup configuration
 		extensionHook.addOptionsParamSet(config);
 		
+		api = new WebSocketAPI(this);
+		API.getInstance().registerApiImplementor(api);
+		
 		try {
 			setChannelIgnoreList(Model.getSingleton().getSession().getExcludeFromProxyRegexs());
 		} catch (WebSocketException e) {
@@ -275,6 +330,9 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			
 			hookView.addStatusPanel(getWebSocketPanel());
 			
+			statsPanel = new WebSocketStatsPanel(this);
+			hookView.addStatusPanel(statsPanel);
+			
 			// setup Options Panel
 			hookView.addOptionPanel(getOptionsPanel());
 			
@@ -350,6 +408,20 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		}
 	}
 	
+	@Override
+	public void optionsLoaded() {
+		super.optionsLoaded();
+		
+		if (storage != null && config.isStorageAsync()) {
+			storage.setWriter(new WebSocketStorageWriter(
+					storage.getTable(),
+					config.getStorageQueueCapacity(),
+					config.getStorageBatchSize(),
+					config.getStorageFlushInterval(),
+					config.isStorageDropOnOverflow()));
+		}
+	}
+	
 	@Override
 	public boolean canUnload() {
 		return true;
@@ -360,11 +432,32 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		super.unload();
 		
 		// close all existing connections
-		for (Entry<Integer, WebSocketProxy> wsEntry : wsProxies.entrySet()) {
-			WebSocketProxy wsProxy = wsEntry.getValue();
+		for (WebSocketProxy wsProxy : wsProxies.values()) {
 			wsProxy.shutdown();
 		}
 		
+		if (observerDispatcher != null) {
+			// notify about remaining messages before they are written
+			observerDispatcher.shutdown();
+		}
+		
+		if (storage != null) {
+			// write remaining queued messages
+			storage.setWriter(null);
+		}
+		
+		if (handshakeReferenceWatcher != null) {
+			handshakeReferenceWatcher.shutdown();
+		}
+		
+		if (api != null) {
+			API.getInstance().removeApiImplementor(api);
+		}
+		
+		if (statsPanel != null) {
+			statsPanel.stop();
+		}
+		
 		Control control = Control.getSingleton();
 		ExtensionLoader extLoader = control.getExtensionLoader();
 		
@@ -416,6 +509,60 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		return Constant.messages.getString("websocket.desc");
 	}
 
+	/**
+	 * @return traffic metrics of all channels of the current session, that
+	 *         are not closed, sorted by channel id
+	 */
+	public List<WebSocketChannelMetrics> getChannelMetrics() {
+		pruneClosedChannels();
+		
+		Map<Integer, WebSocketChannelMetrics> metrics = new TreeMap<>();
+		for (WebSocketProxy wsProxy : wsProxies.values()) {
+			metrics.put(wsProxy.getChannelId(), wsProxy.getMetrics());
+		}
+		return new ArrayList<>(metrics.values());
+	}
+
+	/**
+	 * @return observer latencies of all channels and traffic totals of
+	 *         closed channels of the current session
+	 */
+	public WebSocketSessionMetrics getSessionMetrics() {
+		return sessionMetrics;
+	}
+
+	/**
+	 * Removes closed proxies, such that they and their metrics can be
+	 * released. Their traffic counters are added to the
+	 * {@link #sessionMetrics}.
+	 */
+	private void pruneClosedChannels() {
+		for (WebSocketProxy wsProxy : wsProxies.values()) {
+			if (wsProxy.state == State.CLOSED && wsProxies.remove(wsProxy.getChannelId(), wsProxy)) {
+				HistoryReference handshakeReference = wsProxy.getHandshakeReference();
+				if (handshakeReference != null) {
+					wsProxiesByHistoryId.remove(handshakeReference.getHistoryId(), wsProxy);
+				}
+				sessionMetrics.addClosedChannel(wsProxy.getMetrics());
+			}
+		}
+	}
+
+	/**
+	 * @return filter replacing payloads or null if there is no view
+	 */
+	public FilterWebSocketPayload getPayloadFilter() {
+		return payloadFilter;
+	}
+
+	/**
+	 * @return writer storing messages asynchronously or null if messages are
+	 *         stored synchronously
+	 */
+	public WebSocketStorageWriter getStorageWriter() {
+		return (storage != null) ? storage.getWriter() : null;
+	}
+
 	/**
 	 * Add an observer that is attached to every channel connected in future.
 	 * 
@@ -515,21 +662,20 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 				wsProxy.addObserver(observer);
 			}
 			
-			// wait until HistoryReference is saved to database
-			while (handshakeMessage.getHistoryRef() == null) {
-				try {
-					Thread.sleep(5);
-				} catch (InterruptedException e) {
-					logger.warn(e.getMessage(), e);
-				}
-			}
-			wsProxy.setHandshakeReference(handshakeMessage.getHistoryRef());
+			// HistoryReference might not be saved to database yet, it is set by
+			// the watcher, but the URL is known already to check the ignore list
+			wsProxy.setHandshakeUrl(handshakeMessage.getRequestHeader().getURI().toString());
 			wsProxy.setForwardOnly(isChannelIgnored(wsProxy.getDTO()));
+			wsProxy.setSpillThreshold(config.getSpillThreshold());
+			wsProxy.setSessionMetrics(sessionMetrics);
+			if (config.isObserversAsync()) {
+				wsProxy.setObserverDispatcher(getObserverDispatcher());
+			}
 			wsProxy.startListeners(getListenerThreadPool(), remoteReader);
 			
-			synchronized (wsProxies) {
-				wsProxies.put(wsProxy.getChannelId(), wsProxy);
-			}
+			pruneClosedChannels();
+			wsProxies.put(wsProxy.getChannelId(), wsProxy);
+			getHandshakeReferenceWatcher().watch(handshakeMessage, wsProxy);
 		} catch (Exception e) {
 			// defensive measure to catch all possible exceptions
 			// cleanly close resources
@@ -675,17 +821,47 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 
 	/**
 	 * Creates and returns a cached thread pool that should speed up
-	 * {@link WebSocketListener}.
+	 * {@link WebSocketListener}. Uses virtual threads if enabled in the
+	 * options and supported by the JVM.
 	 * 
 	 * @return
 	 */
-	private ExecutorService getListenerThreadPool() {
+	private synchronized ExecutorService getListenerThreadPool() {
 		if (listenerThreadPool == null) {
-			listenerThreadPool = Executors.newCachedThreadPool();
+			listenerThreadPool = WebSocketListenerExecutors.newListenerThreadPool(config.isVirtualThreads());
 		}
 		return listenerThreadPool;
 	}
 
+	/**
+	 * Creates and returns the dispatcher for read-only observers, when
+	 * asynchronous observers are enabled in the options.
+	 * 
+	 * @return
+	 */
+	private synchronized WebSocketObserverDispatcher getObserverDispatcher() {
+		if (observerDispatcher == null) {
+			observerDispatcher = new WebSocketObserverDispatcher(config.getObserversThreads(), config.getObserversMaxPending());
+		}
+		return observerDispatcher;
+	}
+
+	private synchronized WebSocketHandshakeReferenceWatcher getHandshakeReferenceWatcher() {
+		if (handshakeReferenceWatcher == null) {
+			handshakeReferenceWatcher = new WebSocketHandshakeReferenceWatcher(new WebSocketHandshakeReferenceWatcher.Listener() {
+
+				@Override
+				public void handshakeReferenceSet(WebSocketProxy proxy, HistoryReference handshakeReference) {
+					// skip proxies removed in the meantime, e.g. on session change
+					if (wsProxies.get(proxy.getChannelId()) == proxy) {
+						wsProxiesByHistoryId.put(handshakeReference.getHistoryId(), proxy);
+					}
+				}
+			});
+		}
+		return handshakeReferenceWatcher;
+	}
+
 	/**
 	 * Returns true if the WebSocket connection that followed the given
 	 * WebSocket handshake is already alive.
@@ -694,16 +870,8 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 * @return True if connection is still alive.
 	 */
 	public boolean isConnected(HistoryReference handshakeRef) {
-		int historyId = handshakeRef.getHistoryId();
-		synchronized (wsProxies) {
-			for (Entry<Integer, WebSocketProxy> entry : wsProxies.entrySet()) {
-				WebSocketProxy proxy = entry.getValue();
-				if (historyId == proxy.getHandshakeReference().getHistoryId()) {
-					return proxy.isConnected();
-				}
-			}
-		}
-		return false;
+		WebSocketProxy proxy = wsProxiesByHistoryId.get(handshakeRef.getHistoryId());
+		return proxy != null && proxy.isConnected();
 	}
 
 	/**
@@ -713,12 +881,8 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 * @return True if connection is still alive.
 	 */
 	public boolean isConnected(Integer channelId) {
-		synchronized (wsProxies) {
-			if (wsProxies.containsKey(channelId)) {
-				return wsProxies.get(channelId).isConnected();
-			}
-		}
-		return false;
+		WebSocketProxy proxy = wsProxies.get(channelId);
+		return proxy != null && proxy.isConnected();
 	}
 
     /**
@@ -772,16 +936,48 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	}
 	
 	private void applyChannelIgnoreList() {
-		synchronized (wsProxies) {
-			for (Entry<Integer, WebSocketProxy> entry : wsProxies.entrySet()) {
-				WebSocketProxy wsProxy = entry.getValue();
-				
-				if (isChannelIgnored(wsProxy.getDTO())) {
-					wsProxy.setForwardOnly(true);
-				} else {
-					wsProxy.setForwardOnly(false);
+		for (WebSocketProxy wsProxy : wsProxies.values()) {
+			if (isChannelIgnored(wsProxy.getDTO())) {
+				wsProxy.setForwardOnly(true);
+			} else {
+				wsProxy.setForwardOnly(false);
+			}
+		}
+		
+		purgeIgnoredChannels();
+	}
+
+	/**
+	 * Deletes all communication of ignored channels, that were created after
+	 * the database was opened, in one go. Closed channels are included,
+	 * although their proxies are no longer in {@link #wsProxies}.
+	 */
+	private void purgeIgnoredChannels() {
+		if (storage == null || storage.getTable() == null
+				|| (preparedIgnoredChannels.isEmpty() && !config.isForwardAll())) {
+			return;
+		}
+		
+		try {
+			List<Integer> channelIds = new ArrayList<>();
+			for (WebSocketChannelDTO channel : storage.getTable().getChannelItems()) {
+				if (channel.id > maxStoredChannelId && isChannelIgnored(channel)) {
+					channelIds.add(channel.id);
 				}
 			}
+			
+			if (storage.purgeChannels(channelIds) > 0 && View.isInitialised()) {
+				// closed channels were not removed from UI by State.EXCLUDED
+				EventQueue.invokeLater(new Runnable() {
+					
+					@Override
+					public void run() {
+						getWebSocketPanel().update();
+					}
+				});
+			}
+		} catch (DatabaseException e) {
+			logger.error(e.getMessage(), e);
 		}
 	}
 
@@ -863,12 +1059,13 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		}
 		
 		// close existing connections
-		synchronized (wsProxies) {
-			for (WebSocketProxy wsProxy : wsProxies.values()) {
-				wsProxy.shutdown();
-			}
-			wsProxies.clear();
+		for (WebSocketProxy wsProxy : wsProxies.values()) {
+			wsProxy.shutdown();
 		}
+		wsProxies.clear();
+		wsProxiesByHistoryId.clear();
+		sessionMetrics.reset();
+		maxStoredChannelId = Integer.MAX_VALUE;
 		
 		if (wsFilterListener != null) {
 			wsFilterListener.reset();
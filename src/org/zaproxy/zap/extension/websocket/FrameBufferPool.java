@@ -0,0 +1,173 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Thread confined pool of frame buffers, such that proxied frames do not
+ * allocate a new buffer each. Use {@link #get()} to retrieve the pool of the
+ * current thread.
+ * <p>
+ * Buffers are organized in size classes of powers of two, from
+ * {@value #MIN_BUFFER_SIZE} to {@value #MAX_BUFFER_SIZE} bytes. Bigger buffers
+ * are not pooled. At most {@link #getMaxRetainedBytes()} are kept per thread,
+ * surplus buffers are left to the garbage collector.
+ * <p>
+ * A buffer may be released in another thread than it was acquired in, it is
+ * then retained by the pool of the releasing thread.
+ */
+public final class FrameBufferPool {
+
+	static final int MIN_BUFFER_SIZE = 4096;
+
+	static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+	static final int DEFAULT_MAX_RETAINED_BYTES = 256 * 1024;
+
+	private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+	private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SIZE_SHIFT + 1;
+
+	private static final ThreadLocal<FrameBufferPool> pools = new ThreadLocal<FrameBufferPool>() {
+
+		@Override
+		protected FrameBufferPool initialValue() {
+			return new FrameBufferPool(DEFAULT_MAX_RETAINED_BYTES);
+		}
+	};
+
+	private final ArrayDeque<ByteBuffer>[] freeBuffers;
+
+	private int maxRetainedBytes;
+
+	private int retainedBytes;
+
+	@SuppressWarnings("unchecked")
+	private FrameBufferPool(int maxRetainedBytes) {
+		this.maxRetainedBytes = maxRetainedBytes;
+		freeBuffers = new ArrayDeque[SIZE_CLASSES];
+		for (int i = 0; i < SIZE_CLASSES; i++) {
+			freeBuffers[i] = new ArrayDeque<>();
+		}
+	}
+
+	/**
+	 * @return pool of current thread
+	 */
+	public static FrameBufferPool get() {
+		return pools.get();
+	}
+
+	/**
+	 * Returns a cleared heap buffer with at least the given capacity.
+	 * 
+	 * @param minCapacity
+	 * @return buffer with position 0 and limit set to its capacity
+	 */
+	public ByteBuffer acquire(int minCapacity) {
+		int sizeClass = getSizeClass(minCapacity);
+		if (sizeClass == -1) {
+			return ByteBuffer.allocate(minCapacity);
+		}
+
+		ByteBuffer buffer = freeBuffers[sizeClass].pollLast();
+		if (buffer == null) {
+			return ByteBuffer.allocate(MIN_BUFFER_SIZE << sizeClass);
+		}
+
+		retainedBytes -= buffer.capacity();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Hands back given buffer, which must not be used afterwards by the
+	 * caller.
+	 * 
+	 * @param buffer might be null
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.hasArray() || buffer.isReadOnly()) {
+			return;
+		}
+
+		int capacity = buffer.capacity();
+		if (Integer.bitCount(capacity) != 1 || capacity < MIN_BUFFER_SIZE || capacity > MAX_BUFFER_SIZE) {
+			// not allocated by this pool
+			return;
+		}
+
+		if (retainedBytes + capacity > maxRetainedBytes) {
+			return;
+		}
+
+		retainedBytes += capacity;
+		freeBuffers[Integer.numberOfTrailingZeros(capacity) - MIN_SIZE_SHIFT].addLast(buffer);
+	}
+
+	/**
+	 * @return maximum number of bytes kept by this pool
+	 */
+	public int getMaxRetainedBytes() {
+		return maxRetainedBytes;
+	}
+
+	/**
+	 * Changes the maximum number of bytes kept by this pool. Zero disables
+	 * pooling for this thread.
+	 * 
+	 * @param maxRetainedBytes
+	 */
+	public void setMaxRetainedBytes(int maxRetainedBytes) {
+		if (maxRetainedBytes < 0) {
+			throw new IllegalArgumentException("Parameter maxRetainedBytes must not be negative.");
+		}
+		this.maxRetainedBytes = maxRetainedBytes;
+
+		for (ArrayDeque<ByteBuffer> buffers : freeBuffers) {
+			while (retainedBytes > maxRetainedBytes && !buffers.isEmpty()) {
+				retainedBytes -= buffers.pollFirst().capacity();
+			}
+		}
+	}
+
+	/**
+	 * @return number of bytes currently kept by this pool
+	 */
+	public int getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	/**
+	 * @param capacity
+	 * @return index of smallest size class fitting given capacity or -1 if too big
+	 */
+	private static int getSizeClass(int capacity) {
+		if (capacity <= MIN_BUFFER_SIZE) {
+			return 0;
+		}
+		if (capacity > MAX_BUFFER_SIZE) {
+			return -1;
+		}
+		// round up to next power of two
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		return Integer.numberOfTrailingZeros(size) - MIN_SIZE_SHIFT;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONObject;
+
+import org.zaproxy.zap.extension.api.ApiException;
+import org.zaproxy.zap.extension.api.ApiImplementor;
+import org.zaproxy.zap.extension.api.ApiResponse;
+import org.zaproxy.zap.extension.api.ApiResponseList;
+import org.zaproxy.zap.extension.api.ApiResponseSet;
+import org.zaproxy.zap.extension.api.ApiView;
+import org.zaproxy.zap.extension.websocket.db.WebSocketStorageWriter;
+import org.zaproxy.zap.extension.websocket.filter.FilterWebSocketPayload;
+import org.zaproxy.zap.extension.websocket.stats.LatencyHistogram;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketChannelMetrics;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketSessionMetrics;
+
+/**
+ * Exposes traffic metrics of WebSocket channels. Durations are given in
+ * microseconds.
+ */
+public class WebSocketAPI extends ApiImplementor {
+
+	private static final String PREFIX = "websocket";
+
+	private static final String VIEW_CHANNEL_STATS = "channelStats";
+
+	private static final String VIEW_SESSION_STATS = "sessionStats";
+
+	private static final String VIEW_STORAGE_STATS = "storageStats";
+
+	private static final String VIEW_PAYLOAD_FILTER_STATS = "payloadFilterStats";
+
+	private static final String PARAM_CHANNEL_ID = "channelId";
+
+	private final ExtensionWebSocket extension;
+
+	public WebSocketAPI(ExtensionWebSocket extension) {
+		this.addApiView(new ApiView(VIEW_CHANNEL_STATS, null, new String[] { PARAM_CHANNEL_ID }));
+		this.addApiView(new ApiView(VIEW_SESSION_STATS));
+		this.addApiView(new ApiView(VIEW_STORAGE_STATS));
+		this.addApiView(new ApiView(VIEW_PAYLOAD_FILTER_STATS));
+
+		this.extension = extension;
+	}
+
+	@Override
+	public String getPrefix() {
+		return PREFIX;
+	}
+
+	@Override
+	public ApiResponse handleApiView(String name, JSONObject params) throws ApiException {
+		ApiResponse result;
+		switch (name) {
+		case VIEW_CHANNEL_STATS:
+			int channelId = getParam(params, PARAM_CHANNEL_ID, -1);
+			ApiResponseList resultList = new ApiResponseList(name);
+			for (WebSocketChannelMetrics metrics : extension.getChannelMetrics()) {
+				if (channelId == -1 || channelId == metrics.getChannelId()) {
+					resultList.addItem(new ApiResponseSet("channel", channelStatsToMap(metrics)));
+				}
+			}
+			result = resultList;
+			break;
+		case VIEW_SESSION_STATS:
+			result = new ApiResponseSet(name, sessionStatsToMap(extension.getSessionMetrics()));
+			break;
+		case VIEW_STORAGE_STATS:
+			result = new ApiResponseSet(name, storageStatsToMap(extension.getStorageWriter()));
+			break;
+		case VIEW_PAYLOAD_FILTER_STATS:
+			result = new ApiResponseSet(name, payloadFilterStatsToMap(extension.getPayloadFilter()));
+			break;
+		default:
+			throw new ApiException(ApiException.Type.BAD_VIEW);
+		}
+		return result;
+	}
+
+	private static Map<String, String> channelStatsToMap(WebSocketChannelMetrics metrics) {
+		Map<String, String> map = new LinkedHashMap<>();
+		map.put("id", Integer.toString(metrics.getChannelId()));
+		map.put("outgoingFrames", Long.toString(metrics.getFrameCount(true)));
+		map.put("incomingFrames", Long.toString(metrics.getFrameCount(false)));
+		map.put("outgoingBytes", Long.toString(metrics.getByteCount(true)));
+		map.put("incomingBytes", Long.toString(metrics.getByteCount(false)));
+		map.put("outgoingFramesPerSecond", formatRate(metrics.getFrameRate(true)));
+		map.put("incomingFramesPerSecond", formatRate(metrics.getFrameRate(false)));
+		map.put("outgoingBytesPerSecond", formatRate(metrics.getByteRate(true)));
+		map.put("incomingBytesPerSecond", formatRate(metrics.getByteRate(false)));
+		return map;
+	}
+
+	private static Map<String, String> sessionStatsToMap(WebSocketSessionMetrics metrics) {
+		Map<String, String> map = new LinkedHashMap<>();
+		map.put("closedChannels", Long.toString(metrics.getClosedChannelCount()));
+		map.put("closedOutgoingFrames", Long.toString(metrics.getClosedFrameCount(true)));
+		map.put("closedIncomingFrames", Long.toString(metrics.getClosedFrameCount(false)));
+		map.put("closedOutgoingBytes", Long.toString(metrics.getClosedByteCount(true)));
+		map.put("closedIncomingBytes", Long.toString(metrics.getClosedByteCount(false)));
+		putLatency(map, "notify", metrics.getNotifyLatency());
+		for (Map.Entry<Integer, LatencyHistogram> entry : metrics.getObserverLatencies().entrySet()) {
+			putLatency(map, "observer" + entry.getKey(), entry.getValue());
+		}
+		return map;
+	}
+
+	private static Map<String, String> storageStatsToMap(WebSocketStorageWriter writer) {
+		Map<String, String> map = new LinkedHashMap<>();
+		map.put("async", Boolean.toString(writer != null));
+		if (writer != null) {
+			map.put("queueDepth", Integer.toString(writer.getQueueDepth()));
+			map.put("writtenCount", Long.toString(writer.getWrittenCount()));
+			map.put("droppedCount", Long.toString(writer.getDroppedCount()));
+			map.put("averageFlushTimeMillis", Long.toString(writer.getAverageFlushTime()));
+			putLatency(map, "queue", writer.getQueueLatency());
+		}
+		return map;
+	}
+
+	private static Map<String, String> payloadFilterStatsToMap(FilterWebSocketPayload filter) {
+		Map<String, String> map = new LinkedHashMap<>();
+		map.put("available", Boolean.toString(filter != null));
+		if (filter != null) {
+			map.put("scannedCount", Long.toString(filter.getScannedCount()));
+			map.put("replacedCount", Long.toString(filter.getReplacedCount()));
+			map.put("abortedCount", Long.toString(filter.getAbortedCount()));
+			map.put("scanTimeMean", Long.toString(filter.getAverageScanTime()));
+			map.put("scanTimeMax", Long.toString(filter.getMaxScanTime()));
+		}
+		return map;
+	}
+
+	private static void putLatency(Map<String, String> map, String prefix, LatencyHistogram histogram) {
+		map.put(prefix + "Count", Long.toString(histogram.getCount()));
+		map.put(prefix + "Mean", toMicros(histogram.getMean()));
+		map.put(prefix + "P50", toMicros(histogram.getValueAtPercentile(50)));
+		map.put(prefix + "P99", toMicros(histogram.getValueAtPercentile(99)));
+		map.put(prefix + "Max", toMicros(histogram.getMax()));
+	}
+
+	private static String toMicros(long nanos) {
+		return Long.toString(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	private static String formatRate(double rate) {
+		return String.format(Locale.ROOT, "%.2f", rate);
+	}
+}
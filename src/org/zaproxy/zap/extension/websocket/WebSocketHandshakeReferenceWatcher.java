@@ -0,0 +1,225 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.model.HistoryReference;
+import org.parosproxy.paros.network.HttpMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+import org.zaproxy.zap.extension.websocket.db.WebSocketStorage;
+
+/**
+ * Hands over the {@link HistoryReference} of a handshake to its
+ * {@link WebSocketProxy}, as soon as the handshake was saved to the history.
+ * The reference is set with
+ * {@link WebSocketProxy#setHandshakeReference(HistoryReference)}, which informs
+ * the observers of an open channel about {@link State#UPDATED}.
+ * <p>
+ * ZAP saves the handshake in another thread and offers no callback for when it
+ * is done, so the reference is polled. Channels are started right away, their
+ * handshake is checked whenever the channel is active (i.e. on each frame and
+ * state change, as an observer of the channel) and, for idle channels, with
+ * increasing intervals from one shared thread. After {@link #TIMEOUT}
+ * milliseconds the interval checks stop with a warning, but a reference saved
+ * later on is still set on the next activity. The observer is removed once the
+ * reference is set or the channel is closed.
+ */
+public class WebSocketHandshakeReferenceWatcher {
+
+	private static final Logger logger = Logger.getLogger(WebSocketHandshakeReferenceWatcher.class);
+
+	/**
+	 * Checks happen before messages are stored, such that they are stored
+	 * with a complete channel.
+	 */
+	public static final int WEBSOCKET_OBSERVING_ORDER = WebSocketStorage.WEBSOCKET_OBSERVING_ORDER - 10;
+
+	/**
+	 * Time in milliseconds until the first check of an idle channel, doubled
+	 * for each further check.
+	 */
+	private static final long INITIAL_CHECK_INTERVAL = 5;
+
+	/**
+	 * Maximum time in milliseconds between two checks of an idle channel.
+	 */
+	private static final long MAX_CHECK_INTERVAL = 1000;
+
+	/**
+	 * Time in milliseconds after which idle channels are not checked any
+	 * longer.
+	 */
+	private static final long TIMEOUT = 60000;
+
+	/**
+	 * Informed when the reference of a channel was set.
+	 */
+	public interface Listener {
+
+		void handshakeReferenceSet(WebSocketProxy proxy, HistoryReference handshakeReference);
+	}
+
+	private final ScheduledExecutorService executor;
+
+	private final Listener listener;
+
+	public WebSocketHandshakeReferenceWatcher(Listener listener) {
+		this.listener = listener;
+
+		ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ZAP-WS-HandshakeReferenceWatcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		scheduledExecutor.setRemoveOnCancelPolicy(true);
+		executor = scheduledExecutor;
+	}
+
+	/**
+	 * Sets the reference of given handshake to the proxy, immediately if it is
+	 * already available or later on, when it is saved.
+	 * 
+	 * @param handshakeMessage
+	 * @param proxy
+	 */
+	public void watch(HttpMessage handshakeMessage, WebSocketProxy proxy) {
+		PendingHandshake pending = new PendingHandshake(handshakeMessage, proxy);
+		if (pending.complete()) {
+			return;
+		}
+
+		proxy.addObserver(pending);
+		try {
+			executor.schedule(pending, INITIAL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// shut down in the meantime
+			logger.debug(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Stops watching, references of pending handshakes are not set anymore.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Checks the handshake of one channel, as observer of the channel and
+	 * as scheduled task.
+	 */
+	private class PendingHandshake implements WebSocketObserver, Runnable {
+
+		private final HttpMessage handshakeMessage;
+
+		private final WebSocketProxy proxy;
+
+		private final long deadline;
+
+		private final AtomicBoolean completed = new AtomicBoolean();
+
+		private long checkInterval = INITIAL_CHECK_INTERVAL;
+
+		public PendingHandshake(HttpMessage handshakeMessage, WebSocketProxy proxy) {
+			this.handshakeMessage = handshakeMessage;
+			this.proxy = proxy;
+			this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		}
+
+		/**
+		 * @return True if the reference was set, by this or an earlier call.
+		 */
+		public boolean complete() {
+			if (completed.get()) {
+				return true;
+			}
+
+			HistoryReference handshakeReference = handshakeMessage.getHistoryRef();
+			if (handshakeReference == null || !completed.compareAndSet(false, true)) {
+				return completed.get();
+			}
+
+			proxy.setHandshakeReference(handshakeReference);
+			proxy.removeObserver(this);
+			listener.handshakeReferenceSet(proxy, handshakeReference);
+			return true;
+		}
+
+		private void completeSafely() {
+			try {
+				complete();
+			} catch (RuntimeException e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public int getObservingOrder() {
+			return WEBSOCKET_OBSERVING_ORDER;
+		}
+
+		@Override
+		public boolean onMessageFrame(int channelId, WebSocketMessage message) {
+			completeSafely();
+			return true;
+		}
+
+		@Override
+		public void onStateChange(State state, WebSocketProxy proxy) {
+			completeSafely();
+			if (state == State.CLOSED) {
+				proxy.removeObserver(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			completeSafely();
+			if (completed.get() || proxy.state == State.CLOSED) {
+				return;
+			}
+
+			if (System.nanoTime() - deadline > 0) {
+				logger.warn("Handshake of WebSocket channel " + proxy.toString() + " (" + proxy.getDTO().url
+						+ ") was not saved within " + (TIMEOUT / 1000) + " seconds,"
+						+ " the channel is stored without reference until its next frame.");
+				return;
+			}
+
+			checkInterval = Math.min(checkInterval * 2, MAX_CHECK_INTERVAL);
+			try {
+				executor.schedule(this, checkInterval, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// shut down in the meantime
+				logger.debug(e.getMessage(), e);
+			}
+		}
+	}
+}
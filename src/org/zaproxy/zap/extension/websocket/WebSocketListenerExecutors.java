@@ -0,0 +1,95 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates the thread pool executing the {@link WebSocketListener} instances.
+ * <p>
+ * On JVMs supporting virtual threads (Java 21+) each listener can run in its
+ * own virtual thread, such that blocking reads do not occupy a platform
+ * thread per direction and channel. The virtual thread executor is looked up
+ * by reflection, as the add-on is compiled for older Java versions.
+ */
+public final class WebSocketListenerExecutors {
+
+	private static final Logger logger = Logger.getLogger(WebSocketListenerExecutors.class);
+
+	private WebSocketListenerExecutors() {
+	}
+
+	/**
+	 * Creates a new thread pool for {@link WebSocketListener} instances. Falls
+	 * back to a cached thread pool of platform threads, if virtual threads are
+	 * requested but not supported.
+	 * 
+	 * @param useVirtualThreads
+	 * @return thread pool for listeners
+	 */
+	public static ExecutorService newListenerThreadPool(boolean useVirtualThreads) {
+		if (useVirtualThreads) {
+			ExecutorService executor = newVirtualThreadPerTaskExecutor();
+			if (executor != null) {
+				logger.debug("Using virtual threads for WebSocket listeners.");
+				return executor;
+			}
+			logger.info("Virtual threads are not supported by this JVM - using platform threads for WebSocket listeners.");
+		}
+		return Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * @return True if the running JVM is able to create virtual threads.
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		if (executor == null) {
+			return false;
+		}
+		executor.shutdown();
+		return true;
+	}
+
+	/**
+	 * @return executor of {@code Executors.newVirtualThreadPerTaskExecutor()}
+	 *         or null if not available
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			// e.g. preview feature not enabled
+			if (logger.isDebugEnabled()) {
+				logger.debug(e.getCause().getMessage(), e.getCause());
+			}
+			return null;
+		} catch (IllegalAccessException e) {
+			logger.debug(e.getMessage(), e);
+			return null;
+		}
+	}
+}
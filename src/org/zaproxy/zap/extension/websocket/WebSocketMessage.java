@@ -17,6 +17,7 @@
  */
 package org.zaproxy.zap.extension.websocket;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -54,6 +55,13 @@ public abstract class WebSocketMessage {
 	 * This buffer will contain the whole payload, unmasked
 	 */
 	protected ByteBuffer payload;
+	
+	/**
+	 * Contains the whole payload instead of {@link #payload}, as soon as it
+	 * exceeds {@link WebSocketProxy#getSpillThreshold()}. Null for payloads
+	 * kept in memory.
+	 */
+	protected WebSocketPayloadFile payloadFile;
 
 	/**
 	 * Determined after first frame is processed.
@@ -330,10 +338,28 @@ public abstract class WebSocketMessage {
 	 * Use this helper for concatenating payloads of different WebSocket frames.
 	 * Flips the {@link WebSocketMessage#payload} buffer as soon as this message
 	 * is finished.
+	 * <p>
+	 * Once the payload of a non-control message exceeds the spill threshold of
+	 * its proxy, all bytes are moved to the {@link #payloadFile} and further
+	 * bytes are appended there.
 	 * 
 	 * @param bytes
+	 * @throws IOException if the payload file could not be written
 	 */
-	protected void appendPayload(byte[] bytes) {		
+	protected void appendPayload(byte[] bytes) throws IOException {
+		if (payloadFile == null && shouldSpill(bytes.length)) {
+			payloadFile = WebSocketPayloadFile.create();
+			if (payload != null) {
+				payloadFile.append(payload.array(), 0, payload.position());
+			}
+			payload = ByteBuffer.allocate(0);
+		}
+		
+		if (payloadFile != null) {
+			payloadFile.append(bytes, 0, bytes.length);
+			return;
+		}
+		
 		if (payload == null) {
 			// initialize first
 			payload = ByteBuffer.allocate(bytes.length);
@@ -349,6 +375,59 @@ public abstract class WebSocketMessage {
 		}
 	}
 	
+	private boolean shouldSpill(int additionalLength) {
+		int threshold = (proxy != null) ? proxy.getSpillThreshold() : 0;
+		if (threshold <= 0 || isControl()) {
+			return false;
+		}
+		
+		long length = (payload != null) ? payload.position() : 0;
+		return length + additionalLength > threshold;
+	}
+	
+	/**
+	 * Returns the file containing the payload, if it was too big to be kept
+	 * in memory.
+	 * 
+	 * @return payload file or null if payload is kept in memory
+	 * @see WebSocketProxy#getSpillThreshold()
+	 */
+	public WebSocketPayloadFile getPayloadFile() {
+		return payloadFile;
+	}
+	
+	/**
+	 * Streams the payload without copying it onto the heap, if it is stored
+	 * in a {@link WebSocketPayloadFile}. Use it instead of
+	 * {@link #getPayload()} for messages that might be huge.
+	 * 
+	 * @return stream over the unmasked payload
+	 */
+	public InputStream getPayloadStream() {
+		if (payloadFile != null) {
+			return payloadFile.getInputStream();
+		}
+		return new ByteArrayInputStream(getPayload());
+	}
+	
+	/**
+	 * Gives read access to the payload kept in memory, without copying it.
+	 * The content of the returned buffer must not be modified, use
+	 * {@link #setPayload(byte[])} instead.
+	 * 
+	 * @return buffer from position 0 to the end of the payload or null if the
+	 *         message is not finished or its payload is stored in a
+	 *         {@link WebSocketPayloadFile}
+	 */
+	public ByteBuffer getPayloadBuffer() {
+		if (!isFinished || payloadFile != null || payload == null) {
+			return null;
+		}
+		ByteBuffer buffer = payload.duplicate();
+		buffer.rewind();
+		return buffer;
+	}
+	
 	/**
      * Resizes a given ByteBuffer to a new size.
      * 
@@ -387,6 +466,10 @@ public abstract class WebSocketMessage {
 	 * Returns the 'original' payload as found in the WebSocket frame. Returned
 	 * bytes array does not back the messages payload buffer (i.e. it is a
 	 * copy).
+	 * <p>
+	 * Payloads stored in a {@link #getPayloadFile() payload file} are cut
+	 * after {@link WebSocketPayloadFile#MAX_VIEW_LENGTH} bytes, use
+	 * {@link #getPayloadStream()} for the whole content.
 	 * 
 	 * @return bytes of payload
 	 */
@@ -443,15 +526,12 @@ public abstract class WebSocketMessage {
 		dto.opcode = getOpcode();
 		dto.readableOpcode = getOpcodeString();
 
-		if (isBinary()) {
-			dto.payload = getPayload();
+		if (payloadFile != null) {
+			// huge payloads stay on disk
+			dto.setPayloadFile(payloadFile);
 		} else {
-			dto.payload = getReadablePayload();
-			
-			if (dto.payload == null) {
-				// prevents NullPointerException
-				dto.payload = "";
-			}
+			// non-binary payloads are decoded on first access only
+			dto.setRawPayload(getPayload());
 		}
 		
 		dto.isOutgoing = (getDirection() == Direction.OUTGOING) ? true : false;
@@ -17,10 +17,12 @@
  */
 package org.zaproxy.zap.extension.websocket;
 
+import java.io.IOException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 
 import org.apache.commons.lang.time.FastDateFormat;
+import org.apache.log4j.Logger;
 import org.parosproxy.paros.Constant;
 import org.zaproxy.zap.extension.httppanel.Message;
 import org.zaproxy.zap.extension.websocket.utility.InvalidUtf8Exception;
@@ -33,6 +35,8 @@ import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
  */
 public class WebSocketMessageDTO implements Message {
 	
+	private static final Logger logger = Logger.getLogger(WebSocketMessageDTO.class);
+	
 	/**
 	 * Each message is sent on a specific connection. Ensure that it is not
 	 * <code>null</code>!
@@ -71,9 +75,31 @@ public class WebSocketMessageDTO implements Message {
 	 * <p>
 	 * If it is a byte[] then it might be readable though.
 	 * </p>
+	 * Holds the bytes as received until they are decoded on first call of
+	 * {@link #getPayload()}, and is null for payloads kept in a
+	 * {@link #getPayloadFile() payload file}. A value assigned directly takes
+	 * precedence over received bytes and payload files.
+	 * 
+	 * @deprecated use {@link #getPayload()} and {@link #setPayload(Object)},
+	 *             as the payload might not be decoded yet
 	 */
+	@Deprecated
 	public Object payload;
 
+	/**
+	 * Bytes as received, that are decoded on first call of
+	 * {@link #getPayload()}. Is null if payload was decoded or set. While set,
+	 * {@link #payload} refers to the same array.
+	 */
+	private byte[] rawPayload;
+
+	/**
+	 * Huge payloads stay in this file. Calls of {@link #getPayload()} read
+	 * just the leading {@link WebSocketPayloadFile#MAX_VIEW_LENGTH} bytes,
+	 * without caching them.
+	 */
+	private WebSocketPayloadFile payloadFile;
+
 	/**
 	 * For close messages, there is always a reason.
 	 */
@@ -164,7 +190,16 @@ public class WebSocketMessageDTO implements Message {
 		other.isOutgoing = this.isOutgoing;
 		other.id = this.id;
 		other.opcode = this.opcode;
-		other.payload = this.payload;
+		Object currentPayload;
+		byte[] currentRawPayload;
+		WebSocketPayloadFile currentPayloadFile;
+		synchronized (this) {
+			syncPayloadField();
+			currentPayload = payload;
+			currentRawPayload = rawPayload;
+			currentPayloadFile = payloadFile;
+		}
+		other.setPayload(currentPayload, currentRawPayload, currentPayloadFile);
 		other.payloadLength = this.payloadLength;
 		other.readableOpcode = this.readableOpcode;
 		other.tempUserObj = this.tempUserObj;
@@ -179,6 +214,134 @@ public class WebSocketMessageDTO implements Message {
 		return channel.isInScope();
 	}
 
+	private synchronized void setPayload(Object payload, byte[] rawPayload, WebSocketPayloadFile payloadFile) {
+		this.payload = payload;
+		this.rawPayload = rawPayload;
+		this.payloadFile = payloadFile;
+	}
+
+	/**
+	 * Drops received bytes or payload file, if {@link #payload} was assigned
+	 * directly after they were set.
+	 */
+	private void syncPayloadField() {
+		if (rawPayload != null) {
+			if (payload != rawPayload) {
+				rawPayload = null;
+			}
+		} else if (payloadFile != null && payload != null) {
+			payloadFile = null;
+		}
+	}
+
+	/**
+	 * Returns either a string (readable representation for non-binary
+	 * messages) or byte[]. Bytes set via {@link #setRawPayload(byte[])} are
+	 * decoded on first call and cached.
+	 * <p>
+	 * Payloads of a {@link #getPayloadFile() payload file} are cut after
+	 * {@link WebSocketPayloadFile#MAX_VIEW_LENGTH} bytes, use
+	 * {@link WebSocketPayloadFile#getInputStream()} for the whole content.
+	 * 
+	 * @return payload or null if not set
+	 */
+	public synchronized Object getPayload() {
+		syncPayloadField();
+		if (payloadFile != null) {
+			byte[] bytes = readPayloadFile();
+			if (opcode != null && opcode == WebSocketMessage.OPCODE_BINARY) {
+				return bytes;
+			}
+			try {
+				// do not cut a character of the view
+				return Utf8Util.encodePayloadToUtf8(bytes, 0, Utf8Util.getCompleteLength(bytes, bytes.length));
+			} catch (InvalidUtf8Exception e) {
+				return "<invalid UTF-8>";
+			}
+		}
+		
+		if (rawPayload != null) {
+			if (opcode != null && opcode == WebSocketMessage.OPCODE_BINARY) {
+				payload = rawPayload;
+			} else {
+				try {
+					payload = Utf8Util.encodePayloadToUtf8(rawPayload);
+				} catch (InvalidUtf8Exception e) {
+					payload = "<invalid UTF-8>";
+				}
+			}
+			rawPayload = null;
+		}
+		return payload;
+	}
+
+	/**
+	 * @param payload either a string (readable representation) or byte[]
+	 */
+	public void setPayload(Object payload) {
+		setPayload(payload, null, null);
+	}
+
+	/**
+	 * Sets the payload as received. Decoding of non-binary messages is
+	 * deferred until {@link #getPayload()} is called, as most messages are
+	 * stored, but never viewed.
+	 * 
+	 * @param bytes
+	 */
+	public void setRawPayload(byte[] bytes) {
+		setPayload(bytes, bytes, null);
+	}
+
+	/**
+	 * Refers to a payload, that is too big to be kept in memory. It is read
+	 * from the file whenever it is accessed.
+	 * 
+	 * @param payloadFile
+	 */
+	public void setPayloadFile(WebSocketPayloadFile payloadFile) {
+		setPayload(null, null, payloadFile);
+	}
+
+	/**
+	 * @return file containing the payload or null if payload is kept in memory
+	 */
+	public synchronized WebSocketPayloadFile getPayloadFile() {
+		syncPayloadField();
+		return payloadFile;
+	}
+
+	private byte[] readPayloadFile() {
+		try {
+			return payloadFile.getBytes(WebSocketPayloadFile.MAX_VIEW_LENGTH);
+		} catch (IOException e) {
+			logger.warn("Could not read payload of message " + toString() + ": " + e.getMessage(), e);
+			return new byte[0];
+		}
+	}
+
+	/**
+	 * Returns the payload as bytes, without decoding bytes set via
+	 * {@link #setRawPayload(byte[])}. Strings are encoded as UTF-8. Payloads
+	 * of a {@link #getPayloadFile() payload file} are cut after
+	 * {@link WebSocketPayloadFile#MAX_VIEW_LENGTH} bytes.
+	 * 
+	 * @return bytes of payload or null if not set
+	 */
+	public synchronized byte[] getPayloadBytes() {
+		syncPayloadField();
+		if (payloadFile != null) {
+			return readPayloadFile();
+		} else if (rawPayload != null) {
+			return rawPayload;
+		} else if (payload instanceof byte[]) {
+			return (byte[]) payload;
+		} else if (payload instanceof String) {
+			return Utf8Util.decodePayloadFromUtf8((String) payload);
+		}
+		return null;
+	}
+
 	/**
 	 * Returns content of {@link WebSocketMessageDTO#payload} directly if it is
 	 * of type {@link String}. Otherwise it tries to convert it.
@@ -186,10 +349,11 @@ public class WebSocketMessageDTO implements Message {
 	 * @throws InvalidUtf8Exception 
 	 */
 	public String getReadablePayload() throws InvalidUtf8Exception {
-		if (payload instanceof String) {
-			return (String) payload;
-		} else if (payload instanceof byte[]){
-			return Utf8Util.encodePayloadToUtf8((byte[]) payload);
+		Object currentPayload = getPayload();
+		if (currentPayload instanceof String) {
+			return (String) currentPayload;
+		} else if (currentPayload instanceof byte[]){
+			return Utf8Util.encodePayloadToUtf8((byte[]) currentPayload);
 		} else {
 			return "";
 		}
@@ -62,6 +62,12 @@ public interface WebSocketObserver {
 	 * <p>
 	 * This state does not only represent all possible WebSocket connection
 	 * states, but also state changes that affect how messages are processed.
+	 * <p>
+	 * {@link State#UPDATED} does not change the state of the channel, it is
+	 * sent once the {@link WebSocketProxy#getHandshakeReference() handshake
+	 * reference} was set after the channel was opened (the handshake might be
+	 * saved to the history after that). Observers that keep channel details,
+	 * e.g. its history id, should update them, others can ignore it.
 	 * 
 	 * @param state new state
 	 * @param proxy
@@ -0,0 +1,215 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Notifies {@link WebSocketReadOnlyObserver} instances with a small fixed set
+ * of threads, after the message was forwarded.
+ * <p>
+ * Each channel gets its own {@link ChannelQueue}, whose notifications are run
+ * one after another, such that the observers see messages and state changes of
+ * one channel in order. Different channels are served in parallel.
+ * <p>
+ * At most {@link #getMaxPending()} notifications may be waiting. Then the
+ * listener threads block until the dispatcher caught up, instead of filling up
+ * the memory with messages.
+ */
+public class WebSocketObserverDispatcher {
+
+	private static final Logger logger = Logger.getLogger(WebSocketObserverDispatcher.class);
+
+	/**
+	 * Maximum time in seconds to wait for pending notifications on shutdown.
+	 */
+	private static final int SHUTDOWN_TIMEOUT = 10;
+
+	private final ExecutorService executor;
+
+	private final int maxPending;
+
+	private final Semaphore pending;
+
+	/**
+	 * Starts given number of dispatcher threads.
+	 * 
+	 * @param threadCount
+	 * @param maxPending Maximum number of notifications waiting to be run.
+	 */
+	public WebSocketObserverDispatcher(int threadCount, int maxPending) {
+		if (threadCount <= 0 || maxPending <= 0) {
+			throw new IllegalArgumentException("Thread count and maximum of pending notifications must be positive.");
+		}
+
+		this.maxPending = maxPending;
+		this.pending = new Semaphore(maxPending);
+		this.executor = Executors.newFixedThreadPool(threadCount, new DispatcherThreadFactory());
+	}
+
+	/**
+	 * @return queue for the notifications of one channel
+	 */
+	ChannelQueue createChannelQueue() {
+		return new ChannelQueue();
+	}
+
+	/**
+	 * @return maximum number of notifications waiting to be run
+	 */
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	/**
+	 * @return number of notifications waiting to be run
+	 */
+	public int getPendingCount() {
+		return maxPending - pending.availablePermits();
+	}
+
+	/**
+	 * Runs pending notifications and stops the dispatcher threads afterwards.
+	 * Notifications enqueued later are run by the calling thread.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+				logger.warn("Not all WebSocket observers were notified within " + SHUTDOWN_TIMEOUT + " seconds.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs the notifications of one channel in order, with at most one
+	 * dispatcher thread at a time.
+	 */
+	class ChannelQueue implements Runnable {
+
+		private final Queue<Runnable> notifications = new ConcurrentLinkedQueue<>();
+
+		private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+
+		/**
+		 * Enqueues given notification, blocks while too many notifications
+		 * are pending. Observers notifying other channels from a dispatcher
+		 * thread are never blocked, as they would wait for themselves.
+		 * 
+		 * @param notification
+		 */
+		public void execute(Runnable notification) {
+			boolean acquired = false;
+			if (!(Thread.currentThread() instanceof DispatcherThread)) {
+				pending.acquireUninterruptibly();
+				acquired = true;
+			}
+			notifications.offer(new PendingNotification(notification, acquired));
+
+			schedule();
+		}
+
+		private void schedule() {
+			if (!isScheduled.compareAndSet(false, true)) {
+				// the scheduled run picks it up
+				return;
+			}
+
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				// dispatcher was shut down, notify with current thread
+				run();
+			}
+		}
+
+		@Override
+		public void run() {
+			Runnable notification;
+			while ((notification = notifications.poll()) != null) {
+				notification.run();
+			}
+			isScheduled.set(false);
+
+			// a notification might have been enqueued after polling the last one
+			if (!notifications.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+
+	/**
+	 * Releases the permit of its notification once run.
+	 */
+	private class PendingNotification implements Runnable {
+
+		private final Runnable notification;
+
+		private final boolean acquired;
+
+		public PendingNotification(Runnable notification, boolean acquired) {
+			this.notification = notification;
+			this.acquired = acquired;
+		}
+
+		@Override
+		public void run() {
+			try {
+				notification.run();
+			} catch (Exception e) {
+				logger.warn(e.getMessage(), e);
+			} finally {
+				if (acquired) {
+					pending.release();
+				}
+			}
+		}
+	}
+
+	private static class DispatcherThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new DispatcherThread(runnable, "ZAP-WS-Observer-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private static class DispatcherThread extends Thread {
+
+		public DispatcherThread(Runnable runnable, String name) {
+			super(runnable, name);
+		}
+	}
+}
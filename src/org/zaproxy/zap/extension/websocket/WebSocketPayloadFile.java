@@ -0,0 +1,278 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Temporary file holding the payload of a huge message, such that it is not
+ * kept in memory (see {@link WebSocketProxy#getSpillThreshold()}).
+ * <p>
+ * Bytes are appended while frames arrive. Afterwards the content can be
+ * streamed via {@link #getInputStream()} or viewed via {@link #map()}, which
+ * maps the file into memory instead of reading it onto the heap. Viewers
+ * should not copy more than {@link #MAX_VIEW_LENGTH} bytes onto the heap.
+ * <p>
+ * Files are closed and deleted on {@link #delete()} or as soon as this object
+ * is no longer referenced, i.e. when the message and its DTOs were released.
+ */
+public class WebSocketPayloadFile {
+
+	private static final Logger logger = Logger.getLogger(WebSocketPayloadFile.class);
+
+	/**
+	 * Number of leading bytes, that are read onto the heap for displaying the
+	 * payload (see {@link #getBytes(int)}).
+	 */
+	public static final int MAX_VIEW_LENGTH = 1024 * 1024;
+
+	/**
+	 * Files, whose {@link WebSocketPayloadFile} is no longer referenced.
+	 */
+	private static final ReferenceQueue<WebSocketPayloadFile> releasedFiles = new ReferenceQueue<>();
+
+	/**
+	 * Keeps the references of files reachable until they are deleted.
+	 */
+	private static final Set<FileReference> openFiles = Collections
+			.newSetFromMap(new ConcurrentHashMap<FileReference, Boolean>());
+
+	private final File file;
+
+	private final FileChannel channel;
+
+	private final FileReference reference;
+
+	private long length;
+
+	private ByteBuffer mappedBuffer;
+
+	private WebSocketPayloadFile(File file) throws IOException {
+		this.file = file;
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+		this.reference = new FileReference(this);
+		openFiles.add(reference);
+	}
+
+	/**
+	 * Creates a new empty temporary file.
+	 * 
+	 * @return empty payload file
+	 * @throws IOException if the file could not be created
+	 */
+	public static WebSocketPayloadFile create() throws IOException {
+		deleteReleasedFiles();
+		
+		File file = File.createTempFile("zap-websocket-", ".payload");
+		file.deleteOnExit();
+		return new WebSocketPayloadFile(file);
+	}
+
+	/**
+	 * Appends given bytes to the end of the file.
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @param len
+	 * @throws IOException
+	 */
+	public synchronized void append(byte[] bytes, int offset, int len) throws IOException {
+		ByteBuffer src = ByteBuffer.wrap(bytes, offset, len);
+		while (src.hasRemaining()) {
+			length += channel.write(src, length);
+		}
+		mappedBuffer = null;
+	}
+
+	/**
+	 * @return number of bytes written so far
+	 */
+	public synchronized long length() {
+		return length;
+	}
+
+	/**
+	 * Returns a read-only view on the current content, backed by the file.
+	 * 
+	 * @return mapped content, positioned at the first byte
+	 * @throws IOException if the content exceeds 2 GB or the file was deleted
+	 */
+	public synchronized ByteBuffer map() throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Payload of " + length + " bytes is too big to be mapped.");
+		}
+		if (mappedBuffer == null) {
+			mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		}
+		return mappedBuffer.duplicate();
+	}
+
+	/**
+	 * Copies the given number of bytes from the beginning onto the heap.
+	 * 
+	 * @param maxLength maximum number of bytes or -1 for the whole content
+	 * @return leading bytes of content
+	 * @throws IOException
+	 */
+	public byte[] getBytes(int maxLength) throws IOException {
+		if (maxLength == -1) {
+			ByteBuffer content = map();
+			byte[] bytes = new byte[content.remaining()];
+			content.get(bytes);
+			return bytes;
+		}
+		
+		// read without mapping the whole file
+		ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(maxLength, length()));
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, bytes.position()) == -1) {
+				throw new IOException("Payload file was truncated.");
+			}
+		}
+		return bytes.array();
+	}
+
+	/**
+	 * Streams the content, that was written until this call. Subsequent
+	 * appends are not visible. Each stream has its own position, so several
+	 * streams can be read concurrently.
+	 * 
+	 * @return stream over the current content
+	 */
+	public InputStream getInputStream() {
+		return new PayloadInputStream(length());
+	}
+
+	/**
+	 * Closes and deletes the file. Afterwards the content is no longer
+	 * available.
+	 */
+	public synchronized void delete() {
+		mappedBuffer = null;
+		reference.clear();
+		reference.delete();
+	}
+
+	/**
+	 * Deletes the files of payloads, that are no longer referenced.
+	 */
+	private static void deleteReleasedFiles() {
+		FileReference reference;
+		while ((reference = (FileReference) releasedFiles.poll()) != null) {
+			reference.delete();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "WebSocketPayloadFile " + file.getName() + " (" + length() + " bytes)";
+	}
+
+	/**
+	 * Holds everything needed to delete the file, without referring to the
+	 * {@link WebSocketPayloadFile} itself.
+	 */
+	private static class FileReference extends PhantomReference<WebSocketPayloadFile> {
+
+		private final File file;
+
+		private final FileChannel channel;
+
+		public FileReference(WebSocketPayloadFile payloadFile) {
+			super(payloadFile, releasedFiles);
+			this.file = payloadFile.file;
+			this.channel = payloadFile.channel;
+		}
+
+		public void delete() {
+			if (!openFiles.remove(this)) {
+				return;
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.debug(e.getMessage(), e);
+			}
+			if (!file.delete() && file.exists()) {
+				logger.debug("Could not delete payload file " + file.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Reads with absolute positions, such that it does not interfere with
+	 * appends or other streams.
+	 */
+	private class PayloadInputStream extends InputStream {
+
+		private final long end;
+
+		private long position;
+
+		public PayloadInputStream(long end) {
+			this.end = end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (position >= end) {
+				return -1;
+			}
+
+			int count = (int) Math.min(len, end - position);
+			int read = channel.read(ByteBuffer.wrap(b, off, count), position);
+			if (read > 0) {
+				position += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) {
+			long skipped = Math.max(0, Math.min(n, end - position));
+			position += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, end - position);
+		}
+	}
+}
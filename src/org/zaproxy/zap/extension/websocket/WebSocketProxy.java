@@ -25,11 +25,12 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.sql.Timestamp;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -37,6 +38,8 @@ import org.apache.log4j.Logger;
 import org.parosproxy.paros.db.DatabaseException;
 import org.parosproxy.paros.model.HistoryReference;
 import org.parosproxy.paros.network.HttpMalformedHeaderException;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketChannelMetrics;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketSessionMetrics;
 
 /**
  * Intercepts WebSocket communication and forwards frames. Code is inspired by
@@ -60,7 +63,8 @@ public abstract class WebSocketProxy {
 	 */
 	public enum State {  
 		CONNECTING, OPEN, CLOSING, CLOSED, // ready state
-		EXCLUDED, INCLUDED; // no WebSocket state, used for new black- or whitelisted channels
+		EXCLUDED, INCLUDED, // no WebSocket state, used for new black- or whitelisted channels
+		UPDATED; // no WebSocket state, used when the handshake reference was set after opening
 	}
 	
 	/**
@@ -75,11 +79,11 @@ public abstract class WebSocketProxy {
 	
 	/**
 	 * State of this channel, start in {@link State#CONNECTING} and evolve over
-	 * time. Never set value to {@link State#EXCLUDED} or {@link State#INCLUDED}
-	 * . While observers are notified of these two extra-states, the internal
-	 * state is never set to one of these two values.
+	 * time. Never set value to {@link State#EXCLUDED}, {@link State#INCLUDED}
+	 * or {@link State#UPDATED}. While observers are notified of these
+	 * extra-states, the internal state is never set to one of these values.
 	 */
-	protected State state;
+	protected volatile State state;
 	
 	/**
 	 * Timestamp is set when {@link WebSocketProxy} reaches {@link State#OPEN}.
@@ -94,6 +98,9 @@ public abstract class WebSocketProxy {
 	/**
 	 * Non-finished messages are temporarily buffered. WebSocket messages are
 	 * allowed to consist of an arbitrary number of frames.
+	 * <p>
+	 * Each listener puts and removes the message of its own side, while
+	 * {@link #shutdown()} may discard them from another thread.
 	 */
 	protected Map<InputStream, WebSocketMessage> unfinishedMessages;
 
@@ -118,14 +125,23 @@ public abstract class WebSocketProxy {
 	private WebSocketListener localListener;
 
 	/**
-	 * List of observers, that are informed of in- or outgoing messages.
+	 * List of observers, that are informed of in- or outgoing messages. Kept
+	 * sorted by observing order. Copied on write, as observers might be added
+	 * or removed while the listeners notify them.
 	 */
-	private Vector<WebSocketObserver> observerList;
+	private final List<WebSocketObserver> observerList;
 
 	/**
-	 * Contains link to handshake message.
+	 * Contains link to handshake message. Might be set after the channel was
+	 * opened, see {@link #setHandshakeReference(HistoryReference)}.
+	 */
+	private volatile HistoryReference handshakeReference;
+	
+	/**
+	 * URL of the handshake request, saves reading the handshake message from
+	 * the database.
 	 */
-	private HistoryReference handshakeReference;
+	private volatile String handshakeUrl;
 
 	/**
 	 * Host of remote socket.
@@ -152,11 +168,34 @@ public abstract class WebSocketProxy {
 	 */
 	private boolean isForwardOnly;
 	
+	/**
+	 * Payloads of messages exceeding this number of bytes are written to a
+	 * temporary file instead of memory. Zero keeps all payloads in memory.
+	 */
+	private volatile int spillThreshold;
+	
 	/**
 	 * In client mode there is no connection Browser <-> ZAP, but only ZAP <-> Server.
 	 */
 	private boolean isClientMode;
 	
+	/**
+	 * Traffic counters of this channel.
+	 */
+	private final WebSocketChannelMetrics metrics;
+	
+	/**
+	 * Records observer latencies of all channels, null if they are not
+	 * recorded.
+	 */
+	private volatile WebSocketSessionMetrics sessionMetrics;
+	
+	/**
+	 * Notifies {@link WebSocketReadOnlyObserver} instances after forwarding,
+	 * null if they are notified like all other observers.
+	 */
+	private volatile WebSocketObserverDispatcher.ChannelQueue readOnlyObserverQueue;
+	
 	/**
 	 * After loading another session, the channelCount should be initialized.
 	 * 
@@ -218,12 +257,13 @@ public abstract class WebSocketProxy {
 		this.localSocket = localSocket;
 		this.remoteSocket = remoteSocket;
 		
-		unfinishedMessages = new HashMap<>();
-		observerList = new Vector<>();
+		unfinishedMessages = new ConcurrentHashMap<>();
+		observerList = new CopyOnWriteArrayList<>();
 		
 		// create unique identifier for this WebSocket connection
 		channelId = channelIdGenerator.incrementAndGet();
 		messageIdGenerator = new AtomicInteger(0);
+		metrics = new WebSocketChannelMetrics(channelId);
 		host = remoteSocket.getInetAddress().getHostName();
 		port = remoteSocket.getPort();
 		
@@ -247,6 +287,7 @@ public abstract class WebSocketProxy {
 			break;
 		case CLOSED:
 			end = new Timestamp(Calendar.getInstance().getTimeInMillis());
+			metrics.markClosed();
 			break;
 		default:
 		}
@@ -370,7 +411,7 @@ public abstract class WebSocketProxy {
 	 * Stop listening & close all resources, i.e.: threads, streams & sockets
 	 */
 	public void shutdown() {
-		if (isClientMode && localListener.isFinished() && !remoteListener.isFinished()) {
+		if (isClientMode && localListener != null && localListener.isFinished() && !remoteListener.isFinished()) {
 			// in client mode closing shutdown should be prevented
 			return;
 		}
@@ -411,6 +452,8 @@ public abstract class WebSocketProxy {
 				logger.warn(e.getMessage(), e);
 			}
 			
+			discardUnfinishedMessages();
+			
 			setState(State.CLOSED);
 		}
 	}
@@ -442,6 +485,12 @@ public abstract class WebSocketProxy {
 		
 		logger.debug("Process WebSocket frame: " + opcode + " (" + readableOpcode + ")");
 		
+		if ((isForwardOnly || observerList.isEmpty()) && !unfinishedMessages.containsKey(in)) {
+			// nobody will look at this frame, pass it through without building a message
+			passThroughFrame(in, out, frameHeader);
+			return;
+		}
+		
 		if (WebSocketMessage.isControl(opcode)) {
 			// control messages may interrupt non-control messages
 			// control messages are ALWAYS just one frame long
@@ -481,6 +530,10 @@ public abstract class WebSocketProxy {
 		if (isForwardOnly || notifyMessageObservers(message)) {
 			// skip forwarding only if observer told us to skip this message (frame)
 			message.forward(out);
+			
+			if (!isForwardOnly) {
+				notifyReadOnlyObservers(message);
+			}
 		}	
 	}
 
@@ -497,12 +550,32 @@ public abstract class WebSocketProxy {
 		logger.warn("Got continuation frame, but there is no message to continue - forward frame in any case!");
 		
 		WebSocketMessage message = createWebSocketMessage(in, frameHeader);
+		boolean isNotified = false;
 		if (!isForwardOnly) {
-			if (!notifyMessageObservers(message)) {
+			isNotified = notifyMessageObservers(message);
+			if (!isNotified) {
 				logger.warn("Ignore observer's wish to skip forwarding as we have received an invalid frame!");
 			}
 		}
 		message.forward(out);
+		
+		if (isNotified) {
+			notifyReadOnlyObservers(message);
+		}
+	}
+
+	/**
+	 * Forwards one frame without notifying observers, used for
+	 * {@link WebSocketProxy#isForwardOnly()} channels. Versions may override
+	 * it to stream the payload without creating a {@link WebSocketMessage}.
+	 * 
+	 * @param in Read bytes from here.
+	 * @param out Write frame to here, might be null.
+	 * @param frameHeader First byte of frame, containing FIN flag and opcode.
+	 * @throws IOException
+	 */
+	protected void passThroughFrame(InputStream in, OutputStream out, byte frameHeader) throws IOException {
+		createWebSocketMessage(in, frameHeader).forward(out);
 	}
 
 	/**
@@ -534,6 +607,42 @@ public abstract class WebSocketProxy {
 		return oppositeSocket;
 	}
 
+	/**
+	 * Deletes temporary payload files of messages, that will never be
+	 * finished.
+	 */
+	private void discardUnfinishedMessages() {
+		Iterator<WebSocketMessage> it = unfinishedMessages.values().iterator();
+		while (it.hasNext()) {
+			WebSocketMessage message = it.next();
+			it.remove();
+			WebSocketPayloadFile payloadFile = message.getPayloadFile();
+			if (payloadFile != null) {
+				payloadFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes, after which the payload of a fragmented
+	 * message is written to a {@link WebSocketPayloadFile} instead of being
+	 * kept in memory.
+	 * 
+	 * @return threshold in bytes or 0 if payloads are always kept in memory
+	 */
+	public int getSpillThreshold() {
+		return spillThreshold;
+	}
+
+	/**
+	 * @see WebSocketProxy#getSpillThreshold()
+	 * 
+	 * @param spillThreshold bytes or 0 to keep all payloads in memory
+	 */
+	public void setSpillThreshold(int spillThreshold) {
+		this.spillThreshold = Math.max(0, spillThreshold);
+	}
+
 	/**
 	 * If true, then no observer is called, resulting in immediate forwarding.
 	 * 
@@ -574,6 +683,10 @@ public abstract class WebSocketProxy {
 	 * Call each observer as long as no observer has told us to drop the message. Then
 	 * further notifications are skipped and false is returned.
 	 * <p>
+	 * {@link WebSocketReadOnlyObserver} instances are skipped, if there is a
+	 * dispatcher for them. They are notified via
+	 * {@link #notifyReadOnlyObservers(WebSocketMessage)} after forwarding.
+	 * <p>
 	 * Call this helper only when {@link WebSocketProxy#isForwardOnly} is set to
 	 * false.
 	 * 
@@ -581,37 +694,139 @@ public abstract class WebSocketProxy {
 	 * @return False if message should be dropped.
 	 */
 	protected boolean notifyMessageObservers(WebSocketMessage message) {
-		for (WebSocketObserver observer : observerList) {
-			try {
-			    if (!observer.onMessageFrame(channelId, message)) {
-			    	return false;
-			    }
-			} catch (Exception e) {
-				logger.warn(e.getMessage(), e);
+		boolean skipReadOnly = (readOnlyObserverQueue != null);
+		long start = System.nanoTime();
+		long observerStart = start;
+		try {
+			for (WebSocketObserver observer : observerList) {
+				if (skipReadOnly && observer instanceof WebSocketReadOnlyObserver) {
+					continue;
+				}
+				
+				try {
+				    if (!observer.onMessageFrame(channelId, message)) {
+				    	return false;
+				    }
+				} catch (Exception e) {
+					logger.warn(e.getMessage(), e);
+				} finally {
+					long observerEnd = System.nanoTime();
+					recordObserverLatency(observer, observerEnd - observerStart);
+					observerStart = observerEnd;
+				}
+			}
+			return true;
+		} finally {
+			WebSocketSessionMetrics currentSessionMetrics = sessionMetrics;
+			if (currentSessionMetrics != null) {
+				currentSessionMetrics.recordNotify(observerStart - start);
 			}
 		}
-		return true;
+	}
+
+	private void recordObserverLatency(WebSocketObserver observer, long nanos) {
+		WebSocketSessionMetrics currentSessionMetrics = sessionMetrics;
+		if (currentSessionMetrics != null) {
+			currentSessionMetrics.recordObserver(observer.getObservingOrder(), nanos);
+		}
+	}
+
+	/**
+	 * Enqueues the notification of {@link WebSocketReadOnlyObserver} instances
+	 * for given message, that was forwarded already. Does nothing if there is
+	 * no dispatcher, as they were notified before forwarding.
+	 * 
+	 * @param message
+	 */
+	protected void notifyReadOnlyObservers(final WebSocketMessage message) {
+		WebSocketObserverDispatcher.ChannelQueue queue = readOnlyObserverQueue;
+		if (queue == null || !message.isFinished()) {
+			return;
+		}
+		
+		queue.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				for (WebSocketObserver observer : observerList) {
+					if (!(observer instanceof WebSocketReadOnlyObserver)) {
+						continue;
+					}
+					
+					long observerStart = System.nanoTime();
+					try {
+						observer.onMessageFrame(channelId, message);
+					} catch (Exception e) {
+						logger.warn(e.getMessage(), e);
+					} finally {
+						recordObserverLatency(observer, System.nanoTime() - observerStart);
+					}
+				}
+			}
+		});
 	}
 
 	/**
 	 * Helper to inform about new {@link WebSocketProxy#state}. Also called when
 	 * a former {@link WebSocketProxy#isForwardOnly} channel is no longer
 	 * blacklisted {@link State#INCLUDED} or vice-versa {@link State#EXCLUDED}.
+	 * <p>
+	 * {@link WebSocketReadOnlyObserver} instances are informed via the
+	 * dispatcher if there is one, such that they get the state change in order
+	 * with the messages.
 	 */
-	protected void notifyStateObservers(State state) {
+	protected void notifyStateObservers(final State state) {
+		WebSocketObserverDispatcher.ChannelQueue queue = readOnlyObserverQueue;
 		for (WebSocketObserver observer : observerList) {
-			observer.onStateChange(state, this);
+			if (queue == null || !(observer instanceof WebSocketReadOnlyObserver)) {
+				observer.onStateChange(state, this);
+			}
+		}
+		
+		if (queue != null) {
+			queue.execute(new Runnable() {
+				
+				@Override
+				public void run() {
+					for (WebSocketObserver observer : observerList) {
+						if (observer instanceof WebSocketReadOnlyObserver) {
+							try {
+								observer.onStateChange(state, WebSocketProxy.this);
+							} catch (Exception e) {
+								logger.warn(e.getMessage(), e);
+							}
+						}
+					}
+				}
+			});
 		}
 	}
 	
+	/**
+	 * Notify {@link WebSocketReadOnlyObserver} instances after forwarding with
+	 * threads of given dispatcher. Call it before the listeners are started.
+	 * 
+	 * @param dispatcher Provide null to notify them like all other observers.
+	 */
+	public void setObserverDispatcher(WebSocketObserverDispatcher dispatcher) {
+		readOnlyObserverQueue = (dispatcher != null) ? dispatcher.createChannelQueue() : null;
+	}
+	
 	/**
 	 * Add observer that gets informed about in- & outgoing messages.
 	 * 
 	 * @param observer
 	 */
 	public void addObserver(WebSocketObserver observer) {
-		observerList.add(observer);
-		Collections.sort(observerList, getObserversComparator());
+		Comparator<WebSocketObserver> comparator = getObserversComparator();
+		synchronized (observerList) {
+			// insert after observers with the same order, as a stable sort would
+			int index = observerList.size();
+			while (index > 0 && comparator.compare(observerList.get(index - 1), observer) > 0) {
+				index--;
+			}
+			observerList.add(index, observer);
+		}
 	}
 	
 	/**
@@ -661,6 +876,22 @@ public abstract class WebSocketProxy {
 		return channelId;
 	}
 	
+	/**
+	 * @return traffic counters of this channel
+	 */
+	public WebSocketChannelMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Records the time spent in observers of this channel in given metrics.
+	 * 
+	 * @param sessionMetrics Provide null to stop recording.
+	 */
+	public void setSessionMetrics(WebSocketSessionMetrics sessionMetrics) {
+		this.sessionMetrics = sessionMetrics;
+	}
+	
 	public int getIncrementedMessageCount() {
 		return messageIdGenerator.incrementAndGet();
 	}
@@ -669,8 +900,26 @@ public abstract class WebSocketProxy {
 		return handshakeReference;
 	}
 	
+	/**
+	 * Sets the link to the handshake message. If the channel was opened
+	 * already, observers are informed about {@link State#UPDATED}, such that
+	 * they can update the channel (e.g. its stored history id).
+	 * 
+	 * @param handshakeReference
+	 */
 	public void setHandshakeReference(HistoryReference handshakeReference) {
 		this.handshakeReference = handshakeReference;
+		
+		if (state != null && state != State.CONNECTING && !isForwardOnly) {
+			notifyStateObservers(State.UPDATED);
+		}
+	}
+	
+	/**
+	 * @param handshakeUrl URL of the handshake request
+	 */
+	public void setHandshakeUrl(String handshakeUrl) {
+		this.handshakeUrl = handshakeUrl;
 	}
 
 	public WebSocketChannelDTO getDTO() {
@@ -682,7 +931,9 @@ public abstract class WebSocketProxy {
 		dto.endTimestamp = (end != null) ? end.getTime() : null;
 		
 		HistoryReference handshakeRef = getHandshakeReference();
-		if (handshakeRef != null) {
+		if (handshakeUrl != null) {
+			dto.url = handshakeUrl;
+		} else if (handshakeRef != null) {
 			try {
 				dto.url = handshakeRef.getHttpMessage().getRequestHeader().getURI().toString();
 			} catch (HttpMalformedHeaderException e) {
@@ -692,11 +943,10 @@ public abstract class WebSocketProxy {
 				dto.url = "";
 				logger.error("HttpMessage for WebSockets-handshake not found!");
 			}
-			dto.historyId = handshakeRef.getHistoryId();
 		} else {
 			dto.url = "";
-			dto.historyId = null;
 		}
+		dto.historyId = (handshakeRef != null) ? handshakeRef.getHistoryId() : null;
 		
 		return dto;
 	}
@@ -728,7 +978,9 @@ public abstract class WebSocketProxy {
 		}
 	
 		if (message.forward(out)) {
-			notifyMessageObservers(message);
+			if (notifyMessageObservers(message)) {
+				notifyReadOnlyObservers(message);
+			}
 		}
 	}
 
@@ -17,6 +17,7 @@
  */
 package org.zaproxy.zap.extension.websocket;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -29,7 +30,6 @@ import java.util.Calendar;
 import java.util.List;
 import java.util.Random;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 import org.zaproxy.zap.extension.websocket.utility.InvalidUtf8Exception;
 import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
@@ -51,6 +51,18 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 	 */
 	private static final int PAYLOAD_MAX_FRAME_LENGTH = Integer.MAX_VALUE;
 
+	/**
+	 * Buffer used to pass through frames of forward-only channels. One per
+	 * thread, as each listener reads sequentially.
+	 */
+	private static final ThreadLocal<byte[]> passThroughBuffer = new ThreadLocal<byte[]>() {
+
+		@Override
+		protected byte[] initialValue() {
+			return new byte[8192];
+		}
+	};
+
 	/**
 	 * @see WebSocketProxy#WebSocketProxy(Socket, Socket)
 	 */
@@ -71,6 +83,82 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		return new WebSocketMessageV13(this, message);
 	}
 
+	/**
+	 * Parses the frame header only and streams the payload in chunks to the
+	 * opposite side. The payload is neither unmasked nor copied into a
+	 * {@link WebSocketMessage}.
+	 * 
+	 * @see WebSocketProxy#passThroughFrame(InputStream, OutputStream, byte)
+	 */
+	@Override
+	protected void passThroughFrame(InputStream in, OutputStream out, byte frameHeader) throws IOException {
+		byte[] buffer = passThroughBuffer.get();
+		buffer[0] = frameHeader;
+		readFully(in, buffer, 1, 1);
+
+		boolean isMasked = (buffer[1] & 0x80) != 0;
+		int lengthBits = buffer[1] & 0x7F;
+		int extendedLengthBytes = 0;
+		if (lengthBits == WebSocketMessageV13.PAYLOAD_LENGTH_16) {
+			extendedLengthBytes = 2;
+		} else if (lengthBits == WebSocketMessageV13.PAYLOAD_LENGTH_63) {
+			extendedLengthBytes = 8;
+		}
+		int headerLength = 2 + extendedLengthBytes + (isMasked ? 4 : 0);
+		readFully(in, buffer, 2, headerLength - 2);
+
+		long payloadLength = lengthBits;
+		if (extendedLengthBytes > 0) {
+			payloadLength = 0;
+			for (int i = 0; i < extendedLengthBytes; i++) {
+				payloadLength = (payloadLength << 8) | (buffer[2 + i] & 0xFF);
+			}
+		}
+		if (payloadLength < 0) {
+			throw new WebSocketException("Invalid payload length for frame (most significant bit must be zero).");
+		}
+		// only frames of clients are masked
+		getMetrics().recordFrame(isMasked, payloadLength);
+
+		if (out == null) {
+			// nobody to forward to, just consume the frame
+			copyPayload(in, null, buffer, payloadLength);
+			return;
+		}
+
+		// frames must not be interleaved with frames sent via sendAndNotify()
+		synchronized (out) {
+			out.write(buffer, 0, headerLength);
+			copyPayload(in, out, buffer, payloadLength);
+			out.flush();
+		}
+	}
+
+	private static void copyPayload(InputStream in, OutputStream out, byte[] buffer, long length) throws IOException {
+		long remaining = length;
+		while (remaining > 0) {
+			int bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (bytesRead == -1) {
+				throw new EOFException("Stream closed in the middle of a frame.");
+			}
+			if (out != null) {
+				out.write(buffer, 0, bytesRead);
+			}
+			remaining -= bytesRead;
+		}
+	}
+
+	private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+		int bytesRead = 0;
+		while (bytesRead < length) {
+			int count = in.read(buffer, offset + bytesRead, length - bytesRead);
+			if (count == -1) {
+				throw new EOFException("Stream closed in the middle of a frame header.");
+			}
+			bytesRead += count;
+		}
+	}
+
 	/**
 	 * Version 13 specific WebSockets message.
 	 */
@@ -102,7 +190,7 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			private int rsv;
 			
 			public WebSocketFrameV13() {
-				buffer = ByteBuffer.allocate(4096);
+				buffer = FrameBufferPool.get().acquire(FrameBufferPool.MIN_BUFFER_SIZE);
 				isMasked = false;
 				mask = new byte[4];
 				isForwarded = false;
@@ -117,7 +205,7 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			 */
 			public WebSocketFrameV13(ByteBuffer payload, Direction direction, boolean isFinished, int frameOpcode, int rsv) {
 				// at maximum 16 bytes are added as header data
-				buffer = ByteBuffer.allocate(payload.limit() + 16);
+				buffer = FrameBufferPool.get().acquire(payload.limit() + 16);
 				this.rsv = rsv;
 
 				int payloadLength = payload.limit();
@@ -160,7 +248,7 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 					buffer.put(mask);
 				}
 				
-				buffer.put(payload.array());
+				buffer.put(payload.array(), 0, payloadLength);
 				
 				seal();
 			}
@@ -172,11 +260,39 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 				buffer.put(b);
 			}
 
-			public void put(byte[] b) throws WebSocketException {
+			/**
+			 * Reads given number of bytes from the stream directly into this
+			 * frame, growing the buffer if required.
+			 * 
+			 * @param in
+			 * @param length
+			 * @return offset of the first byte read
+			 * @throws IOException
+			 */
+			public int read(InputStream in, int length) throws IOException {
 				if (isSealed) {
 					throw new WebSocketException("You cannot change a 'sealed' frame.");
 				}
-				buffer.put(b);
+				if (getFreeSpace() < length) {
+					reallocateFor(length);
+				}
+
+				int offset = buffer.position();
+				byte[] array = buffer.array();
+				int bytesRead = 0;
+				while (bytesRead < length) {
+					int count = in.read(array, buffer.arrayOffset() + offset + bytesRead, length - bytesRead);
+					if (count == -1) {
+						throw new EOFException("Stream closed in the middle of a frame.");
+					}
+					bytesRead += count;
+				}
+				buffer.position(offset + length);
+				return offset;
+			}
+
+			public byte get(int index) {
+				return buffer.get(index);
 			}
 
 			public void setMasked(boolean isMasked) {
@@ -187,14 +303,36 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 				return isMasked;
 			}
 
-			public void setMask(byte[] read) {
-				mask = read;
+			public void setMask(int offset) {
+				for (int i = 0; i < mask.length; i++) {
+					mask[i] = buffer.get(offset + i);
+				}
 			}
 
 			public byte getMaskAt(int index) {
 				return mask[index];
 			}
 
+			/**
+			 * Copies given range of this frame and unmasks it, if this frame is
+			 * masked.
+			 * 
+			 * @param offset
+			 * @param length
+			 * @return unmasked copy
+			 */
+			public byte[] getUnmasked(int offset, int length) {
+				byte[] result = new byte[length];
+				System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, result, 0, length);
+				if (isMasked) {
+					for (int i = 0; i < length; i++) {
+						// unmask payload by XOR it continuously with frame mask
+						result[i] = (byte) (result[i] ^ mask[i & 0x3]);
+					}
+				}
+				return result;
+			}
+
 			public int getFreeSpace() {
 				if (isSealed) {
 					return 0;
@@ -206,7 +344,11 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 				if (isSealed) {
 					throw new WebSocketException("You cannot change size of 'sealed' frame's buffer.");
 				}
-				buffer = reallocate(buffer, buffer.position() + bytesRead);
+				ByteBuffer newBuffer = FrameBufferPool.get().acquire(buffer.position() + bytesRead);
+				buffer.flip();
+				newBuffer.put(buffer);
+				FrameBufferPool.get().release(buffer);
+				buffer = newBuffer;
 			}
 			
 			public boolean isForwarded() {
@@ -220,13 +362,31 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 				}
 			}
 
-			public byte[] getBuffer() throws WebSocketException {
+			/**
+			 * Writes the whole frame to given stream, without copying it.
+			 * 
+			 * @param out
+			 * @throws IOException
+			 */
+			public void writeTo(OutputStream out) throws IOException {
 				if (!isSealed) {
-					throw new WebSocketException("You should call seal() on WebSocketFrame first, before getBuffer().");
+					throw new WebSocketException("You should call seal() on WebSocketFrame first, before writeTo().");
+				}
+				if (buffer == null) {
+					throw new WebSocketException("Buffer of frame was already released.");
+				}
+				out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+			}
+
+			/**
+			 * Hands back the buffer to the {@link FrameBufferPool}. Afterwards
+			 * the frame cannot be written anymore.
+			 */
+			public void release() {
+				if (buffer != null) {
+					FrameBufferPool.get().release(buffer);
+					buffer = null;
 				}
-				byte[] result = new byte[buffer.limit()];
-				buffer.get(result);
-				return result;
 			}
 
 			public void setForwarded(boolean isForwarded) {
@@ -329,10 +489,21 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			direction = message.isOutgoing ? Direction.OUTGOING : Direction.INCOMING;
 			
 			payload = ByteBuffer.allocate(0);
-			if (message.payload instanceof byte[]) {
-				setPayload((byte[])message.payload);
+			WebSocketPayloadFile messagePayloadFile = message.getPayloadFile();
+			if (messagePayloadFile != null) {
+				// the DTO just offers a view, whereas the whole payload is sent
+				try {
+					setPayload(messagePayloadFile.getBytes(-1));
+				} catch (IOException e) {
+					throw new WebSocketException("Could not read payload of message " + message.toString(), e);
+				}
 			} else {
-				setReadablePayload((String)message.payload);
+				Object messagePayload = message.getPayload();
+				if (messagePayload instanceof byte[]) {
+					setPayload((byte[]) messagePayload);
+				} else {
+					setReadablePayload((String) messagePayload);
+				}
 			}
 		}
 
@@ -381,7 +552,7 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			
 			currentFrame.setRsv((frameHeader >> 4 & 0x7));
 
-			byte payloadByte = read(in);
+			byte payloadByte = currentFrame.get(currentFrame.read(in, 1));
 			
 			// most significant bit of second byte is MASK flag
 			currentFrame.setMasked((payloadByte >> 7 & 0x1) == 1);
@@ -391,19 +562,13 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 
 			if (currentFrame.isMasked()) {
 				// read 4 bytes mask
-				currentFrame.setMask(read(in, 4));
+				currentFrame.setMask(currentFrame.read(in, 4));
 			}
 
-			byte[] payload = read(in, payloadLength);
-
-			if (currentFrame.isMasked()) {
-				int currentMaskByteIndex = 0;
-				for (int i = 0; i < payload.length; i++) {
-					// unmask payload by XOR it continuously with frame mask
-					payload[i] = (byte) (payload[i] ^ currentFrame.getMaskAt(currentMaskByteIndex));
-					currentMaskByteIndex = (currentMaskByteIndex + 1) % 4;
-				}
-			}
+			// raw payload stays in frame for forwarding, message gets unmasked copy
+			int payloadOffset = currentFrame.read(in, payloadLength);
+			byte[] payload = currentFrame.getUnmasked(payloadOffset, payloadLength);
+			getMetrics().recordFrame(currentFrame.isMasked(), payloadLength);
 			
 			if (isText(opcode)) {
 				logger.info("got text frame payload");
@@ -467,11 +632,11 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 					bytesToRetrieve = 8;
 				}
 
-				byte[] extendedPayloadLength = read(in, bytesToRetrieve);
+				int offset = currentFrame.read(in, bytesToRetrieve);
 
 				length = 0;
 				for (int i = 0; i < bytesToRetrieve; i++) {
-					byte extendedPayload = extendedPayloadLength[i];
+					byte extendedPayload = currentFrame.get(offset + i);
 					
 					// shift previous bits left and add next byte
 					length = (length << 8) | (extendedPayload & 0xFF);
@@ -530,59 +695,18 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			
 			int newCloseCode = Integer.parseInt(closeCodePayload);
 			
-			byte[] newCloseCodeByte = new byte[2];
-			newCloseCodeByte[0] = (byte) ((newCloseCode >> 8) & 0xFF);
-			newCloseCodeByte[1] = (byte) ((newCloseCode) & 0xFF);
-			
+			// status code (network byte order) followed by the reason
 			ByteBuffer newPayload = ByteBuffer.allocate(payload.limit() - 2);
+			newPayload.put((byte) ((newCloseCode >> 8) & 0xFF));
+			newPayload.put((byte) ((newCloseCode) & 0xFF));
 			if (payload.limit() > 4) {
-				newPayload.put(ArrayUtils.subarray(payload.array(), 4, payload.limit()), 2, payload.limit() - 4);
+				newPayload.put(payload.array(), 4, payload.limit() - 4);
 			}
-			newPayload.put(newCloseCodeByte, 0, 2);
+			newPayload.flip();
 			
 			return newPayload;
 		}
 
-		/**
-		 * Read only one byte from input stream.
-		 * 
-		 * @param in
-		 * @return
-		 * @throws IOException
-		 */
-		private byte read(InputStream in) throws IOException {
-			byte[] buffer = read(in, 1);
-			return buffer[0];
-		}
-
-		/**
-		 * Reads given length from the given stream.
-		 * 
-		 * @param in {@link InputStream} to read from.
-		 * @param length Determines how much bytes should be read from the given stream.
-		 * @return Bytes read from stream - blocks until given length is read!
-		 * @throws IOException
-		 */
-		private byte[] read(InputStream in, int length) throws IOException {
-			byte[] buffer = new byte[length];
-			
-			// read until buffer is full 
-			int bytesRead = 0;
-			do {
-				bytesRead += in.read(buffer, bytesRead, length - bytesRead);
-			} while (length != bytesRead);
-			
-			// maybe we have to increase the size of the current frame buffer
-			if (currentFrame.getFreeSpace() < bytesRead) {
-				currentFrame.reallocateFor(bytesRead);
-			}
-
-			// add bytes to current frame
-			currentFrame.put(buffer);
-			
-			return buffer;
-		}
-
 	    /**
 	     * @see WebSocketMessage#forward(OutputStream)
 	     */
@@ -628,6 +752,11 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 					// allowed by RFC6455 (control frames aren't allowed to
 					// exceed one frame)
 				} while (!isLastFrame);
+				
+				// received frames were replaced by the modified ones
+				for (WebSocketFrameV13 frame : receivedFrames) {
+					frame.release();
+				}
 			} else {
 				for (WebSocketFrameV13 frame : receivedFrames) {
 					// forward frame by frame
@@ -649,11 +778,12 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		 */
 		private void forwardFrame(WebSocketFrameV13 frame, OutputStream out) throws IOException {
 			synchronized (out) {
-				out.write(frame.getBuffer());
+				frame.writeTo(out);
 				out.flush();
 			}
 			
 			frame.setForwarded(true);
+			frame.release();
 		}
 		
 		@Override
@@ -661,6 +791,14 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			if (!isFinished) {
 				return new byte[0];
 			}
+			if (payloadFile != null) {
+				try {
+					return payloadFile.getBytes(WebSocketPayloadFile.MAX_VIEW_LENGTH);
+				} catch (IOException e) {
+					logger.warn("Could not read payload of message #" + getMessageId() + ": " + e.getMessage(), e);
+					return new byte[0];
+				}
+			}
 			payload.rewind();
 			byte[] bytes = new byte[payload.limit()];
 			payload.get(bytes);
@@ -673,14 +811,20 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 				throw new WebSocketException("Only allowed to set payload of finished message!");
 			}
 			
-			if (!Arrays.equals(newPayload, getPayload())) {
+			// payload of a file can not be compared with its view
+			if (payloadFile != null || !Arrays.equals(newPayload, getPayload())) {
 				hasChanged = true;
 				payload = ByteBuffer.wrap(newPayload);
+				payloadFile = null;
 			}
 		}
 
 		@Override
 		public Integer getPayloadLength() {
+			if (payloadFile != null) {
+				return (int) Math.min(Integer.MAX_VALUE, payloadFile.length());
+			}
+			
 			int length = payload.limit();
 			
 			if (opcode == OPCODE_CLOSE) {
@@ -696,6 +840,11 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		public String getReadablePayload() {
 			try {
 				isValidUtf8Payload = true;
+				if (payloadFile != null) {
+					// do not cut a character of the view
+					byte[] bytes = getPayload();
+					return Utf8Util.encodePayloadToUtf8(bytes, 0, Utf8Util.getCompleteLength(bytes, bytes.length));
+				}
 				return Utf8Util.encodePayloadToUtf8(payload.array(), 0, payload.limit());
 			} catch (InvalidUtf8Exception e) {
 				isValidUtf8Payload  = false;
@@ -712,11 +861,13 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			String readablePayload = getReadablePayload();
 			byte[] newBytesPayload = Utf8Util.decodePayloadFromUtf8(newReadablePayload);
 			// compare readable strings (working on byte arrays did not work)
-			if (isValidUtf8Payload && !Arrays.equals(newBytesPayload, Utf8Util.decodePayloadFromUtf8(readablePayload))) {
+			if (isValidUtf8Payload && (payloadFile != null
+					|| !Arrays.equals(newBytesPayload, Utf8Util.decodePayloadFromUtf8(readablePayload)))) {
 				// mark this message as changed in order to propagate changed
 				// payload into frames or build up a big frame (see forward())
 				hasChanged = true;
 				payload = ByteBuffer.wrap(newBytesPayload);
+				payloadFile = null;
 			}
 		}
 
@@ -0,0 +1,43 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+/**
+ * Marks a {@link WebSocketObserver} that only reads messages, e.g. to store or
+ * to display them. It never modifies a message, never blocks for long and
+ * never drops a message.
+ * <p>
+ * When the channel has got a {@link WebSocketObserverDispatcher} (see
+ * {@link WebSocketProxy#setObserverDispatcher(WebSocketObserverDispatcher)}),
+ * such observers are not called on the listener thread before forwarding, but
+ * afterwards on one of the dispatcher's threads. Notifications of one channel
+ * (messages and state changes) are still delivered in order. Then:
+ * <ul>
+ * <li>only finished messages are delivered, as unfinished messages are still
+ * changed by further frames,</li>
+ * <li>the return value of
+ * {@link WebSocketObserver#onMessageFrame(int, WebSocketMessage)} is ignored,
+ * as the message was forwarded already,</li>
+ * <li>messages dropped by some other observer are not delivered.</li>
+ * </ul>
+ * Without dispatcher, they are called like any other observer.
+ * </p>
+ */
+public interface WebSocketReadOnlyObserver extends WebSocketObserver {
+
+}
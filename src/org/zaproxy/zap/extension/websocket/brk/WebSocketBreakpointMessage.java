@@ -133,8 +133,9 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 	        }
 	        
 	        if (payloadPattern != null) {
-	        	if (msg.payload instanceof String) {
-		        	Matcher m = payloadPattern.matcher((String) msg.payload);
+	        	Object payload = msg.getPayload();
+	        	if (payload instanceof String) {
+		        	Matcher m = payloadPattern.matcher((String) payload);
 		        	if (!m.find()) {
 		        		// when m.matches() is used, the whole string has to match
 			        	return false;
@@ -17,8 +17,11 @@
  */
 package org.zaproxy.zap.extension.websocket.brk;
 
+import java.util.List;
+
 import org.zaproxy.zap.extension.brk.BreakPanel;
 import org.zaproxy.zap.extension.brk.BreakpointMessageHandler;
+import org.zaproxy.zap.extension.brk.BreakpointMessageInterface;
 import org.zaproxy.zap.extension.httppanel.Message;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
@@ -32,6 +35,12 @@ public class WebSocketBreakpointMessageHandler extends BreakpointMessageHandler
 
 	private OptionsParamWebSocket config;
 
+	/**
+	 * Enabled breakpoints compiled into one matcher, replaced when they
+	 * change.
+	 */
+	private volatile WebSocketBreakpointsMatcher breakpointsMatcher;
+
 	public WebSocketBreakpointMessageHandler(BreakPanel aBreakPanel, OptionsParamWebSocket config) {
 		super(aBreakPanel);
 		this.config = config;
@@ -82,6 +91,34 @@ public class WebSocketBreakpointMessageHandler extends BreakpointMessageHandler
 		return false;
 	}
 	
+	/**
+	 * Evaluates all enabled breakpoints with one compiled
+	 * {@link WebSocketBreakpointsMatcher}, instead of matching each
+	 * breakpoint's payload pattern against the whole payload.
+	 * 
+	 * @param aMessage
+	 * @param isRequest
+	 * @param onlyIfInScope
+	 * @return True if at least one enabled breakpoint matches.
+	 */
+	@Override
+	protected boolean isBreakOnEnabledBreakpoint(Message aMessage, boolean isRequest, boolean onlyIfInScope) {
+		List<BreakpointMessageInterface> breakpoints = getEnabledBreakpoints();
+		if (breakpoints == null || breakpoints.isEmpty()) {
+			return false;
+		}
+
+		WebSocketBreakpointsMatcher matcher;
+		synchronized (breakpoints) {
+			matcher = breakpointsMatcher;
+			if (matcher == null || !matcher.isCompiledFrom(breakpoints)) {
+				matcher = new WebSocketBreakpointsMatcher(breakpoints);
+				breakpointsMatcher = matcher;
+			}
+		}
+		return matcher.match(aMessage, isRequest, onlyIfInScope);
+	}
+	
 	/**
 	 * Helper that determines if breakpoint should be applied for 'All
 	 * Requests/Responses' on this {@link WebSocketMessageDTO}.
@@ -0,0 +1,517 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.brk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.zaproxy.zap.extension.brk.BreakpointMessageInterface;
+import org.zaproxy.zap.extension.httppanel.Message;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.utility.AhoCorasickMatcher;
+
+/**
+ * Evaluates a set of enabled breakpoints at once, such that the cost per
+ * message does not grow with each payload breakpoint.
+ * <p>
+ * Opcode, channel and direction conditions of all
+ * {@link WebSocketBreakpointMessage}s are checked first by the help of bit
+ * masks. Payload patterns are only run if the literal, that each of their
+ * matches has to contain, was found in the payload. All literals are searched
+ * for with one pass of an {@link AhoCorasickMatcher}. Patterns, that are a
+ * plain literal, are not run at all.
+ * <p>
+ * Instances are immutable. Create a new one whenever the breakpoints change
+ * (see {@link #isCompiledFrom(List)}).
+ */
+class WebSocketBreakpointsMatcher {
+
+	private static final int MAX_OPCODE = 0xF;
+
+	private static final int DIRECTION_OUTGOING = 1;
+	private static final int DIRECTION_INCOMING = 2;
+
+	/**
+	 * Breakpoints this matcher was compiled from, to detect changes.
+	 */
+	private final BreakpointMessageInterface[] source;
+
+	/**
+	 * WebSocket breakpoints, those without payload condition come first.
+	 */
+	private final Entry[] entries;
+
+	/**
+	 * Other types of breakpoints, evaluated one after the other.
+	 */
+	private final BreakpointMessageInterface[] others;
+
+	/**
+	 * Searches for the required literals of payload patterns, null if there
+	 * are none.
+	 */
+	private final AhoCorasickMatcher literalMatcher;
+
+	/**
+	 * @param breakpoints enabled breakpoints, must not be changed while
+	 *            compiling
+	 */
+	public WebSocketBreakpointsMatcher(List<BreakpointMessageInterface> breakpoints) {
+		source = breakpoints.toArray(new BreakpointMessageInterface[breakpoints.size()]);
+
+		List<Entry> withoutPayload = new ArrayList<>();
+		List<Entry> withPayload = new ArrayList<>();
+		List<BreakpointMessageInterface> otherBreakpoints = new ArrayList<>();
+		Map<String, Integer> literalIds = new HashMap<>();
+		List<String> literals = new ArrayList<>();
+
+		for (BreakpointMessageInterface breakpoint : source) {
+			if (!(breakpoint instanceof WebSocketBreakpointMessage)) {
+				otherBreakpoints.add(breakpoint);
+				continue;
+			}
+
+			WebSocketBreakpointMessage wsBreakpoint = (WebSocketBreakpointMessage) breakpoint;
+			String regex = wsBreakpoint.getPayloadPattern();
+			if (regex == null) {
+				withoutPayload.add(new Entry(wsBreakpoint, null, false, -1));
+				continue;
+			}
+
+			int literalId = -1;
+			boolean isLiteral = false;
+			RequiredLiteral literal = getRequiredLiteral(regex);
+			if (literal != null) {
+				Integer id = literalIds.get(literal.value);
+				if (id == null) {
+					id = Integer.valueOf(literals.size());
+					literals.add(literal.value);
+					literalIds.put(literal.value, id);
+				}
+				literalId = id.intValue();
+				isLiteral = literal.isWholePattern;
+			}
+			withPayload.add(new Entry(wsBreakpoint, regex, isLiteral, literalId));
+		}
+
+		withoutPayload.addAll(withPayload);
+		entries = withoutPayload.toArray(new Entry[withoutPayload.size()]);
+		others = otherBreakpoints.toArray(new BreakpointMessageInterface[otherBreakpoints.size()]);
+		literalMatcher = literals.isEmpty() ? null : new AhoCorasickMatcher(literals);
+	}
+
+	/**
+	 * Core mutates the list of enabled breakpoints in place, hence the
+	 * elements are compared by identity (edited breakpoints are replaced by
+	 * new instances).
+	 * 
+	 * @param breakpoints
+	 * @return True if given breakpoints are the same this matcher was
+	 *         compiled from.
+	 */
+	public boolean isCompiledFrom(List<BreakpointMessageInterface> breakpoints) {
+		if (breakpoints.size() != source.length) {
+			return false;
+		}
+		int i = 0;
+		for (BreakpointMessageInterface breakpoint : breakpoints) {
+			if (breakpoint != source[i++]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same result as calling
+	 * {@link BreakpointMessageInterface#match(Message, boolean, boolean)} on
+	 * each breakpoint until one matches.
+	 * 
+	 * @param aMessage
+	 * @param isRequest
+	 * @param onlyIfInScope
+	 * @return True if at least one breakpoint matches.
+	 */
+	public boolean match(Message aMessage, boolean isRequest, boolean onlyIfInScope) {
+		if (aMessage instanceof WebSocketMessageDTO && entries.length > 0) {
+			if (matchWebSocket((WebSocketMessageDTO) aMessage)) {
+				return true;
+			}
+		}
+
+		for (BreakpointMessageInterface breakpoint : others) {
+			if (breakpoint.match(aMessage, isRequest, onlyIfInScope)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean matchWebSocket(WebSocketMessageDTO msg) {
+		int opcodeBit = getOpcodeBit(msg.opcode);
+		int directionBit = (msg.isOutgoing) ? DIRECTION_OUTGOING : DIRECTION_INCOMING;
+
+		String payload = null;
+		boolean[] foundLiterals = null;
+
+		for (Entry entry : entries) {
+			if ((entry.opcodeMask & opcodeBit) == 0 || (entry.directionMask & directionBit) == 0) {
+				continue;
+			}
+			if (entry.channelId != null && !entry.channelId.equals(msg.channel.id)) {
+				continue;
+			}
+			if (entry.regex == null) {
+				return true;
+			}
+
+			if (payload == null) {
+				Object value = msg.getPayload();
+				if (!(value instanceof String)) {
+					// binary messages are not affected by patterns
+					return false;
+				}
+				payload = (String) value;
+			}
+
+			if (entry.literalId != -1) {
+				if (foundLiterals == null) {
+					foundLiterals = new boolean[literalMatcher.getLiteralCount()];
+					literalMatcher.findAll(payload, foundLiterals);
+				}
+				if (!foundLiterals[entry.literalId]) {
+					continue;
+				}
+				if (entry.pattern == null) {
+					return true;
+				}
+			}
+
+			if (entry.pattern.matcher(payload).find()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int getOpcodeBit(Integer opcode) {
+		if (opcode == null || opcode.intValue() < 0 || opcode.intValue() > MAX_OPCODE) {
+			return 0;
+		}
+		return 1 << opcode.intValue();
+	}
+
+	/**
+	 * Compiled conditions of one {@link WebSocketBreakpointMessage}.
+	 */
+	private static class Entry {
+
+		private final int opcodeMask;
+
+		private final Integer channelId;
+
+		private final int directionMask;
+
+		/**
+		 * Payload pattern, null if there is no payload condition.
+		 */
+		private final String regex;
+
+		/**
+		 * Null if there is no payload condition or if the pattern is a plain
+		 * literal.
+		 */
+		private final Pattern pattern;
+
+		/**
+		 * Index of the required literal in the {@link AhoCorasickMatcher} or
+		 * -1 if the pattern has none.
+		 */
+		private final int literalId;
+
+		public Entry(WebSocketBreakpointMessage breakpoint, String regex, boolean isLiteral, int literalId) {
+			String opcode = breakpoint.getOpcode();
+			int mask = 0;
+			for (int i = 0; i <= MAX_OPCODE; i++) {
+				if (opcode == null || opcode.equals(WebSocketMessage.opcode2string(i))) {
+					mask |= 1 << i;
+				}
+			}
+			this.opcodeMask = mask;
+
+			this.channelId = breakpoint.getChannelId();
+
+			Direction direction = breakpoint.getDirection();
+			if (direction == null) {
+				directionMask = DIRECTION_OUTGOING | DIRECTION_INCOMING;
+			} else if (direction.equals(Direction.OUTGOING)) {
+				directionMask = DIRECTION_OUTGOING;
+			} else {
+				directionMask = DIRECTION_INCOMING;
+			}
+
+			this.regex = regex;
+			this.pattern = (regex == null || isLiteral) ? null : Pattern.compile(regex, Pattern.MULTILINE);
+			this.literalId = literalId;
+		}
+	}
+
+	/**
+	 * Longest sequence of characters, that each match of a pattern contains.
+	 */
+	static class RequiredLiteral {
+
+		final String value;
+
+		/**
+		 * True if the pattern matches nothing but the literal.
+		 */
+		final boolean isWholePattern;
+
+		RequiredLiteral(String value, boolean isWholePattern) {
+			this.value = value;
+			this.isWholePattern = isWholePattern;
+		}
+	}
+
+	/**
+	 * Extracts the longest run of characters, that any match of given pattern
+	 * contains. The analysis is conservative: patterns with alternations,
+	 * inline flags, quotes and other constructs, that are hard to reason
+	 * about, have no required literal. Groups and character classes end a run
+	 * and are not looked into.
+	 * 
+	 * @param regex valid pattern, compiled without flags except
+	 *            {@link Pattern#MULTILINE}
+	 * @return required literal or null if none was found
+	 */
+	static RequiredLiteral getRequiredLiteral(String regex) {
+		for (int j = 0; j < regex.length(); j++) {
+			if (Character.isSurrogate(regex.charAt(j))) {
+				// quantifiers apply to whole code points
+				return null;
+			}
+		}
+
+		StringBuilder run = new StringBuilder();
+		String longest = "";
+		boolean isPlain = true;
+		int length = regex.length();
+		int i = 0;
+
+		while (i < length) {
+			char c = regex.charAt(i);
+			Character literal = null;
+			int next;
+
+			switch (c) {
+			case '\\':
+				if (i + 1 >= length) {
+					return null;
+				}
+				char escaped = regex.charAt(i + 1);
+				next = i + 2;
+				if (escaped == 't') {
+					literal = '\t';
+				} else if (escaped == 'n') {
+					literal = '\n';
+				} else if (escaped == 'r') {
+					literal = '\r';
+				} else if (escaped == 'f') {
+					literal = '\f';
+				} else if ("xuQcpPkN".indexOf(escaped) != -1 || Character.isDigit(escaped)) {
+					// hex, unicode, quotes, properties and back references
+					return null;
+				} else if (!Character.isLetter(escaped)) {
+					literal = escaped;
+				}
+				// other letters are character classes or boundaries
+				break;
+			case '(':
+				next = skipGroup(regex, i);
+				break;
+			case '[':
+				next = skipClass(regex, i);
+				break;
+			case '|':
+			case ')':
+			case '{':
+			case '?':
+			case '*':
+			case '+':
+				// alternations and dangling quantifiers
+				return null;
+			case '.':
+			case '^':
+			case '$':
+				next = i + 1;
+				break;
+			default:
+				literal = c;
+				next = i + 1;
+				break;
+			}
+
+			if (next == -1) {
+				return null;
+			}
+
+			int afterQuantifier = skipQuantifier(regex, next);
+			boolean isQuantified = afterQuantifier != next;
+
+			if (literal != null && (!isQuantified || regex.charAt(next) == '+')) {
+				// one or more times still requires the character once
+				run.append(literal.charValue());
+			} else {
+				isPlain = false;
+			}
+
+			if (literal == null || isQuantified) {
+				if (run.length() > longest.length()) {
+					longest = run.toString();
+				}
+				run.setLength(0);
+				isPlain = false;
+			}
+
+			i = afterQuantifier;
+		}
+
+		if (run.length() > longest.length()) {
+			longest = run.toString();
+		}
+		if (longest.isEmpty()) {
+			return null;
+		}
+		return new RequiredLiteral(longest, isPlain);
+	}
+
+	/**
+	 * @return index after the group starting at given index or -1 if it has
+	 *         no end
+	 */
+	private static int skipGroup(String regex, int start) {
+		if (start + 1 < regex.length() && regex.charAt(start + 1) == '?') {
+			// inline flags, look-arounds and special groups
+			return -1;
+		}
+
+		int depth = 0;
+		int i = start;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+					return -1;
+				}
+				i += 2;
+				continue;
+			} else if (c == '[') {
+				i = skipClass(regex, i);
+				if (i == -1) {
+					return -1;
+				}
+				continue;
+			} else if (c == '(') {
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == '?') {
+					return -1;
+				}
+				depth++;
+			} else if (c == ')') {
+				depth--;
+				if (depth == 0) {
+					return i + 1;
+				}
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return index after the character class starting at given index or -1
+	 *         if it has no end
+	 */
+	private static int skipClass(String regex, int start) {
+		int depth = 0;
+		int i = start;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+					return -1;
+				}
+				i += 2;
+				continue;
+			} else if (c == '[') {
+				depth++;
+				i++;
+				// a closing bracket right at the start is a member
+				if (i < regex.length() && regex.charAt(i) == '^') {
+					i++;
+				}
+				if (i < regex.length() && regex.charAt(i) == ']') {
+					i++;
+				}
+				continue;
+			} else if (c == ']') {
+				depth--;
+				if (depth == 0) {
+					return i + 1;
+				}
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return index after the quantifier starting at given index or the given
+	 *         index if there is none
+	 */
+	private static int skipQuantifier(String regex, int start) {
+		if (start >= regex.length()) {
+			return start;
+		}
+
+		int i = start;
+		char c = regex.charAt(i);
+		if (c == '?' || c == '*' || c == '+') {
+			i++;
+		} else if (c == '{') {
+			int end = regex.indexOf('}', i);
+			if (end == -1) {
+				return start;
+			}
+			i = end + 1;
+		} else {
+			return start;
+		}
+
+		// reluctant or possessive
+		if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+			i++;
+		}
+		return i;
+	}
+}
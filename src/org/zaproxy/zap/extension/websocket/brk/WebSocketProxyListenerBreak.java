@@ -98,13 +98,13 @@ public class WebSocketProxyListenerBreak implements WebSocketObserver {
                 // As the DTO that is shown and modified in the
                 // Request/Response panels we must set the content to message
                 // here.
-            	setPayload(wsMessage, message.payload);
+            	setPayload(wsMessage, message);
             	continueNotifying = true;
             }
         } else {
         	// already safe => onlyIfInScope can be false
             if (wsBrkMessageHandler.handleMessageReceivedFromServer(message, false)) {
-            	setPayload(wsMessage, message.payload);
+            	setPayload(wsMessage, message);
             	continueNotifying = true;
             }
         }
@@ -117,7 +117,13 @@ public class WebSocketProxyListenerBreak implements WebSocketObserver {
 		// no need to do something on state change
 	}
 
-	private void setPayload(WebSocketMessage message, Object payload) {
+	private void setPayload(WebSocketMessage message, WebSocketMessageDTO dto) {
+		if (dto.getPayloadFile() != null) {
+			// not modified, the DTO just offers a view of the payload file
+			return;
+		}
+		
+		Object payload = dto.getPayload();
 		try {
 			if (payload instanceof String) {
 				message.setReadablePayload((String) payload);
@@ -17,6 +17,8 @@
  */
 package org.zaproxy.zap.extension.websocket.db;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
@@ -27,59 +29,199 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.log4j.Logger;
 import org.hsqldb.jdbc.JDBCBlob;
-import org.hsqldb.jdbc.JDBCClob;
 import org.parosproxy.paros.db.DatabaseException;
+import org.parosproxy.paros.db.DatabaseServer;
 import org.parosproxy.paros.db.DbUtils;
 import org.parosproxy.paros.db.paros.ParosAbstractTable;
+import org.parosproxy.paros.db.paros.ParosDatabaseServer;
 import org.parosproxy.paros.network.HttpMalformedHeaderException;
 import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketPayloadFile;
+import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
 
 /**
  * Manages writing and reading WebSocket messages to the database.
+ * <p>
+ * Messages and channels are written with the connection of
+ * {@link ParosAbstractTable}, one writer at a time. Reads are done with
+ * separate connections and prepared statements (see {@link ReadConnection}),
+ * such that e.g. paging through messages in the UI does not block the
+ * threads storing new messages.
  */
 public class TableWebSocket extends ParosAbstractTable {
 	private static final Logger logger = Logger.getLogger(TableWebSocket.class);
 	
-	private Set<Integer> channelIds;
+	/**
+	 * Payloads of {@link WebSocketPayloadFile}s are stored in chunks of this
+	 * size, the first one in the message row itself.
+	 */
+	private static final int PAYLOAD_CHUNK_SIZE = 1024 * 1024;
+	
+	/**
+	 * Number of unused {@link ReadConnection}s kept open for later reads.
+	 */
+	private static final int MAX_IDLE_READ_CONNECTIONS = 2;
+	
+	/**
+	 * Maximum number of channels deleted within one transaction, also the
+	 * maximum number of parameters of one <code>IN</code> list.
+	 */
+	private static final int PURGE_BATCH_SIZE = 500;
+	
+	/**
+	 * Number of rows fetched at once, when streaming the ids of all channels.
+	 */
+	private static final int CHANNEL_ID_FETCH_SIZE = 1000;
+	
+	/**
+	 * Words contained in more messages are considered equally common when
+	 * searching (see {@link #searchMessages(String, int)}).
+	 */
+	private static final int MAX_COUNTED_POSTINGS = 10000;
+	
+	/**
+	 * Ids of inserted channels, null until needed for the first time after
+	 * opening a session (see {@link #getChannelIds()}).
+	 */
+	private BitSet channelIds;
 	private LRUMap channelCache;
+	
+	/**
+	 * Payloads of chunked messages, that were loaded recently. Their files
+	 * are deleted as soon as neither this cache nor a DTO refers to them.
+	 */
+	private LRUMap payloadFileCache;
+	
+	/**
+	 * Adds words of stored text messages to the full-text index.
+	 */
+	private final WebSocketPayloadIndexer indexer = new WebSocketPayloadIndexer(this);
     
     private PreparedStatement psInsertMessage;
     
-	private PreparedStatement psSelectChannels;
-	
     private PreparedStatement psInsertChannel;
 	private PreparedStatement psUpdateChannel;
 	
 	private PreparedStatement psUpdateHistoryFk;
 
-	private PreparedStatement psDeleteChannel;
-	private PreparedStatement psDeleteMessagesByChannelId;
-
 	private PreparedStatement psInsertFuzz;
 	
-	private PreparedStatement psSelectMessage;
+	private PreparedStatement psInsertChunk;
+	
+	private PreparedStatement psInsertToken;
 	
 	private PreparedStatement psSelectMaxChannelId;
 
+	/**
+	 * Informed when the messages of an opened session were counted.
+	 */
+	public interface MessageCountsListener {
+
+		void messageCountsBuilt(TableWebSocket table);
+	}
+	
+	/**
+	 * Replaced when a session is opened and when its messages were counted.
+	 */
+	private volatile WebSocketMessageCounts messageCounts = new WebSocketMessageCounts();
+	
+	/**
+	 * False until {@link #messageCounts} was built for the opened session,
+	 * inserts do not count messages before.
+	 */
+	private volatile boolean isMessageCountsBuilt;
+	
+	/**
+	 * Channels with messages inserted or purged while the messages of the
+	 * opened session are counted, null if not counting. Guarded by this table.
+	 */
+	private Set<Integer> messageCountsChangedChannels;
+	
+	/**
+	 * Incremented when a session is opened, such that counts of a previous
+	 * session are dropped. Guarded by this table.
+	 */
+	private int messageCountsSession;
+	
+	/**
+	 * Counts the messages of an opened session, without blocking the writer.
+	 */
+	private final ThreadPoolExecutor messageCountsExecutor;
+	
+	private volatile MessageCountsListener messageCountsListener;
+
 	private Queue<WebSocketMessageDTO> messagesBuffer = new LinkedList<>();
 	private Queue<WebSocketChannelDTO> channelsBuffer = new LinkedList<>();
 	
+	/**
+	 * Reads hold the read lock, while the session is opened with the write
+	 * lock, i.e. the database is not switched in the middle of a read.
+	 */
+	private final ReentrantReadWriteLock sessionLock = new ReentrantReadWriteLock();
+	
+	private volatile ParosDatabaseServer server;
+	
+	private final Queue<ReadConnection> idleReadConnections = new ConcurrentLinkedQueue<>();
+	
+	public TableWebSocket() {
+		messageCountsExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ZAP-WS-Message-Counter");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		messageCountsExecutor.allowCoreThreadTimeOut(true);
+	}
+	
+	@Override
+	public void databaseOpen(DatabaseServer server) throws DatabaseException {
+		sessionLock.writeLock().lock();
+		try {
+			// reads get their own connections if supported
+			this.server = (server instanceof ParosDatabaseServer) ? (ParosDatabaseServer) server : null;
+			super.databaseOpen(server);
+		} finally {
+			sessionLock.writeLock().unlock();
+		}
+	}
+	
     /**
      * Create tables if not already available
      */
     @Override
     protected void reconnect(Connection conn) throws DatabaseException {
+    	closeIdleReadConnections();
+    	// messages of the previous session
+    	indexer.clear();
     	try {
 			if (!DbUtils.hasTable(conn, "WEBSOCKET_CHANNEL")) {
 				// need to create the tables			
@@ -126,21 +268,51 @@ public class TableWebSocket extends ParosAbstractTable {
 								+ ")");
 				DbUtils.executeAndClose(stmt);
 				
-				channelIds = new HashSet<>();
+				channelIds = new BitSet();
 			} else {
+				// loaded on demand, opening a session with many channels is not delayed
 				channelIds = null;
 			}
 			
+			if (!DbUtils.hasTable(conn, "WEBSOCKET_MESSAGE_CHUNK")) {
+				// remaining payload of messages, that were spilled to disk
+				PreparedStatement stmt = conn.prepareStatement("CREATE CACHED TABLE websocket_message_chunk ("
+								+ "message_id BIGINT NOT NULL,"
+								+ "channel_id BIGINT NOT NULL,"
+								+ "chunk_index INTEGER NOT NULL,"
+								+ "chunk_bytes BLOB(16M) NOT NULL,"
+								+ "PRIMARY KEY (message_id, channel_id, chunk_index),"
+								+ "FOREIGN KEY (message_id, channel_id) REFERENCES websocket_message(message_id, channel_id) ON DELETE CASCADE"
+								+ ")");
+				DbUtils.executeAndClose(stmt);
+			}
+			
+			if (!DbUtils.hasTable(conn, "WEBSOCKET_MESSAGE_TOKEN")) {
+				// full-text index of text payloads, see searchMessages()
+				PreparedStatement stmt = conn.prepareStatement("CREATE CACHED TABLE websocket_message_token ("
+								+ "token VARCHAR(" + WebSocketPayloadTokenizer.MAX_TOKEN_LENGTH + ") NOT NULL,"
+								+ "channel_id BIGINT NOT NULL,"
+								+ "message_id BIGINT NOT NULL,"
+								+ "PRIMARY KEY (token, channel_id, message_id),"
+								+ "FOREIGN KEY (message_id, channel_id) REFERENCES websocket_message(message_id, channel_id) ON DELETE CASCADE"
+								+ ")");
+				DbUtils.executeAndClose(stmt);
+			}
+			
+			// supports keyset pagination in browsing order (see getMessagesAfter()),
+			// messages of one channel are narrowed down by the foreign key index
+			if (!DbUtils.hasIndex(conn, "WEBSOCKET_MESSAGE", "WEBSOCKET_MESSAGE_TIMESTAMP")) {
+				DbUtils.executeAndClose(conn.prepareStatement("CREATE INDEX websocket_message_timestamp "
+						+ "ON websocket_message (timestamp, channel_id, message_id)"));
+			}
+			
 			channelCache = new LRUMap(20);
+			payloadFileCache = new LRUMap(8);
 			
 			// CHANNEL
 			psSelectMaxChannelId = conn.prepareStatement("SELECT MAX(c.channel_id) as channel_id "
 					+ "FROM websocket_channel AS c");
 			
-			psSelectChannels = conn.prepareStatement("SELECT c.* "
-					+ "FROM websocket_channel AS c "
-					+ "ORDER BY c.channel_id");
-
 			// id goes last to be consistent with update query
 			psInsertChannel = conn.prepareStatement("INSERT INTO "
 					+ "websocket_channel (host, port, url, start_timestamp, end_timestamp, history_id, channel_id) "
@@ -154,53 +326,286 @@ public class TableWebSocket extends ParosAbstractTable {
 					+ "history_id = ? "
 					+ "WHERE channel_id = ?");
 			
-			psDeleteChannel = conn.prepareStatement("DELETE FROM websocket_channel "
-					+ "WHERE channel_id = ?");
-			
 			// MESSAGE
-			psSelectMessage = conn.prepareStatement("SELECT m.*, f.fuzz_id, f.state, f.fuzz "
-					+ "FROM websocket_message AS m "
-					+ "LEFT OUTER JOIN websocket_message_fuzz f "
-					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
-					+ "WHERE m.message_id = ? AND m.channel_id = ?");
-			
 			psInsertMessage = conn.prepareStatement("INSERT INTO "
 					+ "websocket_message (message_id, channel_id, timestamp, opcode, payload_utf8, payload_bytes, payload_length, is_outgoing) "
 					+ "VALUES (?,?,?,?,?,?,?,?)");
 			
+			psInsertChunk = conn.prepareStatement("INSERT INTO "
+					+ "websocket_message_chunk (message_id, channel_id, chunk_index, chunk_bytes) "
+					+ "VALUES (?,?,?,?)");
+			
+			psInsertToken = conn.prepareStatement("INSERT INTO "
+					+ "websocket_message_token (token, channel_id, message_id) "
+					+ "VALUES (?,?,?)");
+			
 			psInsertFuzz = conn.prepareStatement("INSERT INTO "
 					+ "websocket_message_fuzz (fuzz_id, message_id, channel_id, state, fuzz) "
 					+ "VALUES (?,?,?,?,?)");
 			
-			psDeleteMessagesByChannelId = conn.prepareStatement("DELETE FROM websocket_message "
-					+ "WHERE channel_id = ?");
-			
+			// existing messages are counted in the background, see getMessageCounts()
+			int session;
+			synchronized (this) {
+				session = ++messageCountsSession;
+				messageCounts = new WebSocketMessageCounts();
+				isMessageCountsBuilt = (channelIds != null);
+				messageCountsChangedChannels = isMessageCountsBuilt ? null : new HashSet<Integer>();
+			}
 			if (channelIds == null) {
-				channelIds = new HashSet<>();
-				PreparedStatement psSelectChannelIds = conn.prepareStatement("SELECT c.channel_id "
-						+ "FROM websocket_channel AS c "
-						+ "ORDER BY c.channel_id");
+				countMessagesInBackground(session);
+			}
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+    }
+	
+	/**
+	 * Returns the ids of all inserted channels. They are streamed from the
+	 * database with the first call after opening a session. Callers have to
+	 * synchronize on this table.
+	 * 
+	 * @return ids of inserted channels
+	 * @throws SQLException
+	 * @throws DatabaseException
+	 */
+	private BitSet getChannelIds() throws SQLException, DatabaseException {
+		if (channelIds == null) {
+			BitSet ids = new BitSet();
+			PreparedStatement psSelectChannelIds = getConnection().prepareStatement("SELECT c.channel_id "
+					+ "FROM websocket_channel AS c", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			try {
+				psSelectChannelIds.setFetchSize(CHANNEL_ID_FETCH_SIZE);
+				psSelectChannelIds.execute();
+				
+				ResultSet rs = psSelectChannelIds.getResultSet();
 				try {
-					psSelectChannelIds.execute();
-					
-					ResultSet rs = psSelectChannelIds.getResultSet();
 					while (rs.next()) {
-						channelIds.add(rs.getInt(1));
+						ids.set(rs.getInt(1));
 					}
 				} finally {
-					try {
-						psSelectChannelIds.close();
-					} catch (SQLException e) {
-						if (logger.isDebugEnabled()) {
-							logger.debug(e.getMessage(), e);
-						}
+					rs.close();
+				}
+			} finally {
+				try {
+					psSelectChannelIds.close();
+				} catch (SQLException e) {
+					if (logger.isDebugEnabled()) {
+						logger.debug(e.getMessage(), e);
 					}
 				}
 			}
+			channelIds = ids;
+		}
+		return channelIds;
+	}
+	
+	/**
+	 * @param channelId
+	 * @return True if the channel with given id was inserted.
+	 * @throws SQLException
+	 * @throws DatabaseException
+	 */
+	private boolean isChannelInserted(Integer channelId) throws SQLException, DatabaseException {
+		return channelId != null && channelId >= 0 && getChannelIds().get(channelId);
+	}
+
+	/**
+	 * Borrows a connection for reading, which is used by the calling thread
+	 * only until it is given back with
+	 * {@link #releaseReadConnection(ReadConnection)}.
+	 * 
+	 * @return connection with prepared statements for reading
+	 * @throws DatabaseException
+	 */
+	private ReadConnection acquireReadConnection() throws DatabaseException {
+		sessionLock.readLock().lock();
+		ReadConnection reader = null;
+		try {
+			while ((reader = idleReadConnections.poll()) != null) {
+				if (!reader.isClosed()) {
+					return reader;
+				}
+				reader.close();
+			}
+			
+			ParosDatabaseServer currentServer = server;
+			if (currentServer != null) {
+				reader = new ReadConnection(currentServer.getNewConnection(), false);
+			} else {
+				// no own connections available, share the one of the writer
+				reader = new ReadConnection(getConnection(), true);
+			}
+			return reader;
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
+		} finally {
+			if (reader == null) {
+				sessionLock.readLock().unlock();
+			}
 		}
-    }
+	}
+	
+	private void releaseReadConnection(ReadConnection reader) {
+		try {
+			if (idleReadConnections.size() < MAX_IDLE_READ_CONNECTIONS) {
+				idleReadConnections.offer(reader);
+			} else {
+				reader.close();
+			}
+		} finally {
+			sessionLock.readLock().unlock();
+		}
+	}
+	
+	private void closeIdleReadConnections() {
+		ReadConnection reader;
+		while ((reader = idleReadConnections.poll()) != null) {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Counts the messages of the opened session with a read connection in
+	 * another thread, such that neither the writer nor the UI have to wait.
+	 * Channels written to meanwhile are counted again with the writer's
+	 * connection, before the counts are used.
+	 * 
+	 * @param session the session whose messages are counted
+	 */
+	private void countMessagesInBackground(final int session) {
+		try {
+			messageCountsExecutor.execute(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						if (buildMessageCounts(session)) {
+							MessageCountsListener listener = messageCountsListener;
+							if (listener != null) {
+								listener.messageCountsBuilt(TableWebSocket.this);
+							}
+						}
+					} catch (SQLException | DatabaseException e) {
+						logger.error("Unable to count WebSocket messages: " + e.getMessage(), e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			logger.warn("Unable to count WebSocket messages: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * @param session the session whose messages are counted
+	 * @return True if the counts were built, false if another session was
+	 *         opened meanwhile.
+	 */
+	private boolean buildMessageCounts(int session) throws SQLException, DatabaseException {
+		WebSocketMessageCounts counts = new WebSocketMessageCounts();
+		ReadConnection reader = acquireReadConnection();
+		try {
+			countMessages(reader.connection, counts, null);
+		} finally {
+			releaseReadConnection(reader);
+		}
+		
+		synchronized (this) {
+			if (session != messageCountsSession || getConnection().isClosed()) {
+				return false;
+			}
+			
+			List<Integer> changedChannels = new ArrayList<>(messageCountsChangedChannels);
+			for (int i = 0; i < changedChannels.size(); i += PURGE_BATCH_SIZE) {
+				List<Integer> ids = changedChannels.subList(i, Math.min(i + PURGE_BATCH_SIZE, changedChannels.size()));
+				for (Integer channelId : ids) {
+					counts.removeChannel(channelId);
+				}
+				countMessages(getConnection(), counts, ids);
+			}
+			
+			messageCounts = counts;
+			messageCountsChangedChannels = null;
+			isMessageCountsBuilt = true;
+			return true;
+		}
+	}
+	
+	/**
+	 * Adds the number of stored messages to given counts.
+	 * 
+	 * @param conn
+	 * @param counts
+	 * @param channelIds Null to count the messages of all channels, otherwise
+	 *            at most {@value #PURGE_BATCH_SIZE} channel ids.
+	 * @throws SQLException
+	 */
+	private static void countMessages(Connection conn, WebSocketMessageCounts counts, List<Integer> channelIds) throws SQLException {
+		StringBuilder query = new StringBuilder("SELECT m.channel_id, m.is_outgoing, m.opcode, COUNT(m.message_id) "
+				+ "FROM websocket_message AS m ");
+		if (channelIds != null) {
+			query.append("WHERE m.channel_id IN (");
+			appendParameterList(query, channelIds.size());
+			query.append(") ");
+		}
+		query.append("GROUP BY m.channel_id, m.is_outgoing, m.opcode");
+		
+		PreparedStatement stmt = conn.prepareStatement(query.toString());
+		try {
+			if (channelIds != null) {
+				int i = 1;
+				for (Integer channelId : channelIds) {
+					stmt.setInt(i++, channelId);
+				}
+			}
+			stmt.execute();
+			ResultSet rs = stmt.getResultSet();
+			try {
+				while (rs.next()) {
+					counts.add(rs.getInt(1), rs.getBoolean(2), rs.getInt(3), rs.getInt(4));
+				}
+			} finally {
+				rs.close();
+			}
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	/**
+	 * Remembers that messages of given channel were inserted or purged, if
+	 * the messages are being counted. Callers have to synchronize on this
+	 * table.
+	 * 
+	 * @param channelId
+	 */
+	private void messageCountsChanged(Integer channelId) {
+		if (messageCountsChangedChannels != null) {
+			messageCountsChangedChannels.add(channelId);
+		}
+	}
+
+	/**
+	 * Returns the number of stored messages by channel, direction and opcode,
+	 * which is kept up to date without querying the database. The messages
+	 * of an opened session are counted in the background, until then the
+	 * returned counts are empty, see
+	 * {@link #setMessageCountsListener(MessageCountsListener)}.
+	 * 
+	 * @return message counts of current session
+	 */
+	public WebSocketMessageCounts getMessageCounts() {
+		return messageCounts;
+	}
+	
+	/**
+	 * Sets the listener informed, from the counting thread, once the messages
+	 * of an opened session were counted.
+	 * 
+	 * @param listener Null to remove the current listener.
+	 */
+	public void setMessageCountsListener(MessageCountsListener listener) {
+		messageCountsListener = listener;
+	}
 
     /**
 	 * Prepares a {@link PreparedStatement} instance on the fly.
@@ -210,7 +615,7 @@ public class TableWebSocket extends ParosAbstractTable {
 	 * @return number of message that fulfill given template
 	 * @throws SQLException
 	 */
-	public synchronized int getMessageCount(WebSocketMessageDTO criteria, List<Integer> opcodes) throws DatabaseException {
+	public int getMessageCount(WebSocketMessageDTO criteria, List<Integer> opcodes) throws DatabaseException {
 		return getMessageCount(criteria, opcodes, null);
 	}
 	
@@ -223,14 +628,15 @@ public class TableWebSocket extends ParosAbstractTable {
 	 * @return number of message that fulfill given template
 	 * @throws DatabaseException
 	 */
-	public synchronized int getMessageCount(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds) throws DatabaseException {
+	public int getMessageCount(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds) throws DatabaseException {
+		ReadConnection reader = acquireReadConnection();
 		try {
 			String query = "SELECT COUNT(m.message_id) FROM websocket_message AS m "
 					+ "LEFT OUTER JOIN websocket_message_fuzz f "
 					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
 					+ "<where> ";
 			
-			PreparedStatement stmt = buildMessageCriteriaStatement(query, criteria, opcodes, inScopeChannelIds);
+			PreparedStatement stmt = buildMessageCriteriaStatement(reader, query, criteria, opcodes, inScopeChannelIds);
 			try {
 				return executeAndGetSingleIntValue(stmt);
 			} finally {
@@ -238,6 +644,8 @@ public class TableWebSocket extends ParosAbstractTable {
 			}
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
+		} finally {
+			releaseReadConnection(reader);
 		}
 	}
 
@@ -254,15 +662,16 @@ public class TableWebSocket extends ParosAbstractTable {
 		}
 	}
 
-	public synchronized int getIndexOf(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds) 
+	public int getIndexOf(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds) 
 			throws DatabaseException {
+		ReadConnection reader = acquireReadConnection();
 		try {
 			String query = "SELECT COUNT(m.message_id) "
 					+ "FROM websocket_message AS m "
 					+ "LEFT OUTER JOIN websocket_message_fuzz f "
 					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
 					+ "<where> AND m.message_id < ?";
-			PreparedStatement stmt = buildMessageCriteriaStatement(query, criteria, opcodes, inScopeChannelIds);
+			PreparedStatement stmt = buildMessageCriteriaStatement(reader, query, criteria, opcodes, inScopeChannelIds);
 			
 			int paramsCount = stmt.getParameterMetaData().getParameterCount();
 			stmt.setInt(paramsCount, criteria.id);
@@ -274,22 +683,27 @@ public class TableWebSocket extends ParosAbstractTable {
 			}
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
+		} finally {
+			releaseReadConnection(reader);
 		}
 	}
 	
-	public synchronized WebSocketMessageDTO getMessage(int messageId, int channelId) throws DatabaseException {
+	public WebSocketMessageDTO getMessage(int messageId, int channelId) throws DatabaseException {
+		ReadConnection reader = acquireReadConnection();
 		try {
-			psSelectMessage.setInt(1, messageId);
-			psSelectMessage.setInt(2, channelId);
-			psSelectMessage.execute();
+			reader.psSelectMessage.setInt(1, messageId);
+			reader.psSelectMessage.setInt(2, channelId);
+			reader.psSelectMessage.execute();
 			
-			List<WebSocketMessageDTO> messages = buildMessageDTOs(psSelectMessage.getResultSet(), false);
+			List<WebSocketMessageDTO> messages = buildMessageDTOs(reader, reader.psSelectMessage.getResultSet(), false);
 			if (messages.size() != 1) {
 				throw new SQLException("Message not found!");
 			}
 			return messages.get(0);
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
+		} finally {
+			releaseReadConnection(reader);
 		}
 	}
 
@@ -305,7 +719,8 @@ public class TableWebSocket extends ParosAbstractTable {
 	 * @return Messages that fulfill given template.
 	 * @throws DatabaseException
 	 */
-	public synchronized List<WebSocketMessageDTO> getMessages(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, int offset, int limit, int payloadPreviewLength) throws DatabaseException {
+	public List<WebSocketMessageDTO> getMessages(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, int offset, int limit, int payloadPreviewLength) throws DatabaseException {
+		ReadConnection reader = acquireReadConnection();
 		try {
 			String query = "SELECT m.message_id, m.channel_id, m.timestamp, m.opcode, m.payload_length, m.is_outgoing, "
 					+ "m.payload_utf8, m.payload_bytes, "
@@ -320,9 +735,9 @@ public class TableWebSocket extends ParosAbstractTable {
 
 			PreparedStatement stmt;
 			try {
-				stmt = buildMessageCriteriaStatement(query, criteria, opcodes, inScopeChannelIds);
+				stmt = buildMessageCriteriaStatement(reader, query, criteria, opcodes, inScopeChannelIds);
 			} catch (SQLException e) {
-				if (getConnection().isClosed()) {
+				if (reader.isClosed()) {
 					return new ArrayList<>(0);
 				}
 				
@@ -336,41 +751,140 @@ public class TableWebSocket extends ParosAbstractTable {
 				
 				stmt.execute();
 				
-				return buildMessageDTOs(stmt.getResultSet(), true, payloadPreviewLength);
+				return buildMessageDTOs(reader, stmt.getResultSet(), true, payloadPreviewLength);
 			} finally {
 				stmt.close();
 			}
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
+		} finally {
+			releaseReadConnection(reader);
 		}
 	}
 	
-	private List<WebSocketMessageDTO> buildMessageDTOs(ResultSet rs, boolean interpretLiteralBytes) throws SQLException, DatabaseException {
-		return buildMessageDTOs(rs, interpretLiteralBytes, -1);
+	/**
+	 * Retrieves the messages following the given one in browsing order
+	 * (timestamp, channel id, message id). Other than
+	 * {@link #getMessages(WebSocketMessageDTO, List, List, int, int, int)},
+	 * rows before the given message are not walked through, hence the time
+	 * needed does not depend on the position of the page.
+	 * 
+	 * @param criteria
+	 * @param opcodes
+	 * @param inScopeChannelIds
+	 * @param after key of the message preceding the page, i.e. its timestamp, channel and id
+	 * @param offset number of rows to skip after the given message
+	 * @param limit
+	 * @param payloadPreviewLength
+	 * @return Messages that fulfill given template.
+	 * @throws DatabaseException
+	 */
+	public List<WebSocketMessageDTO> getMessagesAfter(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, WebSocketMessageDTO after, int offset, int limit, int payloadPreviewLength) throws DatabaseException {
+		return getMessagesByKey(criteria, opcodes, inScopeChannelIds, after, true, offset, limit, payloadPreviewLength);
 	}
+	
 	/**
+	 * Retrieves the messages preceding the given one in browsing order, i.e.
+	 * the page ending right before the given message (minus offset).
 	 * 
-	 * @param rs
-	 * @param interpretLiteralBytes
-	 * @param payloadLength 
-	 * @return
-	 * @throws HttpMalformedHeaderException
-	 * @throws SQLException
-	 * @throws DatabaseException 
+	 * @param criteria
+	 * @param opcodes
+	 * @param inScopeChannelIds
+	 * @param before key of the message following the page, i.e. its timestamp, channel and id
+	 * @param offset number of rows to skip before the given message
+	 * @param limit
+	 * @param payloadPreviewLength
+	 * @return Messages that fulfill given template, in browsing order.
+	 * @throws DatabaseException
+	 * @see #getMessagesAfter(WebSocketMessageDTO, List, List, WebSocketMessageDTO, int, int, int)
 	 */
-	private List<WebSocketMessageDTO> buildMessageDTOs(ResultSet rs, boolean interpretLiteralBytes, int payloadLength) 
-			throws SQLException, DatabaseException {
-		ArrayList<WebSocketMessageDTO> messages = new ArrayList<>();
+	public List<WebSocketMessageDTO> getMessagesBefore(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, WebSocketMessageDTO before, int offset, int limit, int payloadPreviewLength) throws DatabaseException {
+		List<WebSocketMessageDTO> messages = getMessagesByKey(criteria, opcodes, inScopeChannelIds, before, false, offset, limit, payloadPreviewLength);
+		Collections.reverse(messages);
+		return messages;
+	}
+	
+	private List<WebSocketMessageDTO> getMessagesByKey(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, WebSocketMessageDTO key, boolean isAfterKey, int offset, int limit, int payloadPreviewLength) throws DatabaseException {
+		ReadConnection reader = acquireReadConnection();
 		try {
-			while (rs.next()) {
-				WebSocketMessageDTO message;
-				
-				int channelId = rs.getInt("channel_id");
-				WebSocketChannelDTO channel = getChannel(channelId);
-				/* TODO re-implement support for fuzzing
+			// leading range condition on the timestamp allows to seek in the index
+			String cmp = isAfterKey ? ">" : "<";
+			String order = isAfterKey ? "ASC" : "DESC";
+			String query = "SELECT m.message_id, m.channel_id, m.timestamp, m.opcode, m.payload_length, m.is_outgoing, "
+					+ "m.payload_utf8, m.payload_bytes, "
+					+ "f.fuzz_id, f.state, f.fuzz "
+					+ "FROM websocket_message AS m "
+					+ "LEFT OUTER JOIN websocket_message_fuzz f "
+					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
+					+ "<where> AND m.timestamp " + cmp + "= ? "
+					+ "AND (m.timestamp " + cmp + " ? OR m.channel_id " + cmp + " ? "
+					+ "OR (m.channel_id = ? AND m.message_id " + cmp + " ?)) "
+					+ "ORDER BY m.timestamp " + order + ", m.channel_id " + order + ", m.message_id " + order + " "
+					+ "LIMIT ? "
+					+ "OFFSET ?";
 
-				if (rs.getInt("fuzz_id") != 0) {
-					WebSocketFuzzMessageDTO fuzzMessage = new WebSocketFuzzMessageDTO(channel);
+			PreparedStatement stmt;
+			try {
+				stmt = buildMessageCriteriaStatement(reader, query, criteria, opcodes, inScopeChannelIds);
+			} catch (SQLException e) {
+				if (reader.isClosed()) {
+					return new ArrayList<>(0);
+				}
+				
+				throw e;
+			}
+			
+			try {
+				int paramsCount = stmt.getParameterMetaData().getParameterCount();
+				Timestamp timestamp = new Timestamp(key.timestamp);
+				stmt.setTimestamp(paramsCount - 6, timestamp);
+				stmt.setTimestamp(paramsCount - 5, timestamp);
+				stmt.setInt(paramsCount - 4, key.channel.id);
+				stmt.setInt(paramsCount - 3, key.channel.id);
+				stmt.setInt(paramsCount - 2, key.id);
+				stmt.setInt(paramsCount - 1, limit);
+				stmt.setInt(paramsCount, offset);
+				
+				stmt.execute();
+				
+				return buildMessageDTOs(reader, stmt.getResultSet(), true, payloadPreviewLength);
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		} finally {
+			releaseReadConnection(reader);
+		}
+	}
+	
+	private List<WebSocketMessageDTO> buildMessageDTOs(ReadConnection reader, ResultSet rs, boolean interpretLiteralBytes) throws SQLException, DatabaseException {
+		return buildMessageDTOs(reader, rs, interpretLiteralBytes, -1);
+	}
+	/**
+	 * 
+	 * @param reader used to read chunks and channels
+	 * @param rs
+	 * @param interpretLiteralBytes
+	 * @param payloadLength 
+	 * @return
+	 * @throws HttpMalformedHeaderException
+	 * @throws SQLException
+	 * @throws DatabaseException 
+	 */
+	private List<WebSocketMessageDTO> buildMessageDTOs(ReadConnection reader, ResultSet rs, boolean interpretLiteralBytes, int payloadLength) 
+			throws SQLException, DatabaseException {
+		ArrayList<WebSocketMessageDTO> messages = new ArrayList<>();
+		try {
+			while (rs.next()) {
+				WebSocketMessageDTO message;
+				
+				int channelId = rs.getInt("channel_id");
+				WebSocketChannelDTO channel = getChannel(reader, channelId);
+				/* TODO re-implement support for fuzzing
+
+				if (rs.getInt("fuzz_id") != 0) {
+					WebSocketFuzzMessageDTO fuzzMessage = new WebSocketFuzzMessageDTO(channel);
 					fuzzMessage.fuzzId = rs.getInt("fuzz_id");
 					fuzzMessage.state = WebSocketFuzzMessageDTO.State.valueOf(rs.getString("state"));
 					fuzzMessage.fuzz = rs.getString("fuzz");
@@ -389,32 +903,46 @@ public class TableWebSocket extends ParosAbstractTable {
 				
 				// read payload
 				if (message.opcode == WebSocketMessage.OPCODE_BINARY) {
-					if (payloadLength == -1) {
-						// load all bytes
-						message.payload = rs.getBytes("payload_bytes");
+					byte[] payload = readPayloadBytes(rs, payloadLength);
+					WebSocketPayloadFile payloadFile = readPayloadChunks(reader, rs, message, payload, payloadLength);
+					if (payloadFile != null) {
+						message.setPayloadFile(payloadFile);
 					} else {
-						Blob blob = rs.getBlob("payload_bytes");
-						int length = Math.min(payloadLength, (int) blob.length());
-						message.payload = blob.getBytes(1, length);
-						blob.free();
-					}
-					
-					if (message.payload == null) {
-						message.payload = new byte[0];
+						message.setPayload((payload != null) ? payload : new byte[0]);
 					}
 				} else {
+					String payload;
 					if (payloadLength == -1) {
 						// load all characters
-						message.payload = rs.getString("payload_utf8");
+						payload = rs.getString("payload_utf8");
 					} else {
 						Clob clob = rs.getClob("payload_utf8");
-						int length = Math.min(payloadLength, (int) clob.length());
-						message.payload = clob.getSubString(1, length);
-						clob.free();
+						if (clob != null) {
+							int length = Math.min(payloadLength, (int) clob.length());
+							payload = clob.getSubString(1, length);
+							clob.free();
+						} else {
+							payload = null;
+						}
 					}
 					
-					if (message.payload == null) {
-						message.payload = "";
+					if (payload != null) {
+						message.setPayload(payload);
+					} else {
+						// stored as raw bytes, decoded on first access
+						byte[] bytes = readPayloadBytes(rs, payloadLength);
+						WebSocketPayloadFile payloadFile = readPayloadChunks(reader, rs, message, bytes, payloadLength);
+						if (bytes == null) {
+							message.setPayload("");
+						} else if (payloadFile != null) {
+							message.setPayloadFile(payloadFile);
+						} else if (payloadLength == -1) {
+							message.setRawPayload(bytes);
+						} else {
+							// do not cut a character of the preview
+							int length = Utf8Util.getCompleteLength(bytes, bytes.length);
+							message.setRawPayload((length == bytes.length) ? bytes : Arrays.copyOf(bytes, length));
+						}
 					}
 				}
 				
@@ -432,21 +960,111 @@ public class TableWebSocket extends ParosAbstractTable {
 		return messages;
 	}
 
-	private WebSocketChannelDTO getChannel(int channelId) throws SQLException, DatabaseException {
-		if (!channelCache.containsKey(channelId)) {
-			WebSocketChannelDTO criteria = new WebSocketChannelDTO();
-			criteria.id = channelId;
-			List<WebSocketChannelDTO> channels = getChannels(criteria);
-			if (channels.size() == 1) {
-				channelCache.put(channelId, channels.get(0));
-			} else {
-				throw new SQLException("Channel '" + channelId + "' not found!");
+	/**
+	 * Reads column <code>payload_bytes</code> of current row.
+	 * 
+	 * @param rs
+	 * @param payloadLength maximum number of bytes or -1 for all
+	 * @return bytes or null if column is null
+	 * @throws SQLException
+	 */
+	private byte[] readPayloadBytes(ResultSet rs, int payloadLength) throws SQLException {
+		if (payloadLength == -1) {
+			// load all bytes
+			return rs.getBytes("payload_bytes");
+		}
+
+		Blob blob = rs.getBlob("payload_bytes");
+		if (blob == null) {
+			return null;
+		}
+		int length = Math.min(payloadLength, (int) blob.length());
+		byte[] bytes = blob.getBytes(1, length);
+		blob.free();
+		return bytes;
+	}
+
+	/**
+	 * Reassembles the payload of a message, that was stored in chunks, into a
+	 * {@link WebSocketPayloadFile}. Files of recently loaded messages are
+	 * reused.
+	 * 
+	 * @param reader connection of given result set
+	 * @param rs positioned at the message row
+	 * @param message with id and channel set
+	 * @param firstChunk content of column <code>payload_bytes</code>
+	 * @param payloadLength -1 if the whole payload is requested
+	 * @return file with whole payload or null if the payload is not chunked or just a preview is requested
+	 * @throws SQLException
+	 */
+	private WebSocketPayloadFile readPayloadChunks(ReadConnection reader, ResultSet rs, WebSocketMessageDTO message, byte[] firstChunk, int payloadLength)
+			throws SQLException {
+		if (payloadLength != -1 || firstChunk == null || firstChunk.length >= rs.getLong("payload_length")) {
+			return null;
+		}
+		
+		String key = message.channel.id + "." + message.id;
+		LRUMap cache = payloadFileCache;
+		synchronized (cache) {
+			WebSocketPayloadFile payloadFile = (WebSocketPayloadFile) cache.get(key);
+			if (payloadFile != null) {
+				return payloadFile;
+			}
+		}
+		
+		WebSocketPayloadFile payloadFile = null;
+		try {
+			payloadFile = WebSocketPayloadFile.create();
+			payloadFile.append(firstChunk, 0, firstChunk.length);
+			
+			reader.psSelectChunks.setInt(1, message.id);
+			reader.psSelectChunks.setInt(2, message.channel.id);
+			reader.psSelectChunks.execute();
+			ResultSet chunks = reader.psSelectChunks.getResultSet();
+			try {
+				while (chunks.next()) {
+					byte[] chunk = chunks.getBytes(1);
+					payloadFile.append(chunk, 0, chunk.length);
+				}
+			} finally {
+				chunks.close();
+			}
+			
+			synchronized (cache) {
+				cache.put(key, payloadFile);
 			}
+			return payloadFile;
+		} catch (IOException e) {
+			if (payloadFile != null) {
+				payloadFile.delete();
+			}
+			throw new SQLException("Could not restore payload of message " + message.toString(), e);
 		}
-		return (WebSocketChannelDTO) channelCache.get(channelId);
 	}
 
-	private PreparedStatement buildMessageCriteriaStatement(String query, WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds) 
+	private WebSocketChannelDTO getChannel(ReadConnection reader, int channelId) throws SQLException, DatabaseException {
+		LRUMap cache = channelCache;
+		synchronized (cache) {
+			WebSocketChannelDTO channel = (WebSocketChannelDTO) cache.get(channelId);
+			if (channel != null) {
+				return channel;
+			}
+		}
+		
+		WebSocketChannelDTO criteria = new WebSocketChannelDTO();
+		criteria.id = channelId;
+		List<WebSocketChannelDTO> channels = getChannels(reader, criteria);
+		if (channels.size() != 1) {
+			throw new SQLException("Channel '" + channelId + "' not found!");
+		}
+		
+		synchronized (cache) {
+			cache.put(channelId, channels.get(0));
+		}
+		return channels.get(0);
+	}
+
+	private PreparedStatement buildMessageCriteriaStatement(ReadConnection reader, String query, WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds) 
 			throws SQLException, DatabaseException {
 		ArrayList<String> where = new ArrayList<>();
 		ArrayList<Object> params = new ArrayList<>();
@@ -512,7 +1130,7 @@ public class TableWebSocket extends ParosAbstractTable {
 		where.trimToSize();
 		params.trimToSize();
 		
-		return buildCriteriaStatementHelper(query, where, params);
+		return buildCriteriaStatementHelper(reader, query, where, params);
 	}
 
 	public WebSocketMessagePrimaryKey getMessagePrimaryKey(WebSocketMessageDTO message) {
@@ -520,13 +1138,16 @@ public class TableWebSocket extends ParosAbstractTable {
 	}
 
 	public List<WebSocketChannelDTO> getChannelItems() throws DatabaseException {
+		ReadConnection reader = acquireReadConnection();
 		try {
-			psSelectChannels.execute();
-			ResultSet rs = psSelectChannels.getResultSet();
+			reader.psSelectChannels.execute();
+			ResultSet rs = reader.psSelectChannels.getResultSet();
 			
 			return buildChannelDTOs(rs);
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
+		} finally {
+			releaseReadConnection(reader);
 		}
 	}
 
@@ -571,7 +1192,7 @@ public class TableWebSocket extends ParosAbstractTable {
 					boolean addIdOnSuccess = false;
 					
 					// first, find out if already inserted
-					if (channelIds.contains(channel.id)) {
+					if (isChannelInserted(channel.id)) {
 						// proceed with update
 						stmt = psUpdateChannel;
 					} else {
@@ -591,7 +1212,7 @@ public class TableWebSocket extends ParosAbstractTable {
 					
 					stmt.execute();
 					if (addIdOnSuccess) {
-						channelIds.add(channel.id);
+						getChannelIds().set(channel.id);
 					}
 					
 					if (channel.historyId != null) {
@@ -628,7 +1249,7 @@ public class TableWebSocket extends ParosAbstractTable {
 				}
 				
 				do {
-					if (!channelIds.contains(message.channel.id)) {
+					if (!isChannelInserted(message.channel.id)) {
 						// maybe channel is buffered
 						if (channelsBuffer.size() > 0) {
 							insertOrUpdateChannel(channelsBuffer.poll());
@@ -638,26 +1259,16 @@ public class TableWebSocket extends ParosAbstractTable {
 					
 					logger.info("insert message: " + message.toString());
 
-					psInsertMessage.setInt(1, message.id);
-					psInsertMessage.setInt(2, message.channel.id);
-					psInsertMessage.setTimestamp(3, new Timestamp(message.timestamp));
-					psInsertMessage.setInt(4, message.opcode);
-
-					// write payload
-					if (message.payload instanceof String) {
-						psInsertMessage.setClob(5, new JDBCClob((String) message.payload));
-						psInsertMessage.setNull(6, Types.BLOB);
-					} else if (message.payload instanceof byte[]) {
-						psInsertMessage.setNull(5, Types.CLOB);
-						psInsertMessage.setBlob(6, new JDBCBlob((byte[]) message.payload));
+					setInsertMessageParameters(message);
+					psInsertMessage.execute();
+					insertPayloadChunks(message);
+					indexer.offer(message);
+					if (isMessageCountsBuilt) {
+						messageCounts.add(message.channel.id, message.isOutgoing, message.opcode, 1);
 					} else {
-						throw new SQLException("Attribute 'payload' of class WebSocketMessageDTO has got wrong type!");
+						messageCountsChanged(message.channel.id);
 					}
 					
-					psInsertMessage.setInt(7, message.payloadLength);
-					psInsertMessage.setBoolean(8, message.isOutgoing);
-					psInsertMessage.execute();
-					
 					/* TODO re-implement support for fuzzing
 					if (message instanceof WebSocketFuzzMessageDTO) {
 						WebSocketFuzzMessageDTO fuzzMessage = (WebSocketFuzzMessageDTO) message;
@@ -678,33 +1289,302 @@ public class TableWebSocket extends ParosAbstractTable {
 		}
 	}
 
-	public List<WebSocketChannelDTO> getChannels(WebSocketChannelDTO criteria) throws DatabaseException {
+	/**
+	 * Inserts all given messages with one JDBC batch, that is executed within
+	 * a single transaction. Is used by {@link WebSocketStorageWriter} to
+	 * persist messages, that were queued by the listener threads.
+	 * <p>
+	 * Messages of channels, that are no longer stored (e.g. purged in the
+	 * meantime), are skipped.
+	 * 
+	 * @param messages
+	 * @throws DatabaseException
+	 */
+	public void insertMessages(List<WebSocketMessageDTO> messages) throws DatabaseException {
 		try {
-			String query = "SELECT c.* "
-					+ "FROM websocket_channel AS c "
-					+ "<where> "
-					+ "ORDER BY c.start_timestamp, c.channel_id";
+			// synchronize on whole object to avoid race conditions with insertOrUpdateChannel()
+			synchronized (this) {
+				Connection conn = getConnection();
+				if (conn.isClosed()) {
+					// temporarily buffer messages and write them the next time
+					messagesBuffer.addAll(messages);
+					return;
+				}
+				
+				if (channelsBuffer.size() > 0) {
+					// maybe messages belong to buffered channels
+					insertOrUpdateChannel(channelsBuffer.poll());
+				}
+				
+				int bufferedCount = messagesBuffer.size();
+				if (bufferedCount > 0) {
+					// previously buffered messages go first, they stay buffered if the batch fails
+					List<WebSocketMessageDTO> pending = new ArrayList<>(bufferedCount + messages.size());
+					pending.addAll(messagesBuffer);
+					pending.addAll(messages);
+					messages = pending;
+				}
+				
+				boolean autoCommit = conn.getAutoCommit();
+				conn.setAutoCommit(false);
+				try {
+					List<WebSocketMessageDTO> insertedMessages = new ArrayList<>(messages.size());
+					List<WebSocketMessageDTO> chunkedMessages = new ArrayList<>(0);
+					for (WebSocketMessageDTO message : messages) {
+						if (!isChannelInserted(message.channel.id)) {
+							logger.warn("Skip message " + message.toString() + " as its channel is not inserted.");
+							continue;
+						}
+						
+						setInsertMessageParameters(message);
+						psInsertMessage.addBatch();
+						insertedMessages.add(message);
+						
+						if (message.getPayloadFile() != null) {
+							chunkedMessages.add(message);
+						}
+					}
+					
+					int batchCount = insertedMessages.size();
+					if (batchCount > 0) {
+						psInsertMessage.executeBatch();
+					}
+					
+					// chunks refer to the message rows inserted before
+					for (WebSocketMessageDTO message : chunkedMessages) {
+						insertPayloadChunks(message);
+					}
+					conn.commit();
+					for (int i = 0; i < bufferedCount; i++) {
+						messagesBuffer.poll();
+					}
+					
+					for (WebSocketMessageDTO message : insertedMessages) {
+						indexer.offer(message);
+					}
+					
+					for (WebSocketMessageDTO message : insertedMessages) {
+						if (isMessageCountsBuilt) {
+							messageCounts.add(message.channel.id, message.isOutgoing, message.opcode, 1);
+						} else {
+							messageCountsChanged(message.channel.id);
+						}
+					}
+					
+					if (logger.isDebugEnabled()) {
+						logger.debug("inserted batch of " + batchCount + " messages");
+					}
+				} catch (SQLException e) {
+					psInsertMessage.clearBatch();
+					conn.rollback();
+					throw e;
+				} finally {
+					conn.setAutoCommit(autoCommit);
+				}
+			}
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
 
-			PreparedStatement stmt;
+	/**
+	 * Sets the parameters of {@link #psInsertMessage} from given message.
+	 * 
+	 * @param message
+	 * @throws SQLException
+	 */
+	private void setInsertMessageParameters(WebSocketMessageDTO message) throws SQLException {
+		psInsertMessage.setInt(1, message.id);
+		psInsertMessage.setInt(2, message.channel.id);
+		psInsertMessage.setTimestamp(3, new Timestamp(message.timestamp));
+		psInsertMessage.setInt(4, message.opcode);
+
+		// write payload as received, text is decoded when read
+		byte[] payload;
+		WebSocketPayloadFile payloadFile = message.getPayloadFile();
+		if (payloadFile != null) {
+			// first chunk only, see insertPayloadChunks()
 			try {
-				stmt = buildMessageCriteriaStatement(query, criteria);
-			} catch (SQLException e) {
-				if (getConnection().isClosed()) {
-					return new ArrayList<>(0);
+				payload = payloadFile.getBytes(PAYLOAD_CHUNK_SIZE);
+			} catch (IOException e) {
+				throw new SQLException("Could not read payload of message " + message.toString(), e);
+			}
+		} else {
+			payload = message.getPayloadBytes();
+		}
+		if (payload == null) {
+			throw new SQLException("Attribute 'payload' of class WebSocketMessageDTO is not set!");
+		}
+		psInsertMessage.setNull(5, Types.CLOB);
+		psInsertMessage.setBlob(6, new JDBCBlob(payload));
+		
+		psInsertMessage.setInt(7, message.payloadLength);
+		psInsertMessage.setBoolean(8, message.isOutgoing);
+	}
+
+	/**
+	 * Inserts the payload of a {@link WebSocketPayloadFile} following the
+	 * first chunk, that was stored in the message row. The file is streamed,
+	 * such that at most one chunk is kept in memory.
+	 * 
+	 * @param message
+	 * @throws SQLException
+	 */
+	private void insertPayloadChunks(WebSocketMessageDTO message) throws SQLException {
+		WebSocketPayloadFile payloadFile = message.getPayloadFile();
+		if (payloadFile == null || payloadFile.length() <= PAYLOAD_CHUNK_SIZE) {
+			return;
+		}
+		
+		try (InputStream in = payloadFile.getInputStream()) {
+			in.skip(PAYLOAD_CHUNK_SIZE);
+			
+			byte[] chunk = new byte[PAYLOAD_CHUNK_SIZE];
+			int chunkIndex = 1;
+			int length;
+			while ((length = readChunk(in, chunk)) > 0) {
+				psInsertChunk.setInt(1, message.id);
+				psInsertChunk.setInt(2, message.channel.id);
+				psInsertChunk.setInt(3, chunkIndex++);
+				psInsertChunk.setBlob(4, new JDBCBlob((length == chunk.length) ? chunk : Arrays.copyOf(chunk, length)));
+				psInsertChunk.execute();
+			}
+		} catch (IOException e) {
+			throw new SQLException("Could not read payload of message " + message.toString(), e);
+		}
+	}
+	
+	/**
+	 * Inserts the words of given messages into the full-text index, within a
+	 * single transaction. Is used by {@link WebSocketPayloadIndexer}, after
+	 * the messages were stored.
+	 * <p>
+	 * Messages of channels, that are no longer stored (e.g. purged in the
+	 * meantime), are skipped. If the batch fails, messages are retried one by
+	 * one, such that only the failing ones are not indexed.
+	 * 
+	 * @param messages
+	 * @throws DatabaseException
+	 */
+	void insertTokens(List<WebSocketPayloadIndexer.IndexedMessage> messages) throws DatabaseException {
+		if (messages.isEmpty()) {
+			return;
+		}
+		
+		try {
+			synchronized (this) {
+				Connection conn = getConnection();
+				if (conn.isClosed()) {
+					return;
 				}
 				
-				throw e;
+				boolean autoCommit = conn.getAutoCommit();
+				conn.setAutoCommit(false);
+				try {
+					for (WebSocketPayloadIndexer.IndexedMessage message : messages) {
+						if (isChannelInserted(message.channelId)) {
+							addTokens(message);
+						}
+					}
+					psInsertToken.executeBatch();
+					conn.commit();
+				} catch (SQLException e) {
+					psInsertToken.clearBatch();
+					conn.rollback();
+					if (logger.isDebugEnabled()) {
+						logger.debug("Retry indexing one by one: " + e.getMessage());
+					}
+					insertTokensOneByOne(conn, messages);
+				} finally {
+					conn.setAutoCommit(autoCommit);
+				}
+			}
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+
+	private void insertTokensOneByOne(Connection conn, List<WebSocketPayloadIndexer.IndexedMessage> messages)
+			throws SQLException, DatabaseException {
+		for (WebSocketPayloadIndexer.IndexedMessage message : messages) {
+			if (!isChannelInserted(message.channelId)) {
+				continue;
+			}
+			try {
+				addTokens(message);
+				psInsertToken.executeBatch();
+				conn.commit();
+			} catch (SQLException e) {
+				psInsertToken.clearBatch();
+				conn.rollback();
+				logger.warn("Could not index message " + message.toString() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Adds the words of given message to the batch of {@link #psInsertToken},
+	 * which has to be executed afterwards.
+	 * 
+	 * @param message
+	 * @throws SQLException
+	 */
+	private void addTokens(WebSocketPayloadIndexer.IndexedMessage message) throws SQLException {
+		for (String token : message.tokens) {
+			psInsertToken.setString(1, token);
+			psInsertToken.setInt(2, message.channelId);
+			psInsertToken.setInt(3, message.messageId);
+			psInsertToken.addBatch();
+		}
+	}
+	
+	private static int readChunk(InputStream in, byte[] chunk) throws IOException {
+		int length = 0;
+		int read;
+		while (length < chunk.length && (read = in.read(chunk, length, chunk.length - length)) != -1) {
+			length += read;
+		}
+		return length;
+	}
+
+	public List<WebSocketChannelDTO> getChannels(WebSocketChannelDTO criteria) throws DatabaseException {
+		ReadConnection reader = acquireReadConnection();
+		try {
+			return getChannels(reader, criteria);
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		} finally {
+			releaseReadConnection(reader);
+		}
+	}
+	
+	private List<WebSocketChannelDTO> getChannels(ReadConnection reader, WebSocketChannelDTO criteria) throws SQLException, DatabaseException {
+		String query = "SELECT c.* "
+				+ "FROM websocket_channel AS c "
+				+ "<where> "
+				+ "ORDER BY c.start_timestamp, c.channel_id";
+
+		PreparedStatement stmt;
+		try {
+			stmt = buildMessageCriteriaStatement(reader, query, criteria);
+		} catch (SQLException e) {
+			if (reader.isClosed()) {
+				return new ArrayList<>(0);
 			}
 			
+			throw e;
+		}
+		
+		try {
 			stmt.execute();
 			
 			return buildChannelDTOs(stmt.getResultSet());
-		} catch (SQLException e) {
-			throw new DatabaseException(e);
+		} finally {
+			stmt.close();
 		}
 	}
 	
-	private PreparedStatement buildMessageCriteriaStatement(String query, WebSocketChannelDTO criteria) throws SQLException, DatabaseException {
+	private PreparedStatement buildMessageCriteriaStatement(ReadConnection reader, String query, WebSocketChannelDTO criteria) throws SQLException, DatabaseException {
 		List<String> where = new ArrayList<>();
 		List<Object> params = new ArrayList<>();
 	
@@ -713,10 +1593,10 @@ public class TableWebSocket extends ParosAbstractTable {
 			params.add(criteria.id);
 		}
 		
-		return buildCriteriaStatementHelper(query, where, params);
+		return buildCriteriaStatementHelper(reader, query, where, params);
 	}
 
-	private PreparedStatement buildCriteriaStatementHelper(String query, List<String> where, List<Object> params) 
+	private PreparedStatement buildCriteriaStatementHelper(ReadConnection reader, String query, List<String> where, List<Object> params) 
 			throws DatabaseException, SQLException {
 		int conditionsCount = where.size();
 		if (conditionsCount > 0) {
@@ -737,7 +1617,7 @@ public class TableWebSocket extends ParosAbstractTable {
 			query = query.replace("<where> ", "");
 		}
 
-		PreparedStatement stmt = getConnection().prepareStatement(query);
+		PreparedStatement stmt = reader.connection.prepareStatement(query);
 		try {
 			int i = 1;
 			for (Object param : params) {
@@ -755,22 +1635,238 @@ public class TableWebSocket extends ParosAbstractTable {
 	 * Deletes all entries from given channelId from database.
 	 * 
 	 * @param channelId
-	 * @throws SQLException 
+	 * @throws SQLException
+	 * @see #purgeChannels(Collection)
 	 */
 	public void purgeChannel(Integer channelId) throws SQLException {
+		try {
+			purgeChannelBatch(Collections.singletonList(channelId));
+		} catch (DatabaseException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	/**
+	 * Deletes given channels with all their messages. Channels are deleted in
+	 * batches of {@value #PURGE_BATCH_SIZE}, each within one transaction, such
+	 * that messages of other channels can be stored in between.
+	 * 
+	 * @param channelIds
+	 * @return number of deleted channels
+	 * @throws DatabaseException
+	 */
+	public int purgeChannels(Collection<Integer> channelIds) throws DatabaseException {
+		List<Integer> ids = new ArrayList<>(channelIds);
+		int purgedCount = 0;
+		try {
+			for (int from = 0; from < ids.size(); from += PURGE_BATCH_SIZE) {
+				int to = Math.min(from + PURGE_BATCH_SIZE, ids.size());
+				purgedCount += purgeChannelBatch(ids.subList(from, to));
+			}
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		
+		if (logger.isDebugEnabled()) {
+			logger.debug("purged " + purgedCount + " channels");
+		}
+		return purgedCount;
+	}
+
+	/**
+	 * Deletes messages and channels of given ids within one transaction.
+	 * 
+	 * @param ids at most {@value #PURGE_BATCH_SIZE} channel ids
+	 * @return number of deleted channels
+	 * @throws SQLException
+	 * @throws DatabaseException
+	 */
+	private int purgeChannelBatch(List<Integer> ids) throws SQLException, DatabaseException {
 		synchronized (this) {
-			if (channelIds.contains(channelId)) {
-				psDeleteMessagesByChannelId.setInt(1, channelId);
-				psDeleteMessagesByChannelId.execute();
+			List<Integer> insertedIds = new ArrayList<>(ids.size());
+			for (Integer channelId : ids) {
+				if (isChannelInserted(channelId)) {
+					insertedIds.add(channelId);
+				}
+			}
+			if (insertedIds.isEmpty()) {
+				return 0;
+			}
+			
+			StringBuilder inList = new StringBuilder(" IN (");
+			appendParameterList(inList, insertedIds.size());
+			inList.append(')');
+			
+			// payload chunks, tokens and fuzz results are deleted by cascade
+			Connection conn = getConnection();
+			boolean autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			try {
+				executeWithChannelIds(conn, "DELETE FROM websocket_message WHERE channel_id" + inList, insertedIds);
+				executeWithChannelIds(conn, "DELETE FROM websocket_channel WHERE channel_id" + inList, insertedIds);
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(autoCommit);
+			}
+			
+			BitSet currentIds = getChannelIds();
+			LRUMap cache = channelCache;
+			for (Integer channelId : insertedIds) {
+				currentIds.clear(channelId);
+				messageCounts.removeChannel(channelId);
+				messageCountsChanged(channelId);
+				synchronized (cache) {
+					cache.remove(channelId);
+				}
+			}
+			synchronized (payloadFileCache) {
+				payloadFileCache.clear();
+			}
+			return insertedIds.size();
+		}
+	}
+
+	private static void executeWithChannelIds(Connection conn, String statement, List<Integer> channelIds) throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement(statement);
+		try {
+			int i = 1;
+			for (Integer channelId : channelIds) {
+				stmt.setInt(i++, channelId);
+			}
+			stmt.execute();
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private static void appendParameterList(StringBuilder query, int count) {
+		for (int i = 0; i < count; i++) {
+			query.append((i == 0) ? "?" : ",?");
+		}
+	}
+
+	/**
+	 * Looks up text messages containing all words of given query in the
+	 * full-text index. The words are split like payloads when they are stored
+	 * (letters, digits and underscores), case is ignored. Only the first
+	 * 64 KB of a payload are indexed and messages stored before the index was introduced are not
+	 * found.
+	 * 
+	 * @param query one or more words
+	 * @param limit maximum number of keys returned
+	 * @return keys of matching messages, ordered by channel and message id
+	 * @throws DatabaseException
+	 */
+	public List<WebSocketMessagePrimaryKey> searchMessages(String query, int limit) throws DatabaseException {
+		Set<String> tokens = WebSocketPayloadTokenizer.tokenize(query, WebSocketPayloadTokenizer.MAX_TOKENS);
+		if (tokens.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		
+		ReadConnection reader = acquireReadConnection();
+		try {
+			List<String> orderedTokens;
+			try {
+				orderedTokens = orderByPostingCount(reader, tokens);
+			} catch (SQLException e) {
+				if (reader.isClosed()) {
+					return new ArrayList<>(0);
+				}
+				
+				throw e;
+			}
+			if (orderedTokens.isEmpty()) {
+				// at least one word is not contained in any message
+				return new ArrayList<>(0);
+			}
+			
+			// walks the postings of the rarest word in the order of the
+			// primary key and looks up the other words per message, such
+			// that postings of common words are not collected
+			StringBuilder sql = new StringBuilder("SELECT t.channel_id, t.message_id "
+					+ "FROM websocket_message_token AS t "
+					+ "WHERE t.token = ?");
+			for (int i = 1; i < orderedTokens.size(); i++) {
+				sql.append(" AND EXISTS (SELECT 1 FROM websocket_message_token AS o").append(i)
+						.append(" WHERE o").append(i).append(".token = ?")
+						.append(" AND o").append(i).append(".channel_id = t.channel_id")
+						.append(" AND o").append(i).append(".message_id = t.message_id)");
+			}
+			sql.append(" ORDER BY t.channel_id, t.message_id "
+					+ "LIMIT ?");
+			
+			PreparedStatement stmt = reader.connection.prepareStatement(sql.toString());
+			try {
+				int paramIndex = 1;
+				for (String token : orderedTokens) {
+					stmt.setString(paramIndex++, token);
+				}
+				stmt.setInt(paramIndex, limit);
 				
-				psDeleteChannel.setInt(1, channelId);
-				psDeleteChannel.execute();
+				stmt.execute();
 				
-				channelIds.remove(channelId);
+				List<WebSocketMessagePrimaryKey> keys = new ArrayList<>();
+				ResultSet rs = stmt.getResultSet();
+				try {
+					while (rs.next()) {
+						keys.add(new WebSocketMessagePrimaryKey(rs.getInt(1), rs.getInt(2)));
+					}
+				} finally {
+					rs.close();
+				}
+				return keys;
+			} finally {
+				stmt.close();
 			}
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		} finally {
+			releaseReadConnection(reader);
 		}
 	}
 
+	/**
+	 * Orders given words by the number of messages containing them, rarest
+	 * first. Postings are counted up to {@link #MAX_COUNTED_POSTINGS} only,
+	 * as the exact number of common words does not matter.
+	 * 
+	 * @param reader
+	 * @param tokens
+	 * @return ordered words or an empty list if one of them is not indexed
+	 * @throws SQLException
+	 */
+	private List<String> orderByPostingCount(ReadConnection reader, Set<String> tokens) throws SQLException {
+		final Map<String, Integer> counts = new HashMap<>();
+		PreparedStatement stmt = reader.connection.prepareStatement("SELECT COUNT(*) "
+				+ "FROM (SELECT t.message_id FROM websocket_message_token AS t "
+				+ "WHERE t.token = ? LIMIT " + MAX_COUNTED_POSTINGS + ") AS p");
+		try {
+			for (String token : tokens) {
+				stmt.setString(1, token);
+				int count = executeAndGetSingleIntValue(stmt);
+				if (count == 0) {
+					return new ArrayList<>(0);
+				}
+				counts.put(token, count);
+			}
+		} finally {
+			stmt.close();
+		}
+		
+		List<String> orderedTokens = new ArrayList<>(tokens);
+		Collections.sort(orderedTokens, new Comparator<String>() {
+
+			@Override
+			public int compare(String token, String otherToken) {
+				return counts.get(token).compareTo(counts.get(otherToken));
+			}
+		});
+		return orderedTokens;
+	}
+
 	/**
 	 * @return current maximum value of the channel column
 	 * @throws SQLException 
@@ -780,4 +1876,75 @@ public class TableWebSocket extends ParosAbstractTable {
 			return executeAndGetSingleIntValue(psSelectMaxChannelId);
 		}
 	}
+
+	/**
+	 * Connection with the prepared statements needed for reading, used by one
+	 * thread at a time (see {@link TableWebSocket#acquireReadConnection()}).
+	 */
+	private static class ReadConnection {
+		
+		private final Connection connection;
+		
+		/**
+		 * True if the connection is the one of the writer, i.e. it must not be
+		 * closed with this object.
+		 */
+		private final boolean isShared;
+		
+		private final PreparedStatement psSelectChannels;
+		private final PreparedStatement psSelectMessage;
+		private final PreparedStatement psSelectChunks;
+		
+		public ReadConnection(Connection connection, boolean isShared) throws SQLException {
+			this.connection = connection;
+			this.isShared = isShared;
+			
+			try {
+				psSelectChannels = connection.prepareStatement("SELECT c.* "
+						+ "FROM websocket_channel AS c "
+						+ "ORDER BY c.channel_id");
+				
+				psSelectMessage = connection.prepareStatement("SELECT m.*, f.fuzz_id, f.state, f.fuzz "
+						+ "FROM websocket_message AS m "
+						+ "LEFT OUTER JOIN websocket_message_fuzz f "
+						+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
+						+ "WHERE m.message_id = ? AND m.channel_id = ?");
+				
+				psSelectChunks = connection.prepareStatement("SELECT k.chunk_bytes "
+						+ "FROM websocket_message_chunk AS k "
+						+ "WHERE k.message_id = ? AND k.channel_id = ? "
+						+ "ORDER BY k.chunk_index");
+			} catch (SQLException e) {
+				if (!isShared) {
+					connection.close();
+				}
+				throw e;
+			}
+		}
+		
+		public boolean isClosed() {
+			try {
+				return connection.isClosed();
+			} catch (SQLException e) {
+				return true;
+			}
+		}
+		
+		public void close() {
+			try {
+				if (isShared) {
+					psSelectChannels.close();
+					psSelectMessage.close();
+					psSelectChunks.close();
+				} else {
+					// closes statements too
+					connection.close();
+				}
+			} catch (SQLException e) {
+				if (logger.isDebugEnabled()) {
+					logger.debug(e.getMessage(), e);
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,110 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Number of stored messages per channel, direction and opcode. It is
+ * maintained by {@link TableWebSocket} while messages are inserted or
+ * purged and rebuilt once when a session is opened, such that the number of
+ * messages matching a filter is known without a <code>COUNT</code> query.
+ */
+public class WebSocketMessageCounts {
+
+	/**
+	 * Opcodes are 4 bits.
+	 */
+	private static final int OPCODE_COUNT = 16;
+
+	private final ConcurrentMap<Integer, AtomicIntegerArray> counts = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the number of messages, that fulfill all given criteria.
+	 * 
+	 * @param channelId Null for messages of all channels.
+	 * @param isOutgoing Null for both directions.
+	 * @param opcodes Null or empty for all opcodes.
+	 * @param inScopeChannelIds Null if messages of all channels should be counted.
+	 * @return number of messages
+	 */
+	public int getCount(Integer channelId, Boolean isOutgoing, List<Integer> opcodes, List<Integer> inScopeChannelIds) {
+		if (channelId != null) {
+			if (inScopeChannelIds != null && !inScopeChannelIds.contains(channelId)) {
+				return 0;
+			}
+			return getCount(counts.get(channelId), isOutgoing, opcodes);
+		}
+
+		int count = 0;
+		for (Map.Entry<Integer, AtomicIntegerArray> entry : counts.entrySet()) {
+			if (inScopeChannelIds == null || inScopeChannelIds.contains(entry.getKey())) {
+				count += getCount(entry.getValue(), isOutgoing, opcodes);
+			}
+		}
+		return count;
+	}
+
+	private static int getCount(AtomicIntegerArray channelCounts, Boolean isOutgoing, List<Integer> opcodes) {
+		if (channelCounts == null) {
+			return 0;
+		}
+
+		int count = 0;
+		for (int opcode = 0; opcode < OPCODE_COUNT; opcode++) {
+			if (opcodes != null && !opcodes.isEmpty() && !opcodes.contains(opcode)) {
+				continue;
+			}
+			if (isOutgoing == null || isOutgoing) {
+				count += channelCounts.get(getIndex(true, opcode));
+			}
+			if (isOutgoing == null || !isOutgoing) {
+				count += channelCounts.get(getIndex(false, opcode));
+			}
+		}
+		return count;
+	}
+
+	void add(int channelId, boolean isOutgoing, int opcode, int delta) {
+		AtomicIntegerArray channelCounts = counts.get(channelId);
+		if (channelCounts == null) {
+			AtomicIntegerArray newCounts = new AtomicIntegerArray(2 * OPCODE_COUNT);
+			channelCounts = counts.putIfAbsent(channelId, newCounts);
+			if (channelCounts == null) {
+				channelCounts = newCounts;
+			}
+		}
+		channelCounts.addAndGet(getIndex(isOutgoing, opcode), delta);
+	}
+
+	void removeChannel(int channelId) {
+		counts.remove(channelId);
+	}
+
+	void clear() {
+		counts.clear();
+	}
+
+	private static int getIndex(boolean isOutgoing, int opcode) {
+		return (isOutgoing ? OPCODE_COUNT : 0) + (opcode & 0x0F);
+	}
+}
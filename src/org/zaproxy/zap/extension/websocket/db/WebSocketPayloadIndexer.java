@@ -0,0 +1,206 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketPayloadFile;
+
+/**
+ * Builds the full-text index of {@link TableWebSocket} in the background, such
+ * that neither listener threads nor the storage writer tokenize payloads and
+ * insert their words. Stored text messages are queued and indexed in batches
+ * by one thread, that is started on demand and exits when idle.
+ * <p>
+ * Messages are not indexed, i.e. not found by
+ * {@link TableWebSocket#searchMessages(String, int)}, if the queue is full.
+ */
+class WebSocketPayloadIndexer implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(WebSocketPayloadIndexer.class);
+
+	/**
+	 * Maximum number of stored messages waiting to be indexed.
+	 */
+	static final int QUEUE_CAPACITY = 10000;
+
+	/**
+	 * Maximum number of messages indexed within one transaction.
+	 */
+	static final int BATCH_SIZE = 100;
+
+	/**
+	 * Seconds after which the idle thread exits.
+	 */
+	private static final int KEEP_ALIVE_TIME = 30;
+
+	private final TableWebSocket table;
+
+	private final BlockingQueue<WebSocketMessageDTO> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+	/**
+	 * True while {@link #run()} is scheduled or running.
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	public WebSocketPayloadIndexer(TableWebSocket table) {
+		this.table = table;
+
+		executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ZAP-WS-Payload-Indexer");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues given message, that was stored already. Messages other than text
+	 * messages are ignored.
+	 * 
+	 * @param message
+	 */
+	public void offer(WebSocketMessageDTO message) {
+		if (message.opcode == null || message.opcode != WebSocketMessage.OPCODE_TEXT) {
+			return;
+		}
+
+		if (!queue.offer(message)) {
+			if (droppedCount.incrementAndGet() % QUEUE_CAPACITY == 1) {
+				logger.warn("Indexing queue is full, " + droppedCount.get() + " messages were not indexed so far.");
+			}
+			return;
+		}
+
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(this);
+		}
+	}
+
+	/**
+	 * Removes all queued messages, e.g. as their session was closed.
+	 */
+	public void clear() {
+		queue.clear();
+	}
+
+	/**
+	 * @return number of messages, that were not indexed as the queue was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	@Override
+	public void run() {
+		List<WebSocketMessageDTO> messages = new ArrayList<>(BATCH_SIZE);
+		while (true) {
+			queue.drainTo(messages, BATCH_SIZE);
+			if (messages.isEmpty()) {
+				scheduled.set(false);
+				// a message offered in the meantime did not schedule another run
+				if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+					return;
+				}
+				continue;
+			}
+
+			// tokenize without holding the monitor of the table
+			List<IndexedMessage> batch = new ArrayList<>(messages.size());
+			for (WebSocketMessageDTO message : messages) {
+				Set<String> tokens = tokenize(message);
+				if (tokens != null && !tokens.isEmpty()) {
+					batch.add(new IndexedMessage(message.channel.id, message.id, tokens));
+				}
+			}
+			messages.clear();
+
+			try {
+				table.insertTokens(batch);
+			} catch (DatabaseException e) {
+				logger.warn("Could not index " + batch.size() + " messages: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private static Set<String> tokenize(WebSocketMessageDTO message) {
+		byte[] payload;
+		WebSocketPayloadFile payloadFile = message.getPayloadFile();
+		if (payloadFile != null) {
+			try {
+				payload = payloadFile.getBytes(WebSocketPayloadTokenizer.MAX_INDEXED_BYTES);
+			} catch (IOException e) {
+				logger.warn("Could not read payload of message " + message.toString() + ": " + e.getMessage());
+				return null;
+			}
+		} else {
+			payload = message.getPayloadBytes();
+		}
+		if (payload == null) {
+			return null;
+		}
+		return WebSocketPayloadTokenizer.tokenize(payload);
+	}
+
+	/**
+	 * Words of one stored message.
+	 */
+	static class IndexedMessage {
+
+		final int channelId;
+
+		final int messageId;
+
+		final Set<String> tokens;
+
+		IndexedMessage(int channelId, int messageId, Set<String> tokens) {
+			this.channelId = channelId;
+			this.messageId = messageId;
+			this.tokens = tokens;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + channelId + "." + messageId;
+		}
+	}
+}
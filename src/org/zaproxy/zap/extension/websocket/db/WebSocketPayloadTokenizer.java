@@ -0,0 +1,108 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
+
+/**
+ * Splits text payloads into the words kept in the full-text index of
+ * {@link TableWebSocket}. A word is a run of letters, digits or underscores,
+ * which is lower-cased and truncated to {@link #MAX_TOKEN_LENGTH} characters.
+ * <p>
+ * Only the beginning of a payload is indexed, such that huge messages do not
+ * bloat the index (see {@link #MAX_INDEXED_BYTES} and {@link #MAX_TOKENS}).
+ */
+class WebSocketPayloadTokenizer {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Shorter words are not indexed.
+	 */
+	static final int MIN_TOKEN_LENGTH = 2;
+
+	/**
+	 * Longer words are truncated, must fit into column <code>token</code>.
+	 */
+	static final int MAX_TOKEN_LENGTH = 64;
+
+	/**
+	 * Number of payload bytes that are indexed at most.
+	 */
+	static final int MAX_INDEXED_BYTES = 64 * 1024;
+
+	/**
+	 * Number of distinct words indexed per message at most.
+	 */
+	static final int MAX_TOKENS = 256;
+
+	private WebSocketPayloadTokenizer() {
+	}
+
+	/**
+	 * Returns the distinct words of the given UTF-8 payload, in order of
+	 * their first occurrence.
+	 * 
+	 * @param utf8bytes
+	 * @return words to be indexed, might be empty
+	 */
+	static Set<String> tokenize(byte[] utf8bytes) {
+		int length = Math.min(utf8bytes.length, MAX_INDEXED_BYTES);
+		if (length < utf8bytes.length) {
+			length = Utf8Util.getCompleteLength(utf8bytes, length);
+		}
+		return tokenize(new String(utf8bytes, 0, length, UTF8_CHARSET), MAX_TOKENS);
+	}
+
+	/**
+	 * Returns the distinct words of the given text, in order of their first
+	 * occurrence.
+	 * 
+	 * @param text
+	 * @param maxTokens number of words after which the text is not examined any further
+	 * @return words, might be empty
+	 */
+	static Set<String> tokenize(String text, int maxTokens) {
+		Set<String> tokens = new LinkedHashSet<>();
+		int length = text.length();
+		int start = -1;
+		for (int i = 0; i <= length && tokens.size() < maxTokens; i++) {
+			if (i < length && isWordChar(text.charAt(i))) {
+				if (start == -1) {
+					start = i;
+				}
+			} else if (start != -1) {
+				if (i - start >= MIN_TOKEN_LENGTH) {
+					int end = Math.min(i, start + MAX_TOKEN_LENGTH);
+					tokens.add(text.substring(start, end).toLowerCase(Locale.ROOT));
+				}
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+}
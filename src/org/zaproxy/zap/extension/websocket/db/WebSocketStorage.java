@@ -17,21 +17,21 @@
  */
 package org.zaproxy.zap.extension.websocket.db;
 
-import java.sql.SQLException;
+import java.util.Collection;
 
 import org.apache.log4j.Logger;
 import org.parosproxy.paros.db.DatabaseException;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
-import org.zaproxy.zap.extension.websocket.WebSocketObserver;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+import org.zaproxy.zap.extension.websocket.WebSocketReadOnlyObserver;
 
 /**
  * Listens to all WebSocket messages and utilizes {@link TableWebSocket} to
  * store messages in database.
  */
-public class WebSocketStorage implements WebSocketObserver {
+public class WebSocketStorage implements WebSocketReadOnlyObserver {
 
 	private static final Logger logger = Logger
 			.getLogger(WebSocketStorage.class);
@@ -41,6 +41,11 @@ public class WebSocketStorage implements WebSocketObserver {
 
 	private TableWebSocket table;
 
+	/**
+	 * If set, messages are written asynchronously in batches.
+	 */
+	private WebSocketStorageWriter writer;
+
 	public WebSocketStorage(TableWebSocket table) {
 		this.table = table;
 	}
@@ -55,10 +60,14 @@ public class WebSocketStorage implements WebSocketObserver {
 		if (wsMessage.isFinished()) {
 			WebSocketMessageDTO message = wsMessage.getDTO();
 
-			try {
-				table.insertMessage(message);
-			} catch (DatabaseException e) {
-				logger.error(e.getMessage(), e);
+			if (writer != null) {
+				writer.offer(message);
+			} else {
+				try {
+					table.insertMessage(message);
+				} catch (DatabaseException e) {
+					logger.error(e.getMessage(), e);
+				}
 			}
 		}
 
@@ -71,12 +80,41 @@ public class WebSocketStorage implements WebSocketObserver {
 	}
 	
 	public void setTable(TableWebSocket table) {
+		if (writer != null) {
+			writer.setTable(table);
+		}
 		this.table = table;
 	}
 
+	public WebSocketStorageWriter getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Set a writer to store messages asynchronously in batches instead of
+	 * writing them on the listener thread. Provide null to write messages
+	 * synchronously again. Previously used writers are stopped.
+	 * 
+	 * @param writer
+	 */
+	public void setWriter(WebSocketStorageWriter writer) {
+		WebSocketStorageWriter oldWriter = this.writer;
+		this.writer = writer;
+		
+		if (oldWriter != null) {
+			oldWriter.stop();
+		}
+		
+		if (writer != null) {
+			writer.setTable(table);
+			writer.start();
+		}
+	}
+
 	@Override
 	public void onStateChange(State state, WebSocketProxy proxy) {
-		if (state.equals(State.OPEN) || state.equals(State.CLOSED) || state.equals(State.INCLUDED)) {
+		if (state.equals(State.OPEN) || state.equals(State.CLOSED) || state.equals(State.INCLUDED)
+				|| state.equals(State.UPDATED)) {
 			try {
 				if (table != null) {
 					table.insertOrUpdateChannel(proxy.getDTO());
@@ -86,14 +124,29 @@ public class WebSocketStorage implements WebSocketObserver {
 			} catch (DatabaseException e) {
 				logger.error(e.getMessage(), e);
 			}
-		} else if (state.equals(State.EXCLUDED)) {
-			// when proxy is excluded from ZAP, then messages are forwarded
-			// but not stored - all existing communication is deleted
-            try {
-				table.purgeChannel(proxy.getChannelId());
-			} catch (SQLException e) {
-				logger.error(e.getMessage(), e);
-			}
 		}
+		// communication of excluded channels is deleted with purgeChannels(),
+		// once the ignore list was applied to all channels
+	}
+
+	/**
+	 * Deletes given channels with all their messages. Messages queued for
+	 * the asynchronous writer are written before, such that none of them
+	 * remains afterwards.
+	 * 
+	 * @param channelIds
+	 * @return number of deleted channels
+	 * @throws DatabaseException
+	 * @see TableWebSocket#purgeChannels(Collection)
+	 */
+	public int purgeChannels(Collection<Integer> channelIds) throws DatabaseException {
+		if (table == null || channelIds.isEmpty()) {
+			return 0;
+		}
+		
+		if (writer != null) {
+			writer.flush();
+		}
+		return table.purgeChannels(channelIds);
 	}
 }
@@ -0,0 +1,395 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.stats.LatencyHistogram;
+
+/**
+ * Write-behind pipeline for {@link TableWebSocket}. Listener threads hand over
+ * messages to a bounded queue, which is drained by one dedicated thread, that
+ * writes messages in batches via {@link TableWebSocket#insertMessages(List)}.
+ * <p>
+ * A batch is written as soon as it contains {@link #getBatchSize()} messages
+ * or when the first message of the batch waited for
+ * {@link #getFlushInterval()} milliseconds. When the queue is full, the
+ * listener thread either blocks until there is space again (back-pressure) or
+ * the message is dropped, depending on {@link #isDropOnOverflow()}.
+ * <p>
+ * If a batch can not be written, its messages are retried one by one, such
+ * that only the failing ones are dropped. Messages offered after the writer
+ * was stopped are written by the calling thread.
+ */
+public class WebSocketStorageWriter implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(WebSocketStorageWriter.class);
+
+	/**
+	 * Queued by {@link #stop()} to wake up the writer thread, never written.
+	 */
+	private static final QueuedMessage STOP_MARKER = new QueuedMessage(null);
+
+	private final BlockingQueue<QueuedMessage> queue;
+
+	private final int batchSize;
+
+	private final long flushInterval;
+
+	private final boolean dropOnOverflow;
+
+	/**
+	 * Serializes writes of the writer thread and explicit {@link #flush()}
+	 * calls.
+	 */
+	private final Object writeLock = new Object();
+
+	private volatile TableWebSocket table;
+
+	private volatile boolean running;
+
+	private Thread thread;
+
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong totalFlushTime = new AtomicLong();
+	private volatile long lastFlushTime;
+
+	/**
+	 * Time from queuing a message until it was written.
+	 */
+	private final LatencyHistogram queueLatency = new LatencyHistogram();
+
+	/**
+	 * @param table Messages are written to this table, might be null.
+	 * @param queueCapacity Maximum number of messages waiting to be written.
+	 * @param batchSize Maximum number of messages written at once.
+	 * @param flushInterval Maximum time in milliseconds a message waits for its batch.
+	 * @param dropOnOverflow If true, messages are dropped when the queue is full.
+	 */
+	public WebSocketStorageWriter(TableWebSocket table, int queueCapacity, int batchSize, long flushInterval, boolean dropOnOverflow) {
+		if (queueCapacity <= 0 || batchSize <= 0 || flushInterval <= 0) {
+			throw new IllegalArgumentException("Queue capacity, batch size and flush interval must be positive.");
+		}
+
+		this.table = table;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+		this.dropOnOverflow = dropOnOverflow;
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+
+		running = true;
+		thread = new Thread(this, "ZAP-WS-Storage-Writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the writer thread and writes all messages, that are still queued.
+	 * The writer thread is not interrupted, as it might be in the middle of
+	 * a JDBC call, it finishes its current batch and exits.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+
+		running = false;
+		// wakes up the writer thread, which polls with a timeout anyway
+		queue.offer(STOP_MARKER);
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		thread = null;
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		flush();
+	}
+
+	/**
+	 * Queues given message for writing. Called by the listener threads.
+	 * 
+	 * @param message
+	 * @return False if message was dropped, as the queue is full.
+	 */
+	public boolean offer(WebSocketMessageDTO message) {
+		QueuedMessage queued = new QueuedMessage(message);
+		if (!running) {
+			// writer thread is stopped, nobody else would write the message
+			List<QueuedMessage> batch = new ArrayList<>(1);
+			batch.add(queued);
+			write(batch);
+			return true;
+		}
+
+		if (dropOnOverflow) {
+			if (!queue.offer(queued)) {
+				droppedCount.incrementAndGet();
+				if (logger.isDebugEnabled()) {
+					logger.debug("Storage queue is full - dropped message " + message.toString());
+				}
+				return false;
+			}
+		} else {
+			try {
+				queue.put(queued);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				droppedCount.incrementAndGet();
+				return false;
+			}
+		}
+
+		if (!running) {
+			// stop() might have done its final flush before the message was queued
+			flush();
+		}
+		return true;
+	}
+
+	/**
+	 * Writes all queued messages in the calling thread. Use it before the
+	 * table is changed or channels are purged.
+	 */
+	public void flush() {
+		List<QueuedMessage> batch = new ArrayList<>(batchSize);
+		while (queue.drainTo(batch, batchSize) > 0) {
+			write(batch);
+			batch.clear();
+		}
+	}
+
+	@Override
+	public void run() {
+		List<QueuedMessage> batch = new ArrayList<>(batchSize);
+		while (running) {
+			try {
+				QueuedMessage first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+				if (first == null || first == STOP_MARKER) {
+					continue;
+				}
+				batch.add(first);
+
+				// fill up batch until it is full or the first message waited long enough
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+				while (running && batch.size() < batchSize) {
+					queue.drainTo(batch, batchSize - batch.size());
+					if (batch.size() >= batchSize) {
+						break;
+					}
+
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						break;
+					}
+
+					QueuedMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null || next == STOP_MARKER) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				// not interrupted by stop(), which queues STOP_MARKER instead
+				logger.warn("WebSocket storage writer was interrupted, messages are written synchronously.");
+				running = false;
+			}
+
+			if (!batch.isEmpty()) {
+				write(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void write(List<QueuedMessage> batch) {
+		List<QueuedMessage> queuedMessages = new ArrayList<>(batch.size());
+		List<WebSocketMessageDTO> messages = new ArrayList<>(batch.size());
+		for (QueuedMessage queued : batch) {
+			if (queued != STOP_MARKER) {
+				queuedMessages.add(queued);
+				messages.add(queued.message);
+			}
+		}
+		if (messages.isEmpty()) {
+			return;
+		}
+
+		synchronized (writeLock) {
+			TableWebSocket currentTable = table;
+			if (currentTable == null) {
+				droppedCount.addAndGet(messages.size());
+				logger.warn("Dropped " + messages.size() + " WebSocket messages as no table is available.");
+				return;
+			}
+
+			long start = System.nanoTime();
+			try {
+				currentTable.insertMessages(messages);
+				writtenCount.addAndGet(messages.size());
+				recordLatency(queuedMessages);
+			} catch (DatabaseException e) {
+				logger.warn("Could not write batch of " + messages.size()
+						+ " WebSocket messages, retrying one by one: " + e.getMessage());
+				writeOneByOne(currentTable, queuedMessages);
+			}
+
+			long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			lastFlushTime = duration;
+			totalFlushTime.addAndGet(duration);
+			flushCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes the messages of a failed batch one by one, such that only the
+	 * messages that fail again are dropped.
+	 */
+	private void writeOneByOne(TableWebSocket currentTable, List<QueuedMessage> queuedMessages) {
+		List<QueuedMessage> written = new ArrayList<>(queuedMessages.size());
+		for (QueuedMessage queued : queuedMessages) {
+			try {
+				currentTable.insertMessage(queued.message);
+				written.add(queued);
+			} catch (DatabaseException e) {
+				droppedCount.incrementAndGet();
+				logger.error("Dropped message " + queued.message.toString() + ": " + e.getMessage(), e);
+			}
+		}
+		writtenCount.addAndGet(written.size());
+		recordLatency(written);
+	}
+
+	private void recordLatency(List<QueuedMessage> queuedMessages) {
+		long now = System.nanoTime();
+		for (QueuedMessage queued : queuedMessages) {
+			queueLatency.record(now - queued.queuedAt);
+		}
+	}
+
+	/**
+	 * Messages written afterwards are stored in given table. Queued messages
+	 * are written to the previous table first.
+	 * 
+	 * @param table
+	 */
+	public void setTable(TableWebSocket table) {
+		flush();
+		this.table = table;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return maximum time in milliseconds a message waits for its batch
+	 */
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	public boolean isDropOnOverflow() {
+		return dropOnOverflow;
+	}
+
+	/**
+	 * @return number of messages waiting to be written
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return number of messages that were dropped (full queue or failed write)
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return number of messages successfully written
+	 */
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	/**
+	 * @return duration of the last batch write in milliseconds
+	 */
+	public long getLastFlushTime() {
+		return lastFlushTime;
+	}
+
+	/**
+	 * @return average duration of one batch write in milliseconds
+	 */
+	public long getAverageFlushTime() {
+		long count = flushCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		return totalFlushTime.get() / count;
+	}
+
+	/**
+	 * @return time in nanoseconds from queuing a message until it was written
+	 */
+	public LatencyHistogram getQueueLatency() {
+		return queueLatency;
+	}
+
+	/**
+	 * Message waiting to be written, with the time it was queued.
+	 */
+	private static class QueuedMessage {
+
+		private final WebSocketMessageDTO message;
+
+		private final long queuedAt = System.nanoTime();
+
+		public QueuedMessage(WebSocketMessageDTO message) {
+			this.message = message;
+		}
+	}
+}
@@ -17,9 +17,13 @@
  */
 package org.zaproxy.zap.extension.websocket.filter;
 
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
+import org.apache.log4j.Logger;
 import org.parosproxy.paros.Constant;
 import org.parosproxy.paros.extension.filter.FilterAbstractReplace;
 import org.parosproxy.paros.extension.filter.FilterReplaceDialog;
@@ -33,9 +37,15 @@ import org.zaproxy.zap.extension.websocket.ui.ChannelSortedListModel;
 
 /**
  * Base class for filtering WebSockets traffic.
+ * <p>
+ * Payloads are replaced by a {@link WebSocketPayloadReplacer}, that aborts
+ * patterns exceeding their budget. Such payloads are forwarded unchanged.
+ * Timing counters help to spot expensive patterns.
  */
 public class FilterWebSocketPayload extends FilterAbstractReplace implements WebSocketFilter {
 
+	private static final Logger logger = Logger.getLogger(FilterWebSocketPayload.class);
+
 	public static final int FILTER_ID = 85;
 	private FilterWebSocketReplaceDialog wsFilterReplaceDialog;
 	private boolean shouldApplyOnIncoming = false;
@@ -45,6 +55,17 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 	private ChannelSortedListModel channelsModel;
 	private ExtensionWebSocket extension;
 
+	/**
+	 * Replacer for the current pattern and replace text.
+	 */
+	private volatile WebSocketPayloadReplacer replacer;
+
+	private final AtomicLong scannedCount = new AtomicLong();
+	private final AtomicLong replacedCount = new AtomicLong();
+	private final AtomicLong abortedCount = new AtomicLong();
+	private final AtomicLong totalScanTime = new AtomicLong();
+	private final AtomicLong maxScanTime = new AtomicLong();
+
 	public FilterWebSocketPayload(ExtensionWebSocket extension, ChannelSortedListModel model) {
 		super();
 		this.extension = extension;
@@ -85,7 +106,9 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 			return;
 		}
 		
-		boolean isApplicableMessage = (wsMessage.isFinished() && wsMessage.getPayloadLength() > 0);
+		// payloads spilled to disk are too big to be replaced in memory
+		boolean isApplicableMessage = (wsMessage.isFinished() && wsMessage.getPayloadLength() > 0
+				&& wsMessage.getPayloadFile() == null);
 		boolean hasPattern = (getPattern() != null);
 		
 		if (isApplicableMessage && hasPattern) {
@@ -93,27 +116,97 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 					isApplicableOpcode(message.readableOpcode) &&
 					isApplicableChannelId(message.channel.id)) {
 
-				String from = wsMessage.getReadablePayload();
-
-				Matcher matcher = getPattern().matcher(from);
+				ByteBuffer payload = wsMessage.getPayloadBuffer();
+				if (payload == null) {
+					return;
+				}
 
+				long start = System.nanoTime();
 				try {
-					String to = matcher.replaceAll(getReplaceText());
-	
-					if (!from.equals(to)) {
-						wsMessage.setReadablePayload(to);
+					byte[] to = getReplacer().replace(payload);
+					if (to != null) {
+						wsMessage.setPayload(to);
+						replacedCount.incrementAndGet();
 					}
+				} catch (WebSocketPayloadReplacer.BudgetExceededException e) {
+					abortedCount.incrementAndGet();
+					logger.warn("WebSocket payload filter skipped message " + message.toString() + ": " + e.getMessage());
 				} catch (IllegalArgumentException e) {
-					// e.g.: Illegal group reference when '$'-sign is used
-					throw new WebSocketException("Replacement text of WebSocket payload filter contains non-escaped characters (\\,$).", e);
-				} catch (StringIndexOutOfBoundsException e) {
-					// e.g.: String index out of range: 1 when '\' is used
+					// e.g.: No group with name {x} when '${x}' is used
 					throw new WebSocketException("Replacement text of WebSocket payload filter contains non-escaped characters (\\,$).", e);
+				} finally {
+					recordScanTime(System.nanoTime() - start);
 				}
 			}
 		}
 	}
 
+	/**
+	 * @return replacer for current pattern and replace text
+	 */
+	private WebSocketPayloadReplacer getReplacer() {
+		Pattern pattern = getPattern();
+		String replaceText = getReplaceText();
+		WebSocketPayloadReplacer current = replacer;
+		if (current == null || !current.isCreatedFor(pattern, replaceText)) {
+			current = new WebSocketPayloadReplacer(pattern, replaceText, WebSocketPayloadReplacer.MAX_TIME);
+			replacer = current;
+		}
+		return current;
+	}
+
+	private void recordScanTime(long duration) {
+		scannedCount.incrementAndGet();
+		totalScanTime.addAndGet(duration);
+
+		long max;
+		while (duration > (max = maxScanTime.get())) {
+			if (maxScanTime.compareAndSet(max, duration)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return number of payloads the pattern was run on
+	 */
+	public long getScannedCount() {
+		return scannedCount.get();
+	}
+
+	/**
+	 * @return number of payloads changed by this filter
+	 */
+	public long getReplacedCount() {
+		return replacedCount.get();
+	}
+
+	/**
+	 * @return number of payloads left unchanged as the pattern exceeded its
+	 *         budget
+	 */
+	public long getAbortedCount() {
+		return abortedCount.get();
+	}
+
+	/**
+	 * @return average time in microseconds spent on one payload
+	 */
+	public long getAverageScanTime() {
+		long count = scannedCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMicros(totalScanTime.get() / count);
+	}
+
+	/**
+	 * @return longest time in microseconds spent on one payload
+	 */
+	public long getMaxScanTime() {
+		return TimeUnit.NANOSECONDS.toMicros(maxScanTime.get());
+	}
+
 	private boolean isApplicableDirection(Direction direction) {
 		return ((direction.equals(Direction.INCOMING) && shouldApplyOnIncoming) ||
 				(direction.equals(Direction.OUTGOING) && shouldApplyOnOutgoing));
@@ -167,5 +260,6 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 		shouldApplyOnOutgoing = false;
 		applicableOpcodes = null;
 		applicableChannelIds = null;
+		replacer = null;
 	}
 }
@@ -0,0 +1,436 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.filter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.zaproxy.zap.extension.websocket.FrameBufferPool;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.utility.InvalidUtf8Exception;
+import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
+
+/**
+ * Replaces all matches of a pattern in UTF-8 payloads, with the same result as
+ * {@link Matcher#replaceAll(String)} on the readable payload.
+ * <p>
+ * The pattern runs over a {@link CharSequence} view of the payload bytes.
+ * Payloads consisting of ASCII characters only are not decoded at all, other
+ * payloads are decoded once. The view counts the characters read by the
+ * pattern and aborts with a {@link BudgetExceededException} once the
+ * {@link #getMaxSteps(int) step budget} or the time budget is used up, so a
+ * pathological pattern cannot hang the listener thread.
+ * <p>
+ * The result is encoded in a single pass into a buffer of the
+ * {@link FrameBufferPool}. Instances are immutable.
+ */
+final class WebSocketPayloadReplacer {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Characters the pattern may read per payload character.
+	 */
+	static final int MAX_STEPS_PER_CHAR = 1000;
+
+	/**
+	 * Steps allowed for every payload, independent of its length.
+	 */
+	static final int MIN_STEPS = 100000;
+
+	/**
+	 * Maximum time in milliseconds spent on one payload.
+	 */
+	static final long MAX_TIME = 250;
+
+	/**
+	 * Number of steps between two checks of the time budget.
+	 */
+	private static final int TIME_CHECK_INTERVAL = 4096;
+
+	private final Pattern pattern;
+
+	private final String replacement;
+
+	/**
+	 * Parsed replacement, elements are either UTF-8 bytes of literal text,
+	 * group indexes ({@link Integer}) or group names ({@link String}).
+	 */
+	private final Object[] segments;
+
+	/**
+	 * Set if the replacement is not valid, thrown on the first match (as
+	 * {@link Matcher#replaceAll(String)} does).
+	 */
+	private final WebSocketException invalidReplacement;
+
+	private final long maxTimeNanos;
+
+	/**
+	 * @param pattern
+	 * @param replacement text with the syntax of
+	 *            {@link Matcher#appendReplacement(StringBuffer, String)}
+	 * @param maxTime time budget per payload in milliseconds
+	 */
+	public WebSocketPayloadReplacer(Pattern pattern, String replacement, long maxTime) {
+		this.pattern = pattern;
+		this.replacement = replacement;
+		this.maxTimeNanos = maxTime * 1000000L;
+
+		Object[] parsed = null;
+		WebSocketException error = null;
+		try {
+			parsed = parseReplacement(replacement, pattern.matcher("").groupCount());
+		} catch (WebSocketException e) {
+			error = e;
+		}
+		this.segments = parsed;
+		this.invalidReplacement = error;
+	}
+
+	/**
+	 * @return True if this replacer was created for given arguments.
+	 */
+	public boolean isCreatedFor(Pattern pattern, String replacement) {
+		return this.pattern == pattern && this.replacement.equals(replacement);
+	}
+
+	/**
+	 * Replaces all matches in given payload.
+	 * 
+	 * @param payload UTF-8 bytes between position and limit, not modified
+	 * @return new payload or null if nothing was replaced, the payload is no
+	 *         valid UTF-8 or the replacement resulted in the same bytes
+	 * @throws WebSocketException if the pattern matches and the replacement
+	 *             contains non-escaped characters (\, $) or refers to
+	 *             non-existing groups
+	 * @throws BudgetExceededException if the pattern needs too many steps or
+	 *             too much time
+	 */
+	public byte[] replace(ByteBuffer payload) throws WebSocketException {
+		PayloadCharSequence text;
+		try {
+			text = new PayloadCharSequence(payload, getMaxSteps(payload.remaining()), maxTimeNanos);
+		} catch (InvalidUtf8Exception e) {
+			// readable payload is not changed either
+			return null;
+		}
+
+		Matcher matcher = pattern.matcher(text);
+		if (!matcher.find()) {
+			return null;
+		}
+		if (invalidReplacement != null) {
+			throw invalidReplacement;
+		}
+
+		FrameBufferPool pool = FrameBufferPool.get();
+		ByteBuffer out = pool.acquire(payload.remaining());
+		try {
+			int last = 0;
+			do {
+				out = appendUtf8(pool, out, text, last, matcher.start());
+				out = appendReplacement(pool, out, matcher, text);
+				last = matcher.end();
+			} while (matcher.find());
+			out = appendUtf8(pool, out, text, last, text.length());
+
+			out.flip();
+			if (out.equals(payload)) {
+				return null;
+			}
+			byte[] result = new byte[out.remaining()];
+			out.get(result);
+			return result;
+		} finally {
+			pool.release(out);
+		}
+	}
+
+	/**
+	 * @param length of the payload in bytes
+	 * @return number of characters the pattern may read
+	 */
+	static long getMaxSteps(int length) {
+		return MIN_STEPS + (long) length * MAX_STEPS_PER_CHAR;
+	}
+
+	private ByteBuffer appendReplacement(FrameBufferPool pool, ByteBuffer out, Matcher matcher, PayloadCharSequence text) {
+		for (Object segment : segments) {
+			if (segment instanceof byte[]) {
+				byte[] bytes = (byte[]) segment;
+				out = ensureRemaining(pool, out, bytes.length);
+				out.put(bytes);
+			} else if (segment instanceof Integer) {
+				int group = ((Integer) segment).intValue();
+				if (matcher.start(group) != -1) {
+					out = appendUtf8(pool, out, text, matcher.start(group), matcher.end(group));
+				}
+			} else {
+				String value = matcher.group((String) segment);
+				if (value != null) {
+					out = appendUtf8(pool, out, value, 0, value.length());
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Copies given range of the payload, without using up the budget.
+	 */
+	private static ByteBuffer appendUtf8(FrameBufferPool pool, ByteBuffer out, PayloadCharSequence text, int start, int end) {
+		if (text.decoded != null) {
+			return appendUtf8(pool, out, text.decoded, start, end);
+		}
+		out = ensureRemaining(pool, out, end - start);
+		out.put(text.bytes, text.offset + start, end - start);
+		return out;
+	}
+
+	/**
+	 * Encodes given characters like {@link String#getBytes(Charset)}, i.e.
+	 * unpaired surrogates are replaced by '?'.
+	 */
+	private static ByteBuffer appendUtf8(FrameBufferPool pool, ByteBuffer out, String chars, int start, int end) {
+		// at most 3 bytes per char (4 bytes per surrogate pair)
+		out = ensureRemaining(pool, out, (end - start) * 3);
+
+		for (int i = start; i < end; i++) {
+			char c = chars.charAt(i);
+			if (c < 0x80) {
+				out.put((byte) c);
+			} else if (c < 0x800) {
+				out.put((byte) (0xC0 | (c >> 6)));
+				out.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+					out.put((byte) (0xF0 | (codePoint >> 18)));
+					out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+					out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+					out.put((byte) (0x80 | (codePoint & 0x3F)));
+				} else {
+					out.put((byte) '?');
+				}
+			} else {
+				out.put((byte) (0xE0 | (c >> 12)));
+				out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				out.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		return out;
+	}
+
+	private static ByteBuffer ensureRemaining(FrameBufferPool pool, ByteBuffer out, int length) {
+		if (out.remaining() >= length) {
+			return out;
+		}
+		int capacity = Math.max(out.capacity() * 2, out.position() + length);
+		ByteBuffer bigger = pool.acquire(capacity);
+		out.flip();
+		bigger.put(out);
+		pool.release(out);
+		return bigger;
+	}
+
+	/**
+	 * Parses given replacement with the rules of
+	 * {@link Matcher#appendReplacement(StringBuffer, String)}.
+	 */
+	private static Object[] parseReplacement(String replacement, int groupCount) throws WebSocketException {
+		List<Object> segments = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < replacement.length()) {
+			char c = replacement.charAt(i++);
+			if (c == '\\') {
+				if (i == replacement.length()) {
+					throw new WebSocketException("Replacement text of WebSocket payload filter contains non-escaped characters (\\,$).");
+				}
+				literal.append(replacement.charAt(i++));
+			} else if (c == '$') {
+				if (i == replacement.length()) {
+					throw new WebSocketException("Replacement text of WebSocket payload filter contains non-escaped characters (\\,$).");
+				}
+
+				Object group;
+				if (replacement.charAt(i) == '{') {
+					int end = replacement.indexOf('}', i);
+					if (end == -1 || end == i + 1) {
+						throw new WebSocketException("Replacement text of WebSocket payload filter contains non-escaped characters (\\,$).");
+					}
+					group = replacement.substring(i + 1, end);
+					i = end + 1;
+				} else {
+					int index = Character.digit(replacement.charAt(i), 10);
+					if (index == -1) {
+						throw new WebSocketException("Replacement text of WebSocket payload filter contains non-escaped characters (\\,$).");
+					}
+					i++;
+					// take further digits as long as the group exists
+					while (i < replacement.length()) {
+						int digit = Character.digit(replacement.charAt(i), 10);
+						if (digit == -1 || index * 10 + digit > groupCount) {
+							break;
+						}
+						index = index * 10 + digit;
+						i++;
+					}
+					if (index > groupCount) {
+						throw new WebSocketException("Replacement text of WebSocket payload filter refers to non-existing group " + index + ".");
+					}
+					group = Integer.valueOf(index);
+				}
+
+				if (literal.length() > 0) {
+					segments.add(literal.toString().getBytes(UTF8_CHARSET));
+					literal.setLength(0);
+				}
+				segments.add(group);
+			} else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() > 0) {
+			segments.add(literal.toString().getBytes(UTF8_CHARSET));
+		}
+		return segments.toArray();
+	}
+
+	/**
+	 * Thrown when the pattern exceeds the budget of a payload.
+	 */
+	static class BudgetExceededException extends RuntimeException {
+
+		private static final long serialVersionUID = -4001738245380475532L;
+
+		BudgetExceededException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Read-only view of a UTF-8 payload, that enforces the budget on each
+	 * character read.
+	 */
+	private static final class PayloadCharSequence implements CharSequence {
+
+		/**
+		 * Bytes of an ASCII payload, null if {@link #decoded} is used.
+		 */
+		private final byte[] bytes;
+
+		private final int offset;
+
+		/**
+		 * Decoded payload, if it contains non-ASCII characters.
+		 */
+		private final String decoded;
+
+		private final int length;
+
+		private final long maxSteps;
+
+		private final long deadline;
+
+		private long steps;
+
+		private int stepsUntilTimeCheck = TIME_CHECK_INTERVAL;
+
+		public PayloadCharSequence(ByteBuffer payload, long maxSteps, long maxTimeNanos) throws InvalidUtf8Exception {
+			byte[] array = payload.array();
+			int start = payload.arrayOffset() + payload.position();
+			int count = payload.remaining();
+
+			if (isAscii(array, start, count)) {
+				bytes = array;
+				offset = start;
+				decoded = null;
+				length = count;
+			} else {
+				bytes = null;
+				offset = 0;
+				decoded = Utf8Util.encodePayloadToUtf8(array, start, count);
+				length = decoded.length();
+			}
+
+			this.maxSteps = maxSteps;
+			this.deadline = System.nanoTime() + maxTimeNanos;
+		}
+
+		private static boolean isAscii(byte[] array, int start, int count) {
+			int end = start + count;
+			for (int i = start; i < end; i++) {
+				if (array[i] < 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (++steps > maxSteps) {
+				throw new BudgetExceededException("Pattern exceeded " + maxSteps + " steps.");
+			}
+			if (--stepsUntilTimeCheck == 0) {
+				stepsUntilTimeCheck = TIME_CHECK_INTERVAL;
+				if (System.nanoTime() - deadline > 0) {
+					throw new BudgetExceededException("Pattern exceeded time budget after " + steps + " steps.");
+				}
+			}
+
+			if (decoded != null) {
+				return decoded.charAt(index);
+			}
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+			}
+			return (char) bytes[offset + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (decoded != null) {
+				return decoded.substring(start, end);
+			}
+			if (start < 0 || start > end || end > length) {
+				throw new IndexOutOfBoundsException("Start: " + start + ", end: " + end + ", length: " + length);
+			}
+			return new String(bytes, offset + start, end - start, UTF8_CHARSET);
+		}
+
+		@Override
+		public String toString() {
+			if (decoded != null) {
+				return decoded;
+			}
+			return new String(bytes, offset, length, UTF8_CHARSET);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations in nanoseconds with fixed memory and constant cost per
+ * value, similar to an HDR histogram.
+ * <p>
+ * Values are counted in buckets, each power of two range is split into
+ * {@value #SUB_BUCKETS} linear buckets, so percentiles are accurate to
+ * 12.5%. Values from 2<sup>{@value #MAX_EXPONENT}</sup> ns (about 18 minutes)
+ * on are counted in the last bucket. Minimum, maximum and mean are exact.
+ * <p>
+ * Each instance takes about 2.5 KB, hence histograms are kept per session
+ * rather than per channel.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	static final int MAX_EXPONENT = 40;
+
+	/**
+	 * Values below {@link #SUB_BUCKETS} have one bucket each, every further
+	 * power of two up to {@link #MAX_EXPONENT} has {@link #SUB_BUCKETS}.
+	 */
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos duration, negative values are counted as zero
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		buckets.incrementAndGet(getBucketIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax;
+		while (value > (currentMax = max.get())) {
+			if (max.compareAndSet(currentMax, value)) {
+				break;
+			}
+		}
+	}
+
+	static int getBucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent >= MAX_EXPONENT) {
+			return BUCKET_COUNT - 1;
+		}
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return highest value counted in the bucket of given index
+	 */
+	static long getBucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return highest recorded value in nanoseconds or 0 if there is none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return mean of recorded values in nanoseconds or 0 if there is none
+	 */
+	public long getMean() {
+		long values = count.get();
+		if (values == 0) {
+			return 0;
+		}
+		return sum.get() / values;
+	}
+
+	/**
+	 * Returns the value, that given percentage of recorded values are less
+	 * than or equal to. The result is the upper bound of the bucket containing
+	 * it, but never more than {@link #getMax()}.
+	 * 
+	 * @param percentile between 0 and 100
+	 * @return value in nanoseconds or 0 if there are no values
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] snapshot = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(getBucketUpperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
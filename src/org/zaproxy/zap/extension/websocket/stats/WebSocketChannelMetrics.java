@@ -0,0 +1,109 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.stats;
+
+/**
+ * Traffic counters of one WebSocket channel, updated by the threads reading
+ * its frames.
+ * <p>
+ * Each direction is read by one thread only, so the counters are plain
+ * fields, that are written by that thread and read by any other. Latencies
+ * are recorded for all channels in {@link WebSocketSessionMetrics}.
+ */
+public class WebSocketChannelMetrics {
+
+	private final int channelId;
+
+	private final long startTime = System.currentTimeMillis();
+
+	private volatile long endTime;
+
+	private volatile long outgoingFrames;
+	private volatile long incomingFrames;
+	private volatile long outgoingBytes;
+	private volatile long incomingBytes;
+
+	public WebSocketChannelMetrics(int channelId) {
+		this.channelId = channelId;
+	}
+
+	public int getChannelId() {
+		return channelId;
+	}
+
+	/**
+	 * Counts one frame read from the browser (outgoing) or server (incoming).
+	 * Call it only from the thread reading frames of the given direction.
+	 * 
+	 * @param isOutgoing
+	 * @param payloadLength
+	 */
+	public void recordFrame(boolean isOutgoing, long payloadLength) {
+		if (isOutgoing) {
+			outgoingFrames++;
+			outgoingBytes += payloadLength;
+		} else {
+			incomingFrames++;
+			incomingBytes += payloadLength;
+		}
+	}
+
+	/**
+	 * Stops the clock for {@link #getFrameRate(boolean)} and
+	 * {@link #getByteRate(boolean)}.
+	 */
+	public void markClosed() {
+		if (endTime == 0) {
+			endTime = System.currentTimeMillis();
+		}
+	}
+
+	public long getFrameCount(boolean isOutgoing) {
+		return (isOutgoing) ? outgoingFrames : incomingFrames;
+	}
+
+	/**
+	 * @param isOutgoing
+	 * @return payload bytes of all frames in given direction
+	 */
+	public long getByteCount(boolean isOutgoing) {
+		return (isOutgoing) ? outgoingBytes : incomingBytes;
+	}
+
+	/**
+	 * @param isOutgoing
+	 * @return average frames per second since the channel was created
+	 */
+	public double getFrameRate(boolean isOutgoing) {
+		return getFrameCount(isOutgoing) / getElapsedSeconds();
+	}
+
+	/**
+	 * @param isOutgoing
+	 * @return average payload bytes per second since the channel was created
+	 */
+	public double getByteRate(boolean isOutgoing) {
+		return getByteCount(isOutgoing) / getElapsedSeconds();
+	}
+
+	private double getElapsedSeconds() {
+		long end = (endTime != 0) ? endTime : System.currentTimeMillis();
+		// avoid division by zero for new channels
+		return Math.max(1, end - startTime) / 1000.0;
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.stats;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Observer latencies of all WebSocket channels and traffic totals of closed
+ * channels of the current session.
+ * <p>
+ * Closed channels are rolled up into the totals, such that their
+ * {@link WebSocketChannelMetrics} can be released.
+ */
+public class WebSocketSessionMetrics {
+
+	/**
+	 * Time spent notifying all observers of one message.
+	 */
+	private final LatencyHistogram notifyLatency = new LatencyHistogram();
+
+	/**
+	 * Time spent in each observer, by its observing order.
+	 */
+	private final ConcurrentMap<Integer, LatencyHistogram> observerLatencies = new ConcurrentHashMap<>();
+
+	private final AtomicLong closedChannels = new AtomicLong();
+	private final AtomicLong outgoingFrames = new AtomicLong();
+	private final AtomicLong incomingFrames = new AtomicLong();
+	private final AtomicLong outgoingBytes = new AtomicLong();
+	private final AtomicLong incomingBytes = new AtomicLong();
+
+	/**
+	 * @param nanos time spent notifying all observers of one message
+	 */
+	public void recordNotify(long nanos) {
+		notifyLatency.record(nanos);
+	}
+
+	/**
+	 * @param observingOrder of the observer
+	 * @param nanos time spent in the observer for one message
+	 */
+	public void recordObserver(int observingOrder, long nanos) {
+		Integer key = Integer.valueOf(observingOrder);
+		LatencyHistogram histogram = observerLatencies.get(key);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			LatencyHistogram existing = observerLatencies.putIfAbsent(key, histogram);
+			if (existing != null) {
+				histogram = existing;
+			}
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Adds the counters of given closed channel to the totals. Call it once
+	 * per channel.
+	 * 
+	 * @param metrics
+	 */
+	public void addClosedChannel(WebSocketChannelMetrics metrics) {
+		closedChannels.incrementAndGet();
+		outgoingFrames.addAndGet(metrics.getFrameCount(true));
+		incomingFrames.addAndGet(metrics.getFrameCount(false));
+		outgoingBytes.addAndGet(metrics.getByteCount(true));
+		incomingBytes.addAndGet(metrics.getByteCount(false));
+	}
+
+	public long getClosedChannelCount() {
+		return closedChannels.get();
+	}
+
+	/**
+	 * @param isOutgoing
+	 * @return frames of all closed channels in given direction
+	 */
+	public long getClosedFrameCount(boolean isOutgoing) {
+		return (isOutgoing) ? outgoingFrames.get() : incomingFrames.get();
+	}
+
+	/**
+	 * @param isOutgoing
+	 * @return payload bytes of all closed channels in given direction
+	 */
+	public long getClosedByteCount(boolean isOutgoing) {
+		return (isOutgoing) ? outgoingBytes.get() : incomingBytes.get();
+	}
+
+	public LatencyHistogram getNotifyLatency() {
+		return notifyLatency;
+	}
+
+	/**
+	 * @return latencies of observers sorted by their observing order
+	 */
+	public SortedMap<Integer, LatencyHistogram> getObserverLatencies() {
+		return new TreeMap<>(observerLatencies);
+	}
+
+	/**
+	 * Forgets all values, e.g. when another session is loaded.
+	 */
+	public void reset() {
+		notifyLatency.reset();
+		observerLatencies.clear();
+		closedChannels.set(0);
+		outgoingFrames.set(0);
+		incomingFrames.set(0);
+		outgoingBytes.set(0);
+		incomingBytes.set(0);
+	}
+}
@@ -81,6 +81,7 @@ public class ChannelSortedListModel extends SortedListModel<WebSocketChannelDTO>
 			if (index != -1) {
 				WebSocketChannelDTO old = getElementAt(index);
 				old.endTimestamp = channel.endTimestamp;
+				old.historyId = channel.historyId;
 
 				fireContentsChanged(this, index, index);
 			}
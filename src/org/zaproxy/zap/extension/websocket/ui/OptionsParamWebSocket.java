@@ -26,10 +26,37 @@ public class OptionsParamWebSocket extends AbstractParam {
 	public static final String FORWARD_ALL = "websocket.forwardAll";
 	public static final String BREAK_ON_PING_PONG = "websocket.breakOnPingPong";
 	public static final String BREAK_ON_ALL = "websocket.breakOnAll";
+	public static final String STORAGE_ASYNC = "websocket.storage.async";
+	public static final String STORAGE_QUEUE_CAPACITY = "websocket.storage.queueCapacity";
+	public static final String STORAGE_BATCH_SIZE = "websocket.storage.batchSize";
+	public static final String STORAGE_FLUSH_INTERVAL = "websocket.storage.flushInterval";
+	public static final String STORAGE_DROP_ON_OVERFLOW = "websocket.storage.dropOnOverflow";
+	public static final String VIRTUAL_THREADS = "websocket.listener.virtualThreads";
+	public static final String SPILL_THRESHOLD = "websocket.spill.threshold";
+	public static final String OBSERVERS_ASYNC = "websocket.observers.async";
+	public static final String OBSERVERS_THREADS = "websocket.observers.threads";
+	public static final String OBSERVERS_MAX_PENDING = "websocket.observers.maxPending";
+
+	private static final int DEFAULT_STORAGE_QUEUE_CAPACITY = 10000;
+	private static final int DEFAULT_STORAGE_BATCH_SIZE = 200;
+	private static final int DEFAULT_STORAGE_FLUSH_INTERVAL = 100;
+	private static final int DEFAULT_SPILL_THRESHOLD = 16 * 1024 * 1024;
+	private static final int DEFAULT_OBSERVERS_THREADS = 2;
+	private static final int DEFAULT_OBSERVERS_MAX_PENDING = 10000;
 
 	private boolean isForwardAll;
 	private boolean isBreakOnPingPong;
 	private boolean isBreakOnAll;
+	private boolean isStorageAsync;
+	private int storageQueueCapacity;
+	private int storageBatchSize;
+	private int storageFlushInterval;
+	private boolean isStorageDropOnOverflow;
+	private boolean isVirtualThreads;
+	private int spillThreshold;
+	private boolean isObserversAsync;
+	private int observersThreads;
+	private int observersMaxPending;
 
     @Override
     protected void parse() {
@@ -37,6 +64,21 @@ public class OptionsParamWebSocket extends AbstractParam {
     	isForwardAll = cfg.getBoolean(FORWARD_ALL, false);
     	isBreakOnPingPong = cfg.getBoolean(BREAK_ON_PING_PONG, false);
     	isBreakOnAll = cfg.getBoolean(BREAK_ON_ALL, false);
+    	isStorageAsync = cfg.getBoolean(STORAGE_ASYNC, false);
+    	storageQueueCapacity = getPositiveInt(cfg, STORAGE_QUEUE_CAPACITY, DEFAULT_STORAGE_QUEUE_CAPACITY);
+    	storageBatchSize = getPositiveInt(cfg, STORAGE_BATCH_SIZE, DEFAULT_STORAGE_BATCH_SIZE);
+    	storageFlushInterval = getPositiveInt(cfg, STORAGE_FLUSH_INTERVAL, DEFAULT_STORAGE_FLUSH_INTERVAL);
+    	isStorageDropOnOverflow = cfg.getBoolean(STORAGE_DROP_ON_OVERFLOW, false);
+    	isVirtualThreads = cfg.getBoolean(VIRTUAL_THREADS, false);
+    	spillThreshold = Math.max(0, cfg.getInt(SPILL_THRESHOLD, DEFAULT_SPILL_THRESHOLD));
+    	isObserversAsync = cfg.getBoolean(OBSERVERS_ASYNC, false);
+    	observersThreads = getPositiveInt(cfg, OBSERVERS_THREADS, DEFAULT_OBSERVERS_THREADS);
+    	observersMaxPending = getPositiveInt(cfg, OBSERVERS_MAX_PENDING, DEFAULT_OBSERVERS_MAX_PENDING);
+    }
+
+    private static int getPositiveInt(FileConfiguration cfg, String key, int defaultValue) {
+    	int value = cfg.getInt(key, defaultValue);
+    	return (value > 0) ? value : defaultValue;
     }
 
     /**
@@ -102,4 +144,129 @@ public class OptionsParamWebSocket extends AbstractParam {
 		this.isBreakOnAll = isBreakOnAll;
 		getConfig().setProperty(BREAK_ON_ALL, isBreakOnAll);
 	}
+
+	/**
+	 * If true, then messages are not written to the database on the listener
+	 * threads, but queued and written in batches by a dedicated thread.
+	 * <p>
+	 * Changes are applied on next start.
+	 * 
+	 * @return True if messages should be stored asynchronously.
+	 */
+	public boolean isStorageAsync() {
+		return isStorageAsync;
+	}
+
+	/**
+	 * @see OptionsParamWebSocket#isStorageAsync()
+	 * 
+	 * @param isStorageAsync
+	 */
+	public void setStorageAsync(boolean isStorageAsync) {
+		this.isStorageAsync = isStorageAsync;
+		getConfig().setProperty(STORAGE_ASYNC, isStorageAsync);
+	}
+
+	/**
+	 * @return maximum number of messages waiting to be stored asynchronously
+	 */
+	public int getStorageQueueCapacity() {
+		return storageQueueCapacity;
+	}
+
+	/**
+	 * @return maximum number of messages stored within one batch
+	 */
+	public int getStorageBatchSize() {
+		return storageBatchSize;
+	}
+
+	/**
+	 * @return maximum time in milliseconds a queued message waits for its batch
+	 */
+	public int getStorageFlushInterval() {
+		return storageFlushInterval;
+	}
+
+	/**
+	 * If true, then messages are not stored when the storage queue is full.
+	 * Otherwise listener threads wait until there is space in the queue again.
+	 * 
+	 * @return True if messages should be dropped on full queue.
+	 */
+	public boolean isStorageDropOnOverflow() {
+		return isStorageDropOnOverflow;
+	}
+
+	/**
+	 * If true, then listeners run in virtual threads, if supported by the JVM
+	 * (Java 21+). Otherwise each listener occupies one platform thread.
+	 * <p>
+	 * Changes are applied on next start.
+	 * 
+	 * @return True if listeners should use virtual threads.
+	 */
+	public boolean isVirtualThreads() {
+		return isVirtualThreads;
+	}
+
+	/**
+	 * @see OptionsParamWebSocket#isVirtualThreads()
+	 * 
+	 * @param isVirtualThreads
+	 */
+	public void setVirtualThreads(boolean isVirtualThreads) {
+		this.isVirtualThreads = isVirtualThreads;
+		getConfig().setProperty(VIRTUAL_THREADS, isVirtualThreads);
+	}
+
+	/**
+	 * Fragmented messages, whose payload exceeds this number of bytes, are
+	 * written to a temporary file instead of being kept in memory. Defaults to
+	 * 16 MB, zero keeps all payloads in memory.
+	 * <p>
+	 * Changes are applied to new channels.
+	 * 
+	 * @return threshold in bytes or 0 if disabled
+	 */
+	public int getSpillThreshold() {
+		return spillThreshold;
+	}
+
+	/**
+	 * If true, then read-only observers (e.g. storage and UI) are notified
+	 * after forwarding by dedicated dispatcher threads, instead of on the
+	 * listener threads before forwarding.
+	 * <p>
+	 * Changes are applied on next start.
+	 * 
+	 * @return True if read-only observers should be notified asynchronously.
+	 */
+	public boolean isObserversAsync() {
+		return isObserversAsync;
+	}
+
+	/**
+	 * @see OptionsParamWebSocket#isObserversAsync()
+	 * 
+	 * @param isObserversAsync
+	 */
+	public void setObserversAsync(boolean isObserversAsync) {
+		this.isObserversAsync = isObserversAsync;
+		getConfig().setProperty(OBSERVERS_ASYNC, isObserversAsync);
+	}
+
+	/**
+	 * @return number of threads notifying read-only observers
+	 */
+	public int getObserversThreads() {
+		return observersThreads;
+	}
+
+	/**
+	 * @return maximum number of notifications waiting for read-only observers
+	 */
+	public int getObserversMaxPending() {
+		return observersMaxPending;
+	}
 }
\ No newline at end of file
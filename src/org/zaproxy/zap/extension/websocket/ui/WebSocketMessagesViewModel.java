@@ -19,6 +19,8 @@ package org.zaproxy.zap.extension.websocket.ui;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javax.swing.ImageIcon;
 
@@ -32,6 +34,7 @@ import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
+import org.zaproxy.zap.extension.websocket.db.WebSocketMessageCounts;
 import org.zaproxy.zap.extension.websocket.db.WebSocketMessagePrimaryKey;
 import org.zaproxy.zap.extension.websocket.utility.InvalidUtf8Exception;
 import org.zaproxy.zap.utils.PagingTableModel;
@@ -49,6 +52,11 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	
 	private static final int PAYLOAD_PREVIEW_LENGTH = 150;
 	
+	/**
+	 * Maximum number of remembered page keys, see {@link #pageKeys}.
+	 */
+	private static final int MAX_PAGE_KEYS = 2000;
+	
 	/**
 	 * Names of all columns.
 	 */
@@ -81,14 +89,20 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	private Integer activeChannelId;
 
 	/**
-	 * Avoid having two much SQL queries by caching result and allow next query
-	 * after new message has arrived.
+	 * Caches the count of the current filter until a new message has arrived.
 	 */
 	private Integer cachedRowCount;
 	private Object cachedRowCountSemaphore = new Object();
 
 	private LRUMap fullMessagesCache;
 	
+	/**
+	 * First and last message of each loaded page by row index. Pages next to
+	 * these rows are loaded relative to them (keyset pagination), instead of
+	 * letting the database skip all preceding rows.
+	 */
+	private final TreeMap<Integer, WebSocketMessageDTO> pageKeys = new TreeMap<>();
+	
 	private static final ImageIcon outgoingDirection;
 	private static final ImageIcon incomingDirection;
 	
@@ -130,6 +144,9 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	}
 
 	/**
+	 * Resolved from the {@link WebSocketMessageCounts} of the table, without
+	 * querying the database for messages.
+	 * 
 	 * @return size of currently visible messages
 	 */
 	@Override
@@ -137,16 +154,13 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 		if (table == null) {
 			return 0;
 		}
-		try {
-			synchronized (cachedRowCountSemaphore) {
-				if (cachedRowCount == null) {					
-					cachedRowCount = table.getMessageCount(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope());
-				}
-				return cachedRowCount;
+		synchronized (cachedRowCountSemaphore) {
+			if (cachedRowCount == null) {
+				WebSocketMessageDTO criteria = getCriterionMessage();
+				cachedRowCount = table.getMessageCounts().getCount(
+						criteria.channel.id, criteria.isOutgoing, getCriterionOpcodes(), getCriterianInScope());
 			}
-		} catch (DatabaseException e) {
-			logger.error(e.getMessage(), e);
-			return 0;
+			return cachedRowCount;
 		}
 	}
 
@@ -247,13 +261,52 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	@Override
 	protected List<WebSocketMessageDTO> loadPage(int offset, int length) {
 		try {
-			return table.getMessages(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope(), offset, length, PAYLOAD_PREVIEW_LENGTH);
+			WebSocketMessageDTO criteria = getCriterionMessage();
+			List<Integer> opcodes = getCriterionOpcodes();
+			List<Integer> inScopeChannelIds = getCriterianInScope();
+			
+			Map.Entry<Integer, WebSocketMessageDTO> previous;
+			Map.Entry<Integer, WebSocketMessageDTO> next;
+			synchronized (pageKeys) {
+				previous = pageKeys.floorEntry(offset - 1);
+				next = pageKeys.ceilingEntry(offset + length);
+			}
+			
+			// choose the query that skips the least rows
+			int skipAfterPrevious = (previous != null) ? offset - 1 - previous.getKey() : Integer.MAX_VALUE;
+			int skipBeforeNext = (next != null) ? next.getKey() - offset - length : Integer.MAX_VALUE;
+			
+			List<WebSocketMessageDTO> page;
+			if (skipAfterPrevious < offset && skipAfterPrevious <= skipBeforeNext) {
+				page = table.getMessagesAfter(criteria, opcodes, inScopeChannelIds, previous.getValue(), skipAfterPrevious, length, PAYLOAD_PREVIEW_LENGTH);
+			} else if (skipBeforeNext < offset) {
+				page = table.getMessagesBefore(criteria, opcodes, inScopeChannelIds, next.getValue(), skipBeforeNext, length, PAYLOAD_PREVIEW_LENGTH);
+			} else {
+				page = table.getMessages(criteria, opcodes, inScopeChannelIds, offset, length, PAYLOAD_PREVIEW_LENGTH);
+			}
+			
+			rememberPageKeys(offset, page);
+			return page;
 		} catch (DatabaseException e) {
 			logger.error(e.getMessage(), e);
 			return new ArrayList<>(0);
 		}
 	}
 
+	private void rememberPageKeys(int offset, List<WebSocketMessageDTO> page) {
+		if (page.isEmpty()) {
+			return;
+		}
+		
+		synchronized (pageKeys) {
+			if (pageKeys.size() >= MAX_PAGE_KEYS) {
+				pageKeys.clear();
+			}
+			pageKeys.put(offset, page.get(0));
+			pageKeys.put(offset + page.size() - 1, page.get(page.size() - 1));
+		}
+	}
+
 	/**
 	 * @return number of columns
 	 */
@@ -351,6 +404,10 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 		}
 		
 		fullMessagesCache.clear();
+		
+		synchronized (pageKeys) {
+			pageKeys.clear();
+		}
 	}
 
 	/**
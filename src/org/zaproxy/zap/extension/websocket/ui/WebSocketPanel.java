@@ -28,8 +28,11 @@ import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.text.MessageFormat;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
@@ -42,6 +45,7 @@ import javax.swing.JTabbedPane;
 import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
+import javax.swing.SwingWorker;
 
 import org.apache.log4j.Logger;
 import org.parosproxy.paros.Constant;
@@ -60,26 +64,33 @@ import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketException;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
-import org.zaproxy.zap.extension.websocket.WebSocketObserver;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+import org.zaproxy.zap.extension.websocket.WebSocketReadOnlyObserver;
 import org.zaproxy.zap.extension.websocket.brk.WebSocketBreakpointsUiManagerInterface;
 import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
+import org.zaproxy.zap.extension.websocket.db.WebSocketMessagePrimaryKey;
 import org.zaproxy.zap.extension.websocket.db.WebSocketStorage;
 import org.zaproxy.zap.extension.websocket.filter.WebSocketFilter;
 import org.zaproxy.zap.utils.StickyScrollbarAdjustmentListener;
+import org.zaproxy.zap.utils.ZapTextField;
 import org.zaproxy.zap.view.ZapToggleButton;
 
 /**
  * Represents the WebSockets tab. It listens to all WebSocket channels and
  * displays messages accordingly.
  */
-public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
+public class WebSocketPanel extends AbstractPanel implements WebSocketReadOnlyObserver {
 
 	private static final long serialVersionUID = -2853099315338427006L;
 
 	private static final Logger logger = Logger.getLogger(WebSocketPanel.class);
 	
+	/**
+	 * Maximum number of messages found by one search.
+	 */
+	private static final int MAX_SEARCH_RESULTS = 1000;
+	
 	/**
 	 * Observe messages after storage handler was called.
 	 */
@@ -122,6 +133,13 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 	private JLabel filterStatus;
 	private WebSocketMessagesViewFilterDialog filterDialog;
 	
+	private ZapTextField searchField;
+	private JLabel searchStatus;
+	private String searchQuery;
+	private List<WebSocketMessagePrimaryKey> searchResults;
+	private int searchIndex;
+	private SearchWorker searchWorker;
+	
 	private JButton optionsButton;
 
 	private JScrollPane scrollPanel;
@@ -250,6 +268,21 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 			constraints = new GridBagConstraints();
 			constraints.gridx = x++;
 			panelToolbar.add(getFilterStatus(), constraints);
+			
+			panelToolbar.addSeparator();
+			x++;
+			
+			constraints = new GridBagConstraints();
+			constraints.gridx = x++;
+			panelToolbar.add(new JLabel(Constant.messages.getString("websocket.toolbar.search.label")), constraints);
+			
+			constraints = new GridBagConstraints();
+			constraints.gridx = x++;
+			panelToolbar.add(getSearchField(), constraints);
+			
+			constraints = new GridBagConstraints();
+			constraints.gridx = x++;
+			panelToolbar.add(getSearchStatus(), constraints);
 
 			// stretch pseudo-component to let options button appear on the right
 			constraints = new GridBagConstraints();
@@ -340,6 +373,148 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 		return filterStatus;
 	}
 
+	private ZapTextField getSearchField() {
+		if (searchField == null) {
+			searchField = new ZapTextField(15);
+			searchField.setToolTipText(Constant.messages.getString("websocket.toolbar.search.tooltip"));
+			searchField.addActionListener(new ActionListener() {
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					showNextSearchResult();
+				}
+			});
+		}
+		return searchField;
+	}
+	
+	private JLabel getSearchStatus() {
+		if (searchStatus == null) {
+			searchStatus = new JLabel();
+		}
+		return searchStatus;
+	}
+	
+	/**
+	 * Looks up the messages containing the words of the search field in the
+	 * full-text index of {@link TableWebSocket} and shows the first one.
+	 * Pressing enter again without changing the query shows the next one.
+	 * <p>
+	 * The database is accessed by a {@link SearchWorker}, not by the event
+	 * dispatch thread.
+	 */
+	private void showNextSearchResult() {
+		String query = getSearchField().getText().trim();
+		if (query.isEmpty()) {
+			resetSearch();
+			return;
+		}
+		
+		if (searchWorker != null) {
+			if (query.equals(searchWorker.query)) {
+				// still looking up the previous result
+				return;
+			}
+			searchWorker.cancel(false);
+		}
+		
+		if (!query.equals(searchQuery)) {
+			searchWorker = new SearchWorker(query, null, 0);
+		} else if (!searchResults.isEmpty()) {
+			searchWorker = new SearchWorker(query, searchResults, (searchIndex + 1) % searchResults.size());
+		} else {
+			return;
+		}
+		searchWorker.execute();
+	}
+	
+	private void resetSearch() {
+		if (searchWorker != null) {
+			searchWorker.cancel(false);
+			searchWorker = null;
+		}
+		searchQuery = null;
+		searchResults = null;
+		searchIndex = 0;
+		getSearchStatus().setText("");
+	}
+	
+	/**
+	 * Searches and loads the message to be shown in the background, the
+	 * result is shown by the event dispatch thread.
+	 */
+	private class SearchWorker extends SwingWorker<WebSocketMessageDTO, Void> {
+		
+		private final String query;
+		
+		private List<WebSocketMessagePrimaryKey> results;
+		
+		private final int index;
+		
+		/**
+		 * @param query
+		 * @param results results of given query or null if not searched yet
+		 * @param index of the result to be shown
+		 */
+		public SearchWorker(String query, List<WebSocketMessagePrimaryKey> results, int index) {
+			this.query = query;
+			this.results = results;
+			this.index = index;
+		}
+		
+		@Override
+		protected WebSocketMessageDTO doInBackground() throws Exception {
+			if (results == null) {
+				results = table.searchMessages(query, MAX_SEARCH_RESULTS);
+			}
+			if (results.isEmpty()) {
+				return null;
+			}
+			
+			WebSocketMessagePrimaryKey key = results.get(index);
+			return table.getMessage(key.getMessageId(), key.getChannelId());
+		}
+		
+		@Override
+		protected void done() {
+			if (searchWorker != this) {
+				// search was reset or replaced in the meantime
+				return;
+			}
+			searchWorker = null;
+			
+			WebSocketMessageDTO message;
+			try {
+				message = get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				logger.error(e.getCause().getMessage(), e.getCause());
+				return;
+			}
+			
+			searchQuery = query;
+			searchResults = results;
+			searchIndex = index;
+			
+			if (message == null) {
+				getSearchStatus().setText(Constant.messages.getString("websocket.toolbar.search.none"));
+				return;
+			}
+			
+			getSearchStatus().setText(MessageFormat.format(
+					Constant.messages.getString("websocket.toolbar.search.result"),
+					searchIndex + 1,
+					searchResults.size()));
+			try {
+				showMessage(message);
+			} catch (WebSocketException e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+	}
+
 	private Component getShowHandshakeButton() {
 		if (handshakeButton == null) {
 			handshakeButton = new JButton();
@@ -511,6 +686,13 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 					isNewChannel = true;
 				}
 				break;
+				
+			case UPDATED:
+				if (isConnectedChannel) {
+					// handshake reference was set after opening
+					channelsModel.updateElement(channel);
+				}
+				break;
 	            
 			case INCLUDED:
 				// add to UI (probably again)
@@ -740,6 +922,8 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 		
 		// reset filter 
 		getFilterDialog().getFilter().reset();
+		
+		resetSearch();
 	}
 
 	/**
@@ -749,6 +933,7 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 	public void pause() {
 		messagesView.pause();
 		channelSelect.setEnabled(false);
+		getSearchField().setEnabled(false);
 	}
 
 	/**
@@ -758,6 +943,7 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 	public void resume() {
 		messagesView.resume();
 		channelSelect.setEnabled(true);
+		getSearchField().setEnabled(true);
 		update();
 	}
 	
@@ -793,7 +979,28 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 	}
 
 	public void setTable(TableWebSocket table) {
+		if (this.table != null) {
+			this.table.setMessageCountsListener(null);
+		}
+		if (table != null) {
+			// set before the model uses the table, such that row counts
+			// computed before the messages were counted are refreshed
+			table.setMessageCountsListener(new TableWebSocket.MessageCountsListener() {
+				
+				@Override
+				public void messageCountsBuilt(TableWebSocket table) {
+					EventQueue.invokeLater(new Runnable() {
+						
+						@Override
+						public void run() {
+							messagesModel.fireTableDataChanged();
+						}
+					});
+				}
+			});
+		}
 		this.table = table;
 		this.messagesModel.setTable(table);
+		resetSearch();
 	}
 }
@@ -0,0 +1,245 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.ui;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.BoxLayout;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import org.parosproxy.paros.Constant;
+import org.parosproxy.paros.extension.AbstractPanel;
+import org.zaproxy.zap.extension.websocket.ExtensionWebSocket;
+import org.zaproxy.zap.extension.websocket.db.WebSocketStorageWriter;
+import org.zaproxy.zap.extension.websocket.filter.FilterWebSocketPayload;
+import org.zaproxy.zap.extension.websocket.stats.LatencyHistogram;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketChannelMetrics;
+import org.zaproxy.zap.extension.websocket.stats.WebSocketSessionMetrics;
+
+/**
+ * Shows traffic counters of open WebSocket channels, followed by totals of
+ * closed channels with observer latencies and statistics of the storage and
+ * the payload filter. Hidden by
+ * default, values are refreshed every second while the panel is
+ * showing.
+ */
+public class WebSocketStatsPanel extends AbstractPanel {
+
+	private static final long serialVersionUID = 4630291871429735409L;
+
+	private static final int REFRESH_INTERVAL = 1000;
+
+	private final ExtensionWebSocket extension;
+
+	private final StatsTableModel model;
+
+	private final JLabel sessionLabel;
+
+	private final JLabel storageLabel;
+
+	private final JLabel payloadFilterLabel;
+
+	private final Timer refreshTimer;
+
+	public WebSocketStatsPanel(ExtensionWebSocket extension) {
+		super();
+
+		this.extension = extension;
+
+		setName(Constant.messages.getString("websocket.stats.panel.title"));
+		setLayout(new BorderLayout());
+		setHideable(true);
+		setShowByDefault(false);
+
+		model = new StatsTableModel();
+		JTable table = new JTable(model);
+		table.setAutoCreateRowSorter(true);
+		add(new JScrollPane(table), BorderLayout.CENTER);
+
+		JPanel statusPanel = new JPanel();
+		statusPanel.setLayout(new BoxLayout(statusPanel, BoxLayout.PAGE_AXIS));
+		sessionLabel = new JLabel();
+		statusPanel.add(sessionLabel);
+		storageLabel = new JLabel();
+		statusPanel.add(storageLabel);
+		payloadFilterLabel = new JLabel();
+		statusPanel.add(payloadFilterLabel);
+		add(statusPanel, BorderLayout.SOUTH);
+
+		refreshTimer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (isShowing()) {
+					refresh();
+				}
+			}
+		});
+		refreshTimer.start();
+	}
+
+	/**
+	 * Stops refreshing, e.g. when the extension is unloaded.
+	 */
+	public void stop() {
+		refreshTimer.stop();
+	}
+
+	private void refresh() {
+		model.setMetrics(extension.getChannelMetrics());
+
+		WebSocketSessionMetrics sessionMetrics = extension.getSessionMetrics();
+		LatencyHistogram notify = sessionMetrics.getNotifyLatency();
+		sessionLabel.setText(MessageFormat.format(
+				Constant.messages.getString("websocket.stats.session"),
+				Long.valueOf(sessionMetrics.getClosedChannelCount()),
+				Long.valueOf(sessionMetrics.getClosedFrameCount(true)),
+				Long.valueOf(sessionMetrics.getClosedFrameCount(false)),
+				Long.valueOf(sessionMetrics.getClosedByteCount(true)),
+				Long.valueOf(sessionMetrics.getClosedByteCount(false)),
+				Long.valueOf(toMicros(notify.getValueAtPercentile(50))),
+				Long.valueOf(toMicros(notify.getValueAtPercentile(99))),
+				Long.valueOf(toMicros(notify.getMax()))));
+
+		WebSocketStorageWriter writer = extension.getStorageWriter();
+		if (writer == null) {
+			storageLabel.setText(Constant.messages.getString("websocket.stats.storage.sync"));
+		} else {
+			LatencyHistogram latency = writer.getQueueLatency();
+			storageLabel.setText(MessageFormat.format(
+					Constant.messages.getString("websocket.stats.storage.async"),
+					Integer.valueOf(writer.getQueueDepth()),
+					Long.valueOf(toMicros(latency.getValueAtPercentile(50))),
+					Long.valueOf(toMicros(latency.getValueAtPercentile(99))),
+					Long.valueOf(toMicros(latency.getMax()))));
+		}
+
+		FilterWebSocketPayload payloadFilter = extension.getPayloadFilter();
+		if (payloadFilter != null) {
+			payloadFilterLabel.setText(MessageFormat.format(
+					Constant.messages.getString("websocket.stats.filter"),
+					Long.valueOf(payloadFilter.getScannedCount()),
+					Long.valueOf(payloadFilter.getReplacedCount()),
+					Long.valueOf(payloadFilter.getAbortedCount()),
+					Long.valueOf(payloadFilter.getAverageScanTime()),
+					Long.valueOf(payloadFilter.getMaxScanTime())));
+		}
+	}
+
+	private static long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	private static class StatsTableModel extends AbstractTableModel {
+
+		private static final long serialVersionUID = -1894254470870416052L;
+
+		private static final String[] COLUMN_KEYS = {
+				"websocket.stats.table.header.channel",
+				"websocket.stats.table.header.frames_out",
+				"websocket.stats.table.header.frames_in",
+				"websocket.stats.table.header.bytes_out",
+				"websocket.stats.table.header.bytes_in",
+				"websocket.stats.table.header.frame_rate",
+				"websocket.stats.table.header.byte_rate" };
+
+		private final String[] columnNames;
+
+		private List<Object[]> rows = new ArrayList<>();
+
+		public StatsTableModel() {
+			columnNames = new String[COLUMN_KEYS.length];
+			for (int i = 0; i < COLUMN_KEYS.length; i++) {
+				columnNames[i] = Constant.messages.getString(COLUMN_KEYS[i]);
+			}
+		}
+
+		public void setMetrics(List<WebSocketChannelMetrics> metricsList) {
+			List<Object[]> newRows = new ArrayList<>(metricsList.size());
+			for (WebSocketChannelMetrics metrics : metricsList) {
+				newRows.add(new Object[] {
+						Integer.valueOf(metrics.getChannelId()),
+						Long.valueOf(metrics.getFrameCount(true)),
+						Long.valueOf(metrics.getFrameCount(false)),
+						Long.valueOf(metrics.getByteCount(true)),
+						Long.valueOf(metrics.getByteCount(false)),
+						Double.valueOf(round(metrics.getFrameRate(true) + metrics.getFrameRate(false))),
+						Double.valueOf(round(metrics.getByteRate(true) + metrics.getByteRate(false))) });
+			}
+
+			if (newRows.size() == rows.size()) {
+				rows = newRows;
+				if (!rows.isEmpty()) {
+					// keeps selection and sorting
+					fireTableRowsUpdated(0, rows.size() - 1);
+				}
+			} else {
+				rows = newRows;
+				fireTableDataChanged();
+			}
+		}
+
+		private static double round(double value) {
+			return Math.round(value * 100) / 100.0;
+		}
+
+		@Override
+		public int getRowCount() {
+			return rows.size();
+		}
+
+		@Override
+		public int getColumnCount() {
+			return columnNames.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return columnNames[column];
+		}
+
+		@Override
+		public Class<?> getColumnClass(int columnIndex) {
+			switch (columnIndex) {
+			case 0:
+				return Integer.class;
+			case 5:
+			case 6:
+				return Double.class;
+			default:
+				return Long.class;
+			}
+		}
+
+		@Override
+		public Object getValueAt(int rowIndex, int columnIndex) {
+			return rows.get(rowIndex)[columnIndex];
+		}
+	}
+}
@@ -25,14 +25,15 @@ public class ByteWebSocketPanelViewModel extends AbstractWebSocketBytePanelViewM
 	
 	@Override
 	public byte[] getData() {
-		if (webSocketMessage == null || webSocketMessage.payload == null)  {
+		if (webSocketMessage == null || webSocketMessage.getPayload() == null)  {
 			return new byte[0];
 		}
 		
-		if (webSocketMessage.payload instanceof String) {
-			return ((String) webSocketMessage.payload).getBytes();
-		} else if (webSocketMessage.payload instanceof byte[]) {
-			return (byte[]) webSocketMessage.payload;
+		Object payload = webSocketMessage.getPayload();
+		if (payload instanceof String) {
+			return ((String) payload).getBytes();
+		} else if (payload instanceof byte[]) {
+			return (byte[]) payload;
 		}
 		
 		return new byte[0];
@@ -42,15 +43,16 @@ public class ByteWebSocketPanelViewModel extends AbstractWebSocketBytePanelViewM
 	public void setData(byte[] data) {
 		if (webSocketMessage.opcode != null) {
 			if (webSocketMessage.opcode == WebSocketMessage.OPCODE_BINARY) {
-				webSocketMessage.payload = data;
+				webSocketMessage.setPayload(data);
 			} else {
-				webSocketMessage.payload = new String(data, Charset.forName("UTF-8"));
+				webSocketMessage.setPayload(new String(data, Charset.forName("UTF-8")));
 			}
 		} else {
-			if (webSocketMessage.payload instanceof String) {
-				webSocketMessage.payload = new String(data, Charset.forName("UTF-8"));
-			} else if (webSocketMessage.payload instanceof byte[]) {
-				webSocketMessage.payload = data;
+			Object payload = webSocketMessage.getPayload();
+			if (payload instanceof String) {
+				webSocketMessage.setPayload(new String(data, Charset.forName("UTF-8")));
+			} else if (payload instanceof byte[]) {
+				webSocketMessage.setPayload(data);
 			}
 		}
 	}
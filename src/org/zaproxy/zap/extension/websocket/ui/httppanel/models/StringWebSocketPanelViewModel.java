@@ -26,7 +26,7 @@ public class StringWebSocketPanelViewModel extends AbstractWebSocketStringPanelV
     @Override
     public String getData() {
     	String data;
-        if (webSocketMessage == null || webSocketMessage.payload == null)  {
+        if (webSocketMessage == null || webSocketMessage.getPayload() == null)  {
             data = "";
         } else {
 	        try {
@@ -46,15 +46,16 @@ public class StringWebSocketPanelViewModel extends AbstractWebSocketStringPanelV
     public void setData(String data) {
     	if (webSocketMessage.opcode != null) {
 			if (webSocketMessage.opcode == WebSocketMessage.OPCODE_BINARY) {
-				webSocketMessage.payload = data.getBytes();
+				webSocketMessage.setPayload(data.getBytes());
 			} else {
-				webSocketMessage.payload = data;
+				webSocketMessage.setPayload(data);
 			}
 		} else {
-			if (webSocketMessage.payload instanceof String) {
-				webSocketMessage.payload = data;
-			} else if (webSocketMessage.payload instanceof byte[]) {
-				webSocketMessage.payload = data.getBytes();
+			Object payload = webSocketMessage.getPayload();
+			if (payload instanceof String) {
+				webSocketMessage.setPayload(data);
+			} else if (payload instanceof byte[]) {
+				webSocketMessage.setPayload(data.getBytes());
 			}
 		}
     }
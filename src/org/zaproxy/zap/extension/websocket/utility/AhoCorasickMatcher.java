@@ -0,0 +1,211 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds occurrences of many literals with one pass over a text (Aho-Corasick).
+ * <p>
+ * The automaton is compiled into a transition table, whose columns are the
+ * distinct characters of all literals, such that each character of the text
+ * costs one table lookup independent of the number of literals. Instances
+ * are immutable and can be shared between threads.
+ */
+public class AhoCorasickMatcher {
+
+	/**
+	 * Number of columns of {@link #transitions}, column 0 stands for all
+	 * characters not contained in any literal.
+	 */
+	private final int width;
+
+	/**
+	 * Column of ASCII characters.
+	 */
+	private final int[] asciiColumns = new int[128];
+
+	/**
+	 * Sorted non-ASCII characters of the literals, with their columns in
+	 * {@link #otherColumns}.
+	 */
+	private final char[] otherChars;
+	private final int[] otherColumns;
+
+	/**
+	 * Next state by <code>state * width + column</code>, state 0 is the root.
+	 */
+	private final int[] transitions;
+
+	/**
+	 * Indexes of the literals ending in a state, null if none.
+	 */
+	private final int[][] outputs;
+
+	private final int literalCount;
+
+	/**
+	 * @param literals non-empty strings, their index is used to report matches
+	 * @throws IllegalArgumentException if a literal is empty
+	 */
+	public AhoCorasickMatcher(List<String> literals) {
+		literalCount = literals.size();
+
+		// assign columns to the characters of the literals
+		StringBuilder nonAscii = new StringBuilder();
+		int columns = 1;
+		int maxStates = 1;
+		for (String literal : literals) {
+			if (literal.isEmpty()) {
+				throw new IllegalArgumentException("Literals must not be empty.");
+			}
+			maxStates += literal.length();
+			for (int i = 0; i < literal.length(); i++) {
+				char c = literal.charAt(i);
+				if (c < 128) {
+					if (asciiColumns[c] == 0) {
+						asciiColumns[c] = columns++;
+					}
+				} else if (nonAscii.indexOf(String.valueOf(c)) == -1) {
+					nonAscii.append(c);
+				}
+			}
+		}
+		otherChars = nonAscii.toString().toCharArray();
+		Arrays.sort(otherChars);
+		otherColumns = new int[otherChars.length];
+		for (int i = 0; i < otherChars.length; i++) {
+			otherColumns[i] = columns++;
+		}
+		width = columns;
+
+		// build trie, 0 marks a missing edge as the root is never a child
+		int[] table = new int[maxStates * width];
+		List<int[]> stateOutputs = new ArrayList<>(maxStates);
+		stateOutputs.add(null);
+		int stateCount = 1;
+		for (int index = 0; index < literalCount; index++) {
+			String literal = literals.get(index);
+			int state = 0;
+			for (int i = 0; i < literal.length(); i++) {
+				int cell = state * width + getColumn(literal.charAt(i));
+				if (table[cell] == 0) {
+					table[cell] = stateCount++;
+					stateOutputs.add(null);
+				}
+				state = table[cell];
+			}
+			stateOutputs.set(state, append(stateOutputs.get(state), index));
+		}
+
+		// breadth-first: complete transitions with failure links
+		int[] failure = new int[stateCount];
+		int[] queue = new int[stateCount];
+		int head = 0;
+		int tail = 0;
+		for (int column = 1; column < width; column++) {
+			int child = table[column];
+			if (child != 0) {
+				failure[child] = 0;
+				queue[tail++] = child;
+			}
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			int fallback = failure[state];
+			for (int column = 1; column < width; column++) {
+				int cell = state * width + column;
+				int child = table[cell];
+				if (child != 0) {
+					int childFailure = table[fallback * width + column];
+					failure[child] = childFailure;
+					int[] inherited = stateOutputs.get(childFailure);
+					if (inherited != null) {
+						int[] own = stateOutputs.get(child);
+						for (int index : inherited) {
+							own = append(own, index);
+						}
+						stateOutputs.set(child, own);
+					}
+					queue[tail++] = child;
+				} else {
+					table[cell] = table[fallback * width + column];
+				}
+			}
+		}
+
+		transitions = Arrays.copyOf(table, stateCount * width);
+		outputs = stateOutputs.toArray(new int[stateCount][]);
+	}
+
+	private static int[] append(int[] indexes, int index) {
+		if (indexes == null) {
+			return new int[] { index };
+		}
+		int[] result = Arrays.copyOf(indexes, indexes.length + 1);
+		result[indexes.length] = index;
+		return result;
+	}
+
+	private int getColumn(char c) {
+		if (c < 128) {
+			return asciiColumns[c];
+		}
+		int i = Arrays.binarySearch(otherChars, c);
+		return (i >= 0) ? otherColumns[i] : 0;
+	}
+
+	/**
+	 * @return number of literals given on construction
+	 */
+	public int getLiteralCount() {
+		return literalCount;
+	}
+
+	/**
+	 * Marks the literals contained in the given text. Stops as soon as all
+	 * literals were found.
+	 * 
+	 * @param text
+	 * @param found array of at least {@link #getLiteralCount()} elements,
+	 *            elements of found literals are set to true
+	 * @return number of distinct literals found
+	 */
+	public int findAll(CharSequence text, boolean[] found) {
+		int foundCount = 0;
+		int state = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			state = transitions[state * width + getColumn(text.charAt(i))];
+			int[] indexes = outputs[state];
+			if (indexes != null) {
+				for (int index : indexes) {
+					if (!found[index]) {
+						found[index] = true;
+						if (++foundCount == literalCount) {
+							return foundCount;
+						}
+					}
+				}
+			}
+		}
+		return foundCount;
+	}
+}
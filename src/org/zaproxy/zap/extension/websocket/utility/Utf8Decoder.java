@@ -0,0 +1,140 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes UTF-8 bytes into a {@link String}, with the same (lenient) rules as
+ * {@link Utf8StringBuilder}, but faster for text that is mostly ASCII.
+ * <p>
+ * Runs of ASCII bytes are detected 8 bytes at a time, by testing the most
+ * significant bit of each byte in one {@code long} word. Multi-byte sequences
+ * are handled by the same state machine as in {@link Utf8StringBuilder}.
+ * Characters are written into a {@code char[]} sized for the worst case (one
+ * character per byte), so no resizing takes place.
+ */
+final class Utf8Decoder {
+
+	/**
+	 * Most significant bit of each byte in a {@code long}, set for all
+	 * non-ASCII bytes.
+	 */
+	private static final long NON_ASCII_MASK = 0x8080808080808080L;
+
+	private Utf8Decoder() {
+	}
+
+	/**
+	 * @param utf8bytes
+	 * @param offset
+	 * @param length
+	 * @return decoded string
+	 * @throws InvalidUtf8Exception if an invalid lead byte is found or a sequence is not complete
+	 */
+	static String decode(byte[] utf8bytes, int offset, int length) throws InvalidUtf8Exception {
+		char[] chars = new char[length];
+		int charCount = 0;
+
+		ByteBuffer words = ByteBuffer.wrap(utf8bytes);
+		int end = offset + length;
+		int lastWordStart = end - 8;
+		int i = offset;
+
+		// state of multi-byte sequence
+		int more = 0;
+		int bits = 0;
+
+		while (i < end) {
+			if (more == 0) {
+				// fast path: copy runs of ASCII
+				while (i <= lastWordStart && (words.getLong(i) & NON_ASCII_MASK) == 0) {
+					chars[charCount] = (char) utf8bytes[i];
+					chars[charCount + 1] = (char) utf8bytes[i + 1];
+					chars[charCount + 2] = (char) utf8bytes[i + 2];
+					chars[charCount + 3] = (char) utf8bytes[i + 3];
+					chars[charCount + 4] = (char) utf8bytes[i + 4];
+					chars[charCount + 5] = (char) utf8bytes[i + 5];
+					chars[charCount + 6] = (char) utf8bytes[i + 6];
+					chars[charCount + 7] = (char) utf8bytes[i + 7];
+					charCount += 8;
+					i += 8;
+				}
+				if (i == end) {
+					break;
+				}
+			}
+
+			byte b = utf8bytes[i++];
+			if (b >= 0) {
+				if (more > 0) {
+					// unfinished sequence
+					chars[charCount++] = '?';
+					more = 0;
+					bits = 0;
+				} else {
+					chars[charCount++] = (char) b;
+				}
+			} else if (more == 0) {
+				if ((b & 0xc0) != 0xc0) {
+					// 10xxxxxx without lead byte
+					chars[charCount++] = '?';
+				} else if ((b & 0xe0) == 0xc0) {
+					// 110xxxxx
+					more = 1;
+					bits = b & 0x1f;
+				} else if ((b & 0xf0) == 0xe0) {
+					// 1110xxxx
+					more = 2;
+					bits = b & 0x0f;
+				} else if ((b & 0xf8) == 0xf0) {
+					// 11110xxx
+					more = 3;
+					bits = b & 0x07;
+				} else if ((b & 0xfc) == 0xf8) {
+					// 111110xx
+					more = 4;
+					bits = b & 0x03;
+				} else if ((b & 0xfe) == 0xfc) {
+					// 1111110x
+					more = 5;
+					bits = b & 0x01;
+				} else {
+					throw new InvalidUtf8Exception("Given bytes are no valid UTF-8!");
+				}
+			} else {
+				if ((b & 0xc0) == 0xc0) {
+					// lead byte within sequence
+					throw new InvalidUtf8Exception("Given bytes are no valid UTF-8!");
+				}
+
+				// 10xxxxxx
+				bits = (bits << 6) | (b & 0x3f);
+				if (--more == 0) {
+					chars[charCount++] = (char) bits;
+				}
+			}
+		}
+
+		if (more != 0) {
+			throw new InvalidUtf8Exception("Given bytes are no valid UTF-8!");
+		}
+
+		return new String(chars, 0, charCount);
+	}
+}
@@ -55,25 +55,35 @@ public abstract class Utf8Util {
 	 * @throws InvalidUtf8Exception 
 	 */
 	public static String encodePayloadToUtf8(byte[] utf8bytes, int offset, int length) throws InvalidUtf8Exception {
-		try {
-			Utf8StringBuilder builder = new Utf8StringBuilder(length);
-			builder.append(utf8bytes, offset, length);
-
-			return builder.toString();
-		} catch (IllegalArgumentException e) {
-			if (e.getMessage().equals("!utf8")) {
-				throw new InvalidUtf8Exception("Given bytes are no valid UTF-8!");
+		return Utf8Decoder.decode(utf8bytes, offset, length);
+	}
+	
+	/**
+	 * Returns given length reduced by an incomplete multi-byte sequence at the
+	 * end, e.g. after the bytes were cut for a preview.
+	 * 
+	 * @param utf8bytes
+	 * @param length number of bytes to consider
+	 * @return length without incomplete sequence at the end
+	 */
+	public static int getCompleteLength(byte[] utf8bytes, int length) {
+		// a sequence has got at most 6 bytes (see Utf8StringBuilder)
+		int minStart = Math.max(0, length - 6);
+		for (int i = length - 1; i >= minStart; i--) {
+			int b = utf8bytes[i] & 0xFF;
+			if (b < 0x80) {
+				// ASCII, no sequence at the end
+				return length;
 			}
-			throw e;
-			
-		} catch (IllegalStateException e) {
-			if (e.getMessage().equals("!utf8")) {
-				throw new InvalidUtf8Exception("Given bytes are no valid UTF-8!");
+			if (b >= 0xC0) {
+				// lead byte, number of leading one bits is sequence length
+				int sequenceLength = Integer.numberOfLeadingZeros(~(b << 24));
+				return (i + sequenceLength > length) ? i : length;
 			}
-			throw e;
 		}
+		return length;
 	}
-	
+
 	/**
 	 * Helper method that takes an UTF-8 string and returns its byte
 	 * representation.
@@ -0,0 +1,92 @@
+package org.zaproxy.zap.extension.pscanrules.utils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ContentMatcherUnitTest {
+
+    private static ContentMatcher createMatcher(String... patterns) {
+        StringBuilder xml = new StringBuilder("<Patterns>");
+        for (String pattern : patterns) {
+            xml.append(pattern);
+        }
+        xml.append("</Patterns>");
+        return ContentMatcher.getInstance(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void shouldReturnFirstDefinedStringNotFirstOccurrence() {
+        // given
+        ContentMatcher matcher = createMatcher(
+                "<Pattern type=\"string\">Internal Server Error</Pattern>",
+                "<Pattern type=\"string\">ODBC Driver</Pattern>");
+        // when
+        String evidence = matcher.findInContent("ODBC Driver failed: Internal Server Error");
+        // then
+        assertThat(evidence, is(equalTo("Internal Server Error")));
+    }
+
+    @Test
+    public void shouldMatchStringsCaseSensitively() {
+        // given
+        ContentMatcher matcher = createMatcher("<Pattern type=\"string\">PHP Warning</Pattern>");
+        // when
+        String evidence = matcher.findInContent("php warning: something went wrong");
+        // then
+        assertThat(evidence, is(nullValue()));
+    }
+
+    @Test
+    public void shouldPreferStringsOverRegexes() {
+        // given
+        ContentMatcher matcher = createMatcher(
+                "<Pattern type=\"regex\">(?i)ORA\\-\\d{4,5}:\\s</Pattern>",
+                "<Pattern type=\"string\">Oracle Error</Pattern>");
+        // when
+        String evidence = matcher.findInContent("ora-01756: Oracle Error");
+        // then
+        assertThat(evidence, is(equalTo("Oracle Error")));
+    }
+
+    @Test
+    public void shouldFindCaseInsensitiveRegexWithRequiredLiteral() {
+        // given
+        ContentMatcher matcher = createMatcher("<Pattern type=\"regex\">(?i)ORA\\-\\d{4,5}:\\s</Pattern>");
+        // when
+        String evidence = matcher.findInContent("<p>ora-01756: quoted string not properly terminated</p>");
+        // then
+        assertThat(evidence, is(equalTo("ora-01756: ")));
+    }
+
+    @Test
+    public void shouldFindRegexWithAlternatives() {
+        // given
+        ContentMatcher matcher = createMatcher(
+                "<Pattern type=\"regex\">(?:Unknown database '.*?')|(?:No database selected)</Pattern>");
+        // when
+        String evidence = matcher.findInContent("Error: No database selected");
+        // then
+        assertThat(evidence, is(equalTo("No database selected")));
+    }
+
+    @Test
+    public void shouldFindAllOccurrences() {
+        // given
+        ContentMatcher matcher = createMatcher(
+                "<Pattern type=\"string\">ODBC Driver</Pattern>",
+                "<Pattern type=\"string\">JDBC Driver</Pattern>",
+                "<Pattern type=\"regex\">(?i)Servlet\\sError&lt;/title&gt;</Pattern>");
+        // when
+        String content = "<title>Servlet Error</title> ODBC Driver";
+        // then
+        assertThat(matcher.findAllInContent(content), contains("ODBC Driver", content));
+    }
+}
@@ -0,0 +1,87 @@
+package org.zaproxy.zap.extension.pscanrules.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PrivateAddressScannerUnitTest {
+
+    private static List<String> findAll(PrivateAddressScanner scanner) {
+        List<String> addresses = new ArrayList<>();
+        while (scanner.find()) {
+            addresses.add(scanner.group());
+        }
+        return addresses;
+    }
+
+    @Test
+    public void shouldFindPrivateAddressesWithPorts() {
+        // given
+        PrivateAddressScanner scanner = new PrivateAddressScanner(
+                "db=10.0.0.1:5432, cache=172.16.254.3 and 192.168.1.100:8080/path");
+        // when
+        List<String> addresses = findAll(scanner);
+        // then
+        assertThat(addresses, contains("10.0.0.1:5432", "172.16.254.3", "192.168.1.100:8080"));
+    }
+
+    @Test
+    public void shouldFindAddressesOfAwsHostNames() {
+        // given
+        PrivateAddressScanner scanner = new PrivateAddressScanner("ip-10-2-3-200.ec2.internal");
+        // when
+        List<String> addresses = findAll(scanner);
+        // then
+        assertThat(addresses, contains("10-2-3-200"));
+    }
+
+    @Test
+    public void shouldIgnorePublicAndInvalidAddresses() {
+        // given
+        PrivateAddressScanner scanner = new PrivateAddressScanner(
+                "8.8.8.8 172.32.0.1 192.169.0.1 10.256.0.1 10.0.1000.1 10.0.0");
+        // when
+        List<String> addresses = findAll(scanner);
+        // then
+        assertThat(addresses, is(empty()));
+    }
+
+    @Test
+    public void shouldStopLastOctetAndPortAtLongestValidPrefix() {
+        // given
+        PrivateAddressScanner scanner = new PrivateAddressScanner("10.0.0.256 192.168.0.1:65536");
+        // when
+        List<String> addresses = findAll(scanner);
+        // then
+        assertThat(addresses, contains("10.0.0.25", "192.168.0.1:6553"));
+    }
+
+    @Test
+    public void shouldFindAddressesInBytes() {
+        // given
+        byte[] content = "{\"host\": \"10.1.2.3:8443\", \"caf\u00e9\": \"192.168.0.10\"}".getBytes(StandardCharsets.UTF_8);
+        PrivateAddressScanner scanner = new PrivateAddressScanner(content);
+        // when
+        List<String> addresses = findAll(scanner);
+        // then
+        assertThat(addresses, contains("10.1.2.3:8443", "192.168.0.10"));
+    }
+
+    @Test
+    public void shouldNotIncludeColonFollowedByNonAsciiCharacterInBytes() {
+        // given
+        byte[] content = "Host 192.168.10.5:\u20ac and 10.0.0.1:\u2013".getBytes(StandardCharsets.UTF_8);
+        PrivateAddressScanner scanner = new PrivateAddressScanner(content);
+        // when
+        List<String> addresses = findAll(scanner);
+        // then
+        assertThat(addresses, contains("192.168.10.5", "10.0.0.1"));
+    }
+}
@@ -0,0 +1,133 @@
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketPayloadTokenizerUnitTest {
+
+	@Test
+	public void shouldSplitJsonIntoLowerCasedWords() throws Exception {
+		// given
+		byte[] payload = "{\"Type\":\"LOGIN\",\"user_name\":\"Alice\",\"id\":42}".getBytes("UTF-8");
+		// when
+		Set<String> tokens = WebSocketPayloadTokenizer.tokenize(payload);
+		// then
+		assertThat(tokens, contains("type", "login", "user_name", "alice", "id", "42"));
+	}
+
+	@Test
+	public void shouldReturnDistinctWordsInOrderOfFirstOccurrence() {
+		// given
+		String text = "bb aa-bb cc BB";
+		// when
+		Set<String> tokens = WebSocketPayloadTokenizer.tokenize(text, WebSocketPayloadTokenizer.MAX_TOKENS);
+		// then
+		assertThat(tokens, contains("bb", "aa", "cc"));
+	}
+
+	@Test
+	public void shouldIgnoreWordsShorterThanMinimumLength() {
+		// given
+		String text = "a bc d";
+		// when
+		Set<String> tokens = WebSocketPayloadTokenizer.tokenize(text, WebSocketPayloadTokenizer.MAX_TOKENS);
+		// then
+		assertThat(tokens, contains("bc"));
+	}
+
+	@Test
+	public void shouldReturnNoWordsForTextWithoutWordCharacters() {
+		// given
+		String text = " {}[],:\"-+ ";
+		// when
+		Set<String> tokens = WebSocketPayloadTokenizer.tokenize(text, WebSocketPayloadTokenizer.MAX_TOKENS);
+		// then
+		assertThat(tokens, is(empty()));
+	}
+
+	@Test
+	public void shouldKeepNonAsciiLettersAndDigits() throws Exception {
+		// given
+		byte[] payload = "gr\u00fc\u00dfe \u0661\u0662 \u20ac\u20ac".getBytes("UTF-8");
+		// when
+		Set<String> tokens = WebSocketPayloadTokenizer.tokenize(payload);
+		// then
+		assertThat(tokens, contains("gr\u00fc\u00dfe", "\u0661\u0662"));
+	}
+
+	@Test
+	public void shouldLowerCaseIndependentOfDefaultLocale() {
+		// given
+		String text = "TITLE";
+		Locale defaultLocale = Locale.getDefault();
+		Locale.setDefault(new Locale("tr"));
+		Set<String> tokens;
+		try {
+			// when
+			tokens = WebSocketPayloadTokenizer.tokenize(text, WebSocketPayloadTokenizer.MAX_TOKENS);
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+		// then
+		assertThat(tokens, contains("title"));
+	}
+
+	@Test
+	public void shouldTruncateLongWords() {
+		// given
+		char[] word = new char[WebSocketPayloadTokenizer.MAX_TOKEN_LENGTH + 10];
+		Arrays.fill(word, 'x');
+		// when
+		Set<String> tokens = WebSocketPayloadTokenizer.tokenize(new String(word), WebSocketPayloadTokenizer.MAX_TOKENS);
+		// then
+		assertThat(tokens.iterator().next().length(), is(equalTo(WebSocketPayloadTokenizer.MAX_TOKEN_LENGTH)));
+	}
+
+	@Test
+	public void shouldStopAfterMaximumNumberOfWords() {
+		// given
+		String text = "aa bb cc dd";
+		// when
+		Set<String> tokens = WebSocketPayloadTokenizer.tokenize(text, 2);
+		// then
+		assertThat(tokens, contains("aa", "bb"));
+	}
+
+	@Test
+	public void shouldIndexOnlyLeadingBytesOfPayload() throws Exception {
+		// given
+		StringBuilder text = new StringBuilder("first ");
+		while (text.length() < WebSocketPayloadTokenizer.MAX_INDEXED_BYTES) {
+			text.append("  ");
+		}
+		text.append("last");
+		// when
+		Set<String> tokens = WebSocketPayloadTokenizer.tokenize(text.toString().getBytes("UTF-8"));
+		// then
+		assertThat(tokens, contains("first"));
+	}
+
+	@Test
+	public void shouldNotCutMultiByteCharacterAtIndexLimit() throws Exception {
+		// given
+		StringBuilder text = new StringBuilder();
+		while (text.length() < WebSocketPayloadTokenizer.MAX_INDEXED_BYTES - 1) {
+			text.append(' ');
+		}
+		// 2 bytes, of which only the first one is within the limit
+		text.append("\u00fcber");
+		// when
+		Set<String> tokens = WebSocketPayloadTokenizer.tokenize(text.toString().getBytes("UTF-8"));
+		// then
+		assertThat(tokens, is(empty()));
+	}
+}
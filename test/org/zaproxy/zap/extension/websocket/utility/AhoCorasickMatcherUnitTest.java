@@ -0,0 +1,61 @@
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AhoCorasickMatcherUnitTest {
+
+	@Test
+	public void shouldFindOverlappingLiterals() {
+		// given
+		AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("he", "she", "his", "hers"));
+		boolean[] found = new boolean[4];
+		// when
+		int count = matcher.findAll("ushers", found);
+		// then
+		assertThat(count, is(equalTo(3)));
+		assertThat(found[0], is(equalTo(true)));
+		assertThat(found[1], is(equalTo(true)));
+		assertThat(found[2], is(equalTo(false)));
+		assertThat(found[3], is(equalTo(true)));
+	}
+
+	@Test
+	public void shouldFindNonAsciiLiterals() {
+		// given
+		AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("\u20ac42", "caf\u00e9"));
+		boolean[] found = new boolean[2];
+		// when
+		int count = matcher.findAll("{\"price\":\"\u20ac42\",\"shop\":\"cafe\"}", found);
+		// then
+		assertThat(count, is(equalTo(1)));
+		assertThat(found[0], is(equalTo(true)));
+		assertThat(found[1], is(equalTo(false)));
+	}
+
+	@Test
+	public void shouldFindNothingInEmptyText() {
+		// given
+		AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("token"));
+		boolean[] found = new boolean[1];
+		// when
+		int count = matcher.findAll("", found);
+		// then
+		assertThat(count, is(equalTo(0)));
+		assertThat(found[0], is(equalTo(false)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldFailOnEmptyLiteral() {
+		// given
+		String emptyLiteral = "";
+		// when
+		new AhoCorasickMatcher(Arrays.asList(emptyLiteral));
+		// then IllegalArgumentException
+	}
+}
@@ -37,4 +37,73 @@ public class Utf8UtilUnitTest {
 		assertThat(s, is(equalTo("123")));
 	}
 
+	@Test
+	public void shouldEncodeAsciiBytesLongerThanOneWord() throws Exception {
+		// given
+		byte[] utf8 = "{\"key\":\"value\",\"id\":42}".getBytes("UTF-8");
+		// when
+		String s = Utf8Util.encodePayloadToUtf8(utf8);
+		// then
+		assertThat(s, is(equalTo("{\"key\":\"value\",\"id\":42}")));
+	}
+
+	@Test
+	public void shouldEncodeMultiByteCharactersBetweenAsciiRuns() throws Exception {
+		// given
+		String text = "abcdefghij\u00fcklmnopqrst\u20acuvwxyz0123456789";
+		byte[] utf8 = text.getBytes("UTF-8");
+		// when
+		String s = Utf8Util.encodePayloadToUtf8(utf8);
+		// then
+		assertThat(s, is(equalTo(text)));
+	}
+
+	@Test
+	public void shouldEncodeGivenRangeOnly() throws Exception {
+		// given
+		byte[] utf8 = "0123456789abcdefghij".getBytes("UTF-8");
+		// when
+		String s = Utf8Util.encodePayloadToUtf8(utf8, 3, 12);
+		// then
+		assertThat(s, is(equalTo("3456789abcde")));
+	}
+
+	@Test(expected = InvalidUtf8Exception.class)
+	public void shouldFailOnInvalidByteAfterAsciiRun() throws Exception {
+		// given
+		byte[] invalidUtf8 = new byte[] {49, 50, 51, 52, 53, 54, 55, 56, 57, -1};
+		// when
+		Utf8Util.encodePayloadToUtf8(invalidUtf8);
+		// then InvalidUtf8Exception
+	}
+
+	@Test(expected = InvalidUtf8Exception.class)
+	public void shouldFailOnIncompleteMultiByteSequence() throws Exception {
+		// given
+		byte[] invalidUtf8 = new byte[] {49, 50, 51, 52, 53, 54, 55, 56, (byte) 0xe2, (byte) 0x82};
+		// when
+		Utf8Util.encodePayloadToUtf8(invalidUtf8);
+		// then InvalidUtf8Exception
+	}
+
+	@Test
+	public void shouldExcludeIncompleteSequenceAtEndFromLength() throws Exception {
+		// given
+		byte[] utf8 = "ab\u20ac".getBytes("UTF-8");
+		// when
+		int length = Utf8Util.getCompleteLength(utf8, 4);
+		// then
+		assertThat(length, is(equalTo(2)));
+	}
+
+	@Test
+	public void shouldKeepLengthOfCompleteSequences() throws Exception {
+		// given
+		byte[] utf8 = "ab\u20ac".getBytes("UTF-8");
+		// when
+		int length = Utf8Util.getCompleteLength(utf8, utf8.length);
+		// then
+		assertThat(length, is(equalTo(5)));
+	}
+
 }